@@ -43,6 +43,9 @@ public class BlueMOSS
 	{
 		System.out.println ("MOSS (Mini Operating-System Simulator) version " + MConfig.version + " [bluej] starting...");
 
+		/* boot-time settings (number of CPUs, sizes) */
+		MConfig.configure ((bootargs == null) ? new String[0] : bootargs, System.out);
+
 		/* create virtual processors */
 		cpus = new MProcessor[MConfig.ncpus];
 		for (int i=0; i<cpus.length; i++) {
@@ -38,6 +38,9 @@ public class MiniOSSim
 		
 		System.out.println ("MOSS (Mini Operating-System Simulator) version " + MConfig.version + " starting...");
 
+		/* boot-time settings (number of CPUs, sizes) */
+		MConfig.configure (args, System.out);
+
 		/* initialise CPU objects */
 		cpus = new MProcessor[MConfig.ncpus];
 		for (int i = 0; i < cpus.length; i++) {
@@ -0,0 +1,61 @@
+package moss.bench;
+
+import moss.kernel.MKernel;
+import moss.kernel.MProcess;
+import moss.kernel.MProcessor;
+
+/*
+ * Cost of finding the current CPU, which nearly every system call does
+ * first.  Compares MProcessor.currentCPU() (the process knows its CPU) with
+ * MProcessor.find_cpu() (check every processor, which is what currentCPU()
+ * used to do).  The measuring thread sits on the last CPU, the worst case
+ * for the scan.
+ *
+ * usage: java moss.bench.CurrentCPUBench [calls-per-run]
+ */
+public class CurrentCPUBench {
+	public static void main(String[] args) throws InterruptedException {
+		final long calls = (args.length > 0) ? Long.parseLong(args[0]) : 20000000L;
+		int[] cpuCounts = {2, 8, 32, 128};
+
+		System.out.println("cpus   currentCPU ns/call   find_cpu ns/call");
+		for (int cpus : cpuCounts) {
+			MKernel.processors = new MProcessor[cpus];
+			for (int i=0; i<cpus; i++) {
+				MKernel.processors[i] = new MProcessor(i);
+				MKernel.processors[i].set_process(new MProcess());
+			}
+
+			final double[] results = new double[2];
+			MProcess bench = new MProcess() {
+				public void run() {
+					//First pass of each is a warm-up.
+					for (int pass=0; pass<2; pass++) {
+						results[0] = Time(true, calls);
+						results[1] = Time(false, calls);
+					}
+				}
+			};
+			MKernel.processors[cpus - 1].set_process(bench);
+			bench.start();
+			bench.join();
+
+			System.out.println(String.format("%4d   %18.2f   %16.2f", cpus, results[0], results[1]));
+		}
+	}
+
+	//Private Methods
+	private static double Time(boolean bound, long calls) {
+		Thread self = Thread.currentThread();
+		long sum = 0;
+		long start = System.nanoTime();
+
+		for (long i=0; i<calls; i++) {
+			sum += bound ? MProcessor.currentCPU() : MProcessor.find_cpu(self);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (sum == 42)
+			System.out.print("");		//keep the loop alive
+		return (double)elapsed / calls;
+	}
+}
@@ -0,0 +1,112 @@
+package moss.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import moss.kernel.MConfig;
+import moss.kernel.MKernel;
+import moss.kernel.MProcess;
+import moss.kernel.MProcessor;
+
+/*
+ * Contention on the kernel locks.  Host threads hammer MKernel.find_process()
+ * (task-list readers) and MKernel.add_to_run_queue() (run-queue writers) at
+ * the same time, the way many MOSS processes doing kill/wait/sendmsg and
+ * wakeups would.  Every virtual CPU is kept busy with a placeholder process
+ * so add_to_run_queue() only queues; each writer takes its process straight
+ * back off the run-queue again.
+ *
+ * usage: java moss.bench.KernelLockBench [millis-per-run] [processes]
+ */
+public class KernelLockBench {
+	public static void main(String[] args) throws InterruptedException {
+		long millis = (args.length > 0) ? Long.parseLong(args[0]) : 2000;
+		int processes = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int[] threadCounts = {1, 4, 16, 64};
+
+		Boot(processes);
+
+		System.out.println("threads   find_process/sec   add_to_run_queue/sec");
+		for (int threads : threadCounts) {
+			Run(threads, processes, millis);
+		}
+		System.exit(0);
+	}
+
+	//Private Methods
+	private static void Boot(int processes) {
+		MProcessor[] cpus = new MProcessor[MConfig.ncpus];
+
+		for (int i=0; i<cpus.length; i++) {
+			cpus[i] = new MProcessor(i);
+		}
+		MKernel.init_kernel(cpus, new PrintStream(OutputStream.nullOutputStream()));
+
+		//Keep every CPU busy so nothing is ever dispatched for real.
+		for (int i=0; i<cpus.length; i++) {
+			cpus[i].set_process(new MProcess());
+		}
+		for (int i=0; i<processes; i++) {
+			MProcess process = new MProcess();
+
+			process.pid = MKernel.get_free_pid();
+			MKernel.add_to_task_list(process);
+		}
+	}
+
+	private static void Run(int threadCount, final int processes, long millis) throws InterruptedException {
+		final long[] finds = new long[threadCount];
+		final long[] adds = new long[threadCount];
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread[] threads = new Thread[threadCount];
+
+		for (int i=0; i<threadCount; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				public void run() {
+					Random random = new Random(index);
+					MProcess mine = new MProcess();
+					long findCount = 0;
+					long addCount = 0;
+
+					while (!stop.get()) {
+						//Roughly one wakeup for every eight lookups.
+						if ((random.nextInt() & 7) == 0) {
+							MKernel.add_to_run_queue(mine);
+							MKernel.lock.claim_write();
+							MKernel.getScheduler().RemoveProcess(mine);
+							MKernel.lock.release_write();
+							addCount++;
+						} else {
+							MKernel.find_process(random.nextInt(processes));
+							findCount++;
+						}
+					}
+					finds[index] = findCount;
+					adds[index] = addCount;
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(millis);
+		stop.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long findTotal = 0;
+		long addTotal = 0;
+		for (int i=0; i<threadCount; i++) {
+			findTotal += finds[i];
+			addTotal += adds[i];
+		}
+		System.out.println(String.format("%7d   %16.0f   %20.0f", threadCount, findTotal / seconds, addTotal / seconds));
+	}
+}
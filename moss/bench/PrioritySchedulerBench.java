@@ -0,0 +1,86 @@
+package moss.bench;
+
+import java.util.Random;
+
+import moss.kernel.IScheduler;
+import moss.kernel.MProcess;
+import moss.kernel.Scheduler.BitmapPriorityScheduler;
+import moss.kernel.Scheduler.IPriorityScheduler;
+import moss.kernel.Scheduler.MPrioritizedProcess;
+import moss.kernel.Scheduler.ProcessPriorityEnum;
+import moss.kernel.Scheduler.RoundRobinPriorityScheduler;
+
+/*
+ * Cost of the priority schedulers' operations, single-threaded:
+ * RoundRobinPriorityScheduler (a Hashtable of queues, enumerated on every
+ * pick) against BitmapPriorityScheduler (per-level queues plus an occupancy
+ * bitmap).  Each iteration is a reschedule (IsProcessAvailable, GetNextProcess,
+ * AddProcess); one in sixteen also reprioritises a random queued PID.
+ *
+ * RoundRobinPriorityScheduler decays the (shared) priority values as it picks,
+ * so they are reset before every run.
+ *
+ * usage: java moss.bench.PrioritySchedulerBench [iterations-per-run]
+ */
+public class PrioritySchedulerBench {
+	public static void main(String[] args) {
+		long iterations = (args.length > 0) ? Long.parseLong(args[0]) : 2000000L;
+		int[] processCounts = {16, 256, 4096};
+
+		System.out.println("scheduler        processes   ns/reschedule");
+		for (int processes : processCounts) {
+			//First pass of each is a warm-up.
+			for (int pass=0; pass<2; pass++) {
+				double roundRobin = Run(new RoundRobinPriorityScheduler(), processes, iterations);
+				double bitmap = Run(new BitmapPriorityScheduler(), processes, iterations);
+
+				if (pass == 1) {
+					Report("RoundRobin", processes, roundRobin);
+					Report("Bitmap", processes, bitmap);
+				}
+			}
+		}
+	}
+
+	//Private Methods
+	private static void Report(String name, int processes, double nanos) {
+		System.out.println(String.format("%-16s %9d   %13.1f", name, processes, nanos));
+	}
+
+	private static double Run(IScheduler scheduler, int processes, long iterations) {
+		ProcessPriorityEnum[] priorities = ProcessPriorityEnum.values();
+		Random random = new Random(42);
+		long checksum = 0;
+
+		ProcessPriorityEnum.High.setPriorityValue(100);
+		ProcessPriorityEnum.Medium.setPriorityValue(50);
+		ProcessPriorityEnum.Low.setPriorityValue(20);
+
+		for (int i=0; i<processes; i++) {
+			MPrioritizedProcess process = new MPrioritizedProcess();
+
+			process.pid = i + 1;
+			process.SetPriority(priorities[i % priorities.length]);
+			scheduler.AddProcess(process);
+		}
+
+		long start = System.nanoTime();
+		for (long i=0; i<iterations; i++) {
+			if ((i & 15) == 0) {
+				((IPriorityScheduler)scheduler).setProcessPriority(1 + random.nextInt(processes),
+						priorities[random.nextInt(priorities.length)]);
+			}
+			if (scheduler.IsProcessAvailable()) {
+				MProcess process = scheduler.GetNextProcess();
+
+				checksum += process.pid;
+				scheduler.AddProcess(process);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		if (checksum == 42)
+			System.out.print("");		//keep the loop alive
+		return (double)elapsed / iterations;
+	}
+}
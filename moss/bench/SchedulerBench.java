@@ -0,0 +1,96 @@
+package moss.bench;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import moss.kernel.FIFOScheduler;
+import moss.kernel.IScheduler;
+import moss.kernel.MProcess;
+import moss.kernel.Scheduler.MWorkStealingProcess;
+import moss.kernel.Scheduler.WorkStealingScheduler;
+
+/*
+ * Dispatch throughput of the FIFO scheduler against the per-CPU work-stealing
+ * scheduler.  One host thread stands in for each virtual CPU and loops taking
+ * the next process for its CPU and queueing it again, as a reschedule does.
+ * The FIFO scheduler keeps a single queue and relies on the caller for
+ * locking, so its CPUs share one lock, just as they share MKernel.lock.
+ *
+ * usage: java moss.bench.SchedulerBench [millis-per-run]
+ */
+public class SchedulerBench {
+	public static void main(String[] args) throws InterruptedException {
+		long millis = (args.length > 0) ? Long.parseLong(args[0]) : 2000;
+		int[] cpuCounts = {2, 8, 32};
+
+		System.out.println("scheduler        cpus   dispatches/sec");
+		for (int cpus : cpuCounts) {
+			Report("FIFO", cpus, Run(new FIFOScheduler(), true, cpus, millis));
+			Report("WorkStealing", cpus, Run(new WorkStealingScheduler(cpus), false, cpus, millis));
+		}
+	}
+
+	//Private Methods
+	private static void Report(String name, int cpus, double rate) {
+		System.out.println(String.format("%-16s %4d   %14.0f", name, cpus, rate));
+	}
+
+	private static double Run(final IScheduler scheduler, final boolean globalLock, int cpus, long millis)
+			throws InterruptedException {
+		final Object lock = new Object();
+		final long[] counts = new long[cpus];
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread[] threads = new Thread[cpus];
+
+		for (int i=0; i<cpus * PROCESSES_PER_CPU; i++) {
+			scheduler.AddProcess(globalLock ? new MProcess() : new MWorkStealingProcess());
+		}
+
+		for (int i=0; i<cpus; i++) {
+			final int cpu = i;
+			threads[i] = new Thread() {
+				public void run() {
+					long count = 0;
+
+					while (!stop.get()) {
+						MProcess process;
+
+						if (globalLock) {
+							synchronized (lock) {
+								process = scheduler.GetNextProcess(cpu);
+								if (process != null)
+									scheduler.AddProcess(process);
+							}
+						} else {
+							process = scheduler.GetNextProcess(cpu);
+							if (process != null)
+								scheduler.AddProcess(process);
+						}
+						if (process != null)
+							count++;
+					}
+					counts[cpu] = count;
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(millis);
+		stop.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total * 1e9 / elapsed;
+	}
+
+	//Private Fields
+	private static final int PROCESSES_PER_CPU = 4;
+}
@@ -134,9 +134,7 @@ public class MJavaConsole implements MFileOps
 						//{{{  if the keyboard process has a waiting reader, wake it up
 						if (!console.blocked_reader.is_empty() && !do_sleep) {
 							/* wake up a blocked reader */
-							MProcess p = console.blocked_reader.get_from_queue ();
-
-							MKernel.add_to_run_queue (p);
+							console.blocked_reader.wake_one ();
 						}
 						//}}}
 					}
@@ -256,7 +254,7 @@ public class MJavaConsole implements MFileOps
 				if (bufin == 0) {
 					//{{{  empty buffer, put reader to sleep
 					synchronized (current) {
-						blocked_reader.add_to_queue (current);
+						blocked_reader.add_exclusive (current);
 						current.state = MProcess.TASK_SLEEPING;
 						do_sleep = true;
 					}
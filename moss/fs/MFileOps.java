@@ -104,6 +104,10 @@ public interface MFileOps
 	public static final int F_GETFL = 1;
 	/** set file-descriptor flags */
 	public static final int F_SETFL = 2;
+	/** set pipe capacity */
+	public static final int F_SETPIPE_SZ = 3;
+	/** get pipe capacity */
+	public static final int F_GETPIPE_SZ = 4;
 
 
 	/** non-blocking flag */
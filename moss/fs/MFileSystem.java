@@ -317,6 +317,10 @@ public class MFileSystem
 	{
 		int didx = find_mount (path);
 		String rpath;
+		int r;
+
+		/* during boot, the file might still be on its way in */
+		MInitTask.wait_boot_file (path);
 
 		if (didx < 0) {
 			return -MSystem.ENOENT;
@@ -324,8 +328,13 @@ public class MFileSystem
 		rpath = split_mount (path, didx);
 
 		synchronized (synclock) {
-			return filesystems[didx].open (rpath, handle, flags, mode);
+			r = filesystems[didx].open (rpath, handle, flags, mode);
+		}
+		if ((r == 0) && ((flags & (MFileOps.OPEN_WRITE | MFileOps.OPEN_TRUNC)) != 0)) {
+			/* might be rewriting a program */
+			MExec.invalidate_cached (path);
 		}
+		return r;
 	}
 	//}}}
 	//{{{  public static int opendir (String path, MFile handle)
@@ -342,6 +351,9 @@ public class MFileSystem
 		int didx = find_mount (path);
 		String rpath;
 
+		/* during boot, files might still be on their way in */
+		MInitTask.wait_boot_dir (path);
+
 		if (didx < 0) {
 			return -MSystem.ENOENT;
 		}
@@ -366,6 +378,9 @@ public class MFileSystem
 		int didx = find_mount (path);
 		String rpath;
 
+		/* during boot, a file of that name might still be on its way in */
+		MInitTask.wait_boot_file (path);
+
 		if (didx < 0) {
 			return -MSystem.ENOENT;
 		}
@@ -390,6 +405,9 @@ public class MFileSystem
 		int didx = find_mount (path);
 		String rpath;
 
+		/* during boot, the file might still be on its way in */
+		MInitTask.wait_boot_file (path);
+
 		if (didx < 0) {
 			return -MSystem.ENOENT;
 		}
@@ -413,6 +431,9 @@ public class MFileSystem
 		int didx = find_mount (path);
 		String rpath;
 
+		/* during boot, the file might still be on its way in */
+		MInitTask.wait_boot_file (path);
+
 		if (didx < 0) {
 			return -MSystem.ENOENT;
 		}
@@ -434,14 +455,23 @@ public class MFileSystem
 	{
 		int didx = find_mount (path);
 		String rpath;
+		int r;
+
+		/* during boot, the file (or ones in the directory) might still be on the way in */
+		MInitTask.wait_boot_file (path);
+		MInitTask.wait_boot_dir (path);
 
 		if (didx < 0) {
 			return -MSystem.ENOENT;
 		}
 		rpath = split_mount (path, didx);
 		synchronized (synclock) {
-			return filesystems[didx].unlink (rpath);
+			r = filesystems[didx].unlink (rpath);
+		}
+		if (r == 0) {
+			MExec.invalidate_cached (path);
 		}
+		return r;
 	}
 	//}}}
 }
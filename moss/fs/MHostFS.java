@@ -751,7 +751,7 @@ public class MHostFS implements MFSOps
 			statbuf.blksize = 512;
 			statbuf.nblocks = (statbuf.size / statbuf.blksize);
 			statbuf.atime = 0;
-			statbuf.mtime = 0;
+			statbuf.mtime = fpath.lastModified ();
 			statbuf.ctime = 0;
 			if (fpath.isDirectory ()) {
 				statbuf.mode = 0111;
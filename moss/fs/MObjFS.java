@@ -198,6 +198,7 @@ public class MObjFS implements MFSOps
 				/* truncate contents of the file if already set */
 				this.data = null;
 				this.inode.size = 0;
+				this.inode.mtime = System.currentTimeMillis ();
 			}
 			return 0;
 		}
@@ -274,6 +275,7 @@ public class MObjFS implements MFSOps
 			if (handle.offset > inode.size) {
 				inode.size = handle.offset;		/* got bigger */
 			}
+			inode.mtime = System.currentTimeMillis ();
 
 			return count;
 		}
@@ -332,6 +334,7 @@ public class MObjFS implements MFSOps
 		ino.nlinks = 1;
 		ino.uid = uid;
 		ino.gid = gid;
+		ino.mtime = System.currentTimeMillis ();
 
 		return ent;
 	}
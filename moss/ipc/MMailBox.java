@@ -21,35 +21,75 @@ package moss.ipc;
 
 import moss.kernel.*;
 import moss.fs.*;
+import moss.user.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * this class provides mailbox style IPC.  processes implicitly get mailboxes
  * addressed by their PID.
+ *
+ * Messages in a mailbox are indexed by what a receiver can ask for:  each
+ * is on four FIFO lists, for its (source, type), its source with any type,
+ * its type from any source, and everything (arrival order), so that every
+ * receive takes the oldest message off one list.  A list's key is the
+ * (source, type) filter that selects it, with -1 for "any".  Receivers
+ * sleep on a wait-queue for their filter, and a new message only wakes a
+ * receiver whose filter it matches.
+ *
+ * A mailbox holds at most MConfig.mailbox_size messages (0 for no limit).
+ * Processes sending to a full mailbox sleep until the receiver makes room;
+ * kernel threads (which can't sleep) have the message refused and counted
+ * as dropped.  sendmsgv() and recvmsgv() move many messages per lock.
  */
 
 public class MMailBox
 {
 	//{{{  local variables/classes
-	/** mutex for variables */
-	private static Object synclock;
+	/** mailboxes, indexed by process ID (entries are created on first use) */
+	private static AtomicReferenceArray<MBoxQueue> boxes;
 
-	/** message hashtable (keys are process IDs) */
-	private static Hashtable msgs;
+	/** number of message lists per message (see MBox) */
+	private static final int NLISTS = 4;
 
 	/** private class to define a "message queue" */
 	private static class MBoxQueue
 	{
 		int tpid;			/* target PID */
-		public ArrayList msgs;
-		public MWaitQueue b_recv;
+		/** messages, by filter key */
+		HashMap<Long, MBoxList> lists;
+		/** blocked receivers, by filter key */
+		HashMap<Long, MWaitQueue> waiting;
+		/** blocked senders (mailbox full) */
+		MWaitQueue b_send;
+		/** number of messages, and most there have been */
+		int count, peak;
+		/** messages sent and received, sends that had to wait, and messages refused */
+		long sent, received, blocked, dropped;
+		/** set when the owner has exited */
+		boolean dead;
 
 		public MBoxQueue (int tpid)
 		{
 			this.tpid = tpid;
-			this.msgs = new ArrayList ();
-			this.b_recv = new MWaitQueue ();
+			this.lists = new HashMap<Long, MBoxList> ();
+			this.waiting = new HashMap<Long, MWaitQueue> ();
+			this.b_send = new MWaitQueue ();
+			this.count = 0;
+			return;
+		}
+	}
+
+	/** private class for a FIFO list of messages */
+	private static class MBoxList
+	{
+		long key;
+		MBox head, tail;
+
+		public MBoxList (long key)
+		{
+			this.key = key;
 			return;
 		}
 	}
@@ -61,6 +101,10 @@ public class MMailBox
 		public int to_pid;
 		public int type;
 		public Object message;
+		/** lists this message is on (in message_keys() order), and its neighbours in them */
+		MBoxList lists[] = new MBoxList[NLISTS];
+		MBox prev[] = new MBox[NLISTS];
+		MBox next[] = new MBox[NLISTS];
 	}
 
 
@@ -69,11 +113,28 @@ public class MMailBox
 	{
 		public String readproc (MInode inode, String name)
 		{
-			String r = "";
+			StringBuffer r = new StringBuffer ();
 			int i;
 
-			return "hello from mailboxes!\n";
+			r.append ("limit " + MConfig.mailbox_size + " messages" + ((MConfig.mailbox_size == 0) ? " (none)" : "") + "\n");
+			r.append (String.format ("%-7s %-7s %-7s %-9s %-9s %-8s %-8s %s\n", "PID", "QUEUED", "PEAK", "SENT", "RECEIVED",
+					"BLOCKED", "DROPPED", "WAITING"));
+			for (i = 0; i < boxes.length (); i++) {
+				MBoxQueue mbq = boxes.get (i);
 
+				if (mbq != null) {
+					synchronized (mbq) {
+						int nwait = 0;
+
+						for (MWaitQueue wq : mbq.waiting.values ()) {
+							nwait += wq.length ();
+						}
+						r.append (String.format ("%-7d %-7d %-7d %-9d %-9d %-8d %-8d %d/%d\n", mbq.tpid, mbq.count, mbq.peak,
+								mbq.sent, mbq.received, mbq.blocked, mbq.dropped, nwait, mbq.b_send.length ()));
+					}
+				}
+			}
+			return r.toString ();
 		}
 	}
 
@@ -81,28 +142,123 @@ public class MMailBox
 	//{{{  private static MBoxQueue find_mailbox (int pid)
 	/**
 	 * looks a mailbox queue for a particular process, creates it if it does
-	 * not already exist.
+	 * not already exist.  Doesn't lock anything.
 	 *
 	 * @param pid process ID
 	 * 
-	 * @return mailbox queue for the process
+	 * @return mailbox queue for the process, or null if the PID is out of range
 	 */
 	private static MBoxQueue find_mailbox (int pid)
 	{
-		Object o;
 		MBoxQueue mbq;
 
-		synchronized (synclock) {
-			o = msgs.get (new Integer (pid));
-			if (o == null) {
-				mbq = new MBoxQueue (pid);
-				msgs.put (new Integer (pid), mbq);
+		if ((pid < 0) || (pid >= boxes.length ())) {
+			return null;
+		}
+		mbq = boxes.get (pid);
+		if (mbq == null) {
+			boxes.compareAndSet (pid, null, new MBoxQueue (pid));
+			mbq = boxes.get (pid);
+		}
+
+		return mbq;
+	}
+	//}}}
+	//{{{  private static long filter_key (int source, int type)
+	/**
+	 * returns the key for a receive filter (and the list of messages it selects)
+	 *
+	 * @param source source PID, or -1 for any
+	 * @param type message type, or -1 for any
+	 *
+	 * @return key
+	 */
+	private static long filter_key (int source, int type)
+	{
+		return ((long)source << 32) | (type & 0xffffffffL);
+	}
+	//}}}
+	//{{{  private static long[] message_keys (int source, int type)
+	/**
+	 * returns the filter keys that select a message, most specific first:
+	 * its (source, type), its source, its type, and any.  Messages always
+	 * have a source and type (sendmsgv() refuses -ve ones), so these are all
+	 * different, and each kind of list has its own link slot in MBox.
+	 *
+	 * @param source source PID
+	 * @param type message type
+	 *
+	 * @return keys, one for each of the message's lists
+	 */
+	private static long[] message_keys (int source, int type)
+	{
+		return new long[] {filter_key (source, type), filter_key (source, -1), filter_key (-1, type), filter_key (-1, -1)};
+	}
+	//}}}
+	//{{{  private static void link_message (MBoxQueue mbq, MBox mbox, long keys[])
+	/**
+	 * adds a message to the end of the lists for its keys.  Called with the mailbox locked.
+	 *
+	 * @param mbq mailbox
+	 * @param mbox message
+	 * @param keys filter keys matching the message (from message_keys())
+	 */
+	private static void link_message (MBoxQueue mbq, MBox mbox, long keys[])
+	{
+		for (int i = 0; i < NLISTS; i++) {
+			MBoxList l;
+
+			l = mbq.lists.get (keys[i]);
+			if (l == null) {
+				l = new MBoxList (keys[i]);
+				mbq.lists.put (keys[i], l);
+			}
+			mbox.lists[i] = l;
+			mbox.prev[i] = l.tail;
+			mbox.next[i] = null;
+			if (l.tail == null) {
+				l.head = mbox;
 			} else {
-				mbq = (MBoxQueue)o;
+				l.tail.next[i] = mbox;
 			}
+			l.tail = mbox;
 		}
+		mbq.count++;
+	}
+	//}}}
+	//{{{  private static void unlink_message (MBoxQueue mbq, MBox mbox)
+	/**
+	 * removes a message from all its lists.  Called with the mailbox locked.
+	 *
+	 * @param mbq mailbox
+	 * @param mbox message
+	 */
+	private static void unlink_message (MBoxQueue mbq, MBox mbox)
+	{
+		for (int i = 0; i < NLISTS; i++) {
+			MBoxList l = mbox.lists[i];
 
-		return mbq;
+			if (l == null) {
+				continue;		/* for () */
+			}
+			if (mbox.prev[i] == null) {
+				l.head = mbox.next[i];
+			} else {
+				mbox.prev[i].next[i] = mbox.next[i];
+			}
+			if (mbox.next[i] == null) {
+				l.tail = mbox.prev[i];
+			} else {
+				mbox.next[i].prev[i] = mbox.prev[i];
+			}
+			if (l.head == null) {
+				mbq.lists.remove (l.key);
+			}
+			mbox.lists[i] = null;
+			mbox.prev[i] = null;
+			mbox.next[i] = null;
+		}
+		mbq.count--;
 	}
 	//}}}
 
@@ -113,8 +269,7 @@ public class MMailBox
 	 */
 	public static void init_mailbox ()
 	{
-		msgs = new Hashtable ();
-		synclock = new Object ();
+		boxes = new AtomicReferenceArray<MBoxQueue> (MConfig.max_pids);
 		return;
 	}
 	//}}}
@@ -133,40 +288,166 @@ public class MMailBox
 
 	//{{{  public static int sendmsg (int source, int dest, int type, Object msg)
 	/**
-	 * called to send a message.  This is always asynchronous -- i.e. this method
-	 * will not block.  It also provides a way for asynchronous Java threads
-	 * (e.g. for graphics) to deliver messages to some MOSS process.
+	 * called to send a message without blocking.  It also provides a way for
+	 * asynchronous Java threads (e.g. for graphics) to deliver messages to
+	 * some MOSS process.  If the mailbox is full the message is dropped.
 	 *
 	 * @param source PID of source process (i.e. invoking process)
 	 * @param dest PID of destination process
 	 * @param type message type (application specific)
 	 * @param msg object message (application specific)
 	 *
-	 * @return 0 on success, otherwise -ve indicating error
+	 * @return 0 on success, otherwise -ve indicating error (-EAGAIN if full, -EINVAL for a -ve source or type)
 	 */
 	public static int sendmsg (int source, int dest, int type, Object msg)
 	{
-		MBox mbox = new MBox ();
+		int r = sendmsgv (source, dest, new int[] {type}, new Object[] {msg}, false);
+
+		return (r < 0) ? r : 0;
+	}
+	//}}}
+	//{{{  public static int sendmsgv (int source, int dest, int types[], Object msgs[], boolean block)
+	/**
+	 * called to send messages.  As many as fit go in under one lock;  with
+	 * `block' set, the (process) caller then sleeps until the receiver makes
+	 * room for more, otherwise the rest are dropped.  A process sending to
+	 * itself never sleeps:  it would be waiting for itself.
+	 *
+	 * @param source PID of source process (i.e. invoking process)
+	 * @param dest PID of destination process
+	 * @param types message types (application specific)
+	 * @param msgs object messages (application specific), same length as types
+	 * @param block true to wait for room, false to drop what doesn't fit
+	 *
+	 * @return number of messages sent (all of them unless interrupted, not blocking or sending to itself), otherwise -ve
+	 *	indicating error (-EINVAL for a -ve source or type, those mean "any" to a receiver;  -EAGAIN if none fit
+	 *	and it would not block)
+	 */
+	public static int sendmsgv (int source, int dest, int types[], Object msgs[], boolean block)
+	{
+		int count = msgs.length;
+		int sent = 0;
 		MBoxQueue mbq;
 
+		if ((source < 0) || (types.length != count)) {
+			return -MSystem.EINVAL;
+		}
+		for (int i = 0; i < count; i++) {
+			if (types[i] < 0) {
+				return -MSystem.EINVAL;
+			}
+		}
+
+		mbq = find_mailbox (dest);
+		if (mbq == null) {
+			return -MSystem.ESRCH;
+		}
+
+		while (true) {
+			MProcess current = null;
+			boolean do_sleep;
+
+			synchronized (mbq) {
+				int n = count - sent;
+
+				if (mbq.dead) {
+					return (sent > 0) ? sent : -MSystem.ESRCH;
+				}
+				if ((MConfig.mailbox_size > 0) && (n > (MConfig.mailbox_size - mbq.count))) {
+					n = Math.max (0, MConfig.mailbox_size - mbq.count);
+				}
+				for (int i = 0; i < n; i++, sent++) {
+					deliver (mbq, source, dest, types[sent], msgs[sent]);
+				}
+				mbq.sent += n;
+				if (mbq.count > mbq.peak) {
+					mbq.peak = mbq.count;
+				}
+				if (sent == count) {
+					return sent;
+				}
+				if (!block) {
+					mbq.dropped += (count - sent);
+					return (sent > 0) ? sent : -MSystem.EAGAIN;
+				}
+
+				/* full, put process to sleep until there's room */
+				current = MKernel.current[MProcessor.currentCPU()];
+				if (current.signalled) {
+					return (sent > 0) ? sent : -MSystem.EINTR;
+				}
+				if (current.pid == dest) {
+					/* our own mailbox:  only we could make room, so don't wait for it */
+					mbq.dropped += (count - sent);
+					return (sent > 0) ? sent : -MSystem.EAGAIN;
+				}
+				mbq.blocked++;
+				mbq.b_send.add_exclusive (current);
+				synchronized (current) {
+					current.state = MProcess.TASK_SLEEPING;
+				}
+			}
+			synchronized (current) {
+				do_sleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+			}
+			if (do_sleep) {
+				MKernel.schedule ();
+			}
+			if (current.signalled) {
+				synchronized (mbq) {
+					if (!mbq.b_send.del_from_queue (current)) {
+						/* woken for room as well, let another sender have it */
+						mbq.b_send.wake_one ();
+					}
+				}
+				return (sent > 0) ? sent : -MSystem.EINTR;
+			}
+		}
+	}
+	//}}}
+	//{{{  private static void deliver (MBoxQueue mbq, int source, int dest, int type, Object msg)
+	/**
+	 * adds a message to a mailbox and wakes up a receiver that wants it (one
+	 * message, so only one).  Called with the mailbox locked.
+	 */
+	private static void deliver (MBoxQueue mbq, int source, int dest, int type, Object msg)
+	{
+		MBox mbox = new MBox ();
+		long keys[] = message_keys (source, type);
+
 		mbox.from_pid = source;
 		mbox.to_pid = dest;
 		mbox.type = type;
 		mbox.message = msg;
 
-		mbq = find_mailbox (dest);
-		
-		/* add mbox message to the mailbox queue and wake up any blocked receivers */
-		synchronized (mbq) {
-			mbq.msgs.add (mbox);
-			while (!mbq.b_recv.is_empty()) {
-				MProcess p = mbq.b_recv.get_from_queue ();
-
-				MKernel.add_to_run_queue (p);
-			}
+		link_message (mbq, mbox, keys);
+		wake_receiver (mbq, keys);
+	}
+	//}}}
+	//{{{  private static void wake_receiver (MBoxQueue mbq, long keys[])
+	/**
+	 * wakes up one receiver waiting for a message, the one with the most
+	 * specific filter that matches it.  Called with the mailbox locked.
+	 *
+	 * @param mbq mailbox
+	 * @param keys filter keys matching the message (from message_keys())
+	 */
+	private static void wake_receiver (MBoxQueue mbq, long keys[])
+	{
+		if (mbq.waiting.isEmpty ()) {
+			return;
 		}
+		for (int i = 0; i < NLISTS; i++) {
+			MWaitQueue wq = mbq.waiting.get (keys[i]);
 
-		return 0;
+			if (wq != null) {
+				wq.wake_one ();
+				if (wq.is_empty ()) {
+					mbq.waiting.remove (keys[i]);
+				}
+				return;
+			}
+		}
 	}
 	//}}}
 	//{{{  public static Object recvmsg (int source, int dest, int type)
@@ -182,61 +463,98 @@ public class MMailBox
 	 */
 	public static Object recvmsg (int source, int dest, int type)
 	{
-		boolean looping = true;
-		Object msg = null;
+		Object msgs[] = new Object[1];
+
+		if (recvmsgv (source, dest, type, msgs) != 1) {
+			return null;
+		}
+		return msgs[0];
+	}
+	//}}}
+	//{{{  public static int recvmsgv (int source, int dest, int type, Object msgs[])
+	/**
+	 * called to receive messages.  If no messages are available, the process
+	 * will be descheduled until one becomes available;  then as many as there
+	 * are, up to the size of `msgs', are taken under one lock.
+	 *
+	 * @param source PID of source process (or -1 for any)
+	 * @param dest PID of receiving process (i.e. invoking process)
+	 * @param type message type (application specific, or -1 for any)
+	 * @param msgs where the messages are stored, oldest first
+	 *
+	 * @return number of messages received, or -ve indicating error (-EINTR if signalled)
+	 */
+	public static int recvmsgv (int source, int dest, int type, Object msgs[])
+	{
+		long key = filter_key (source, type);
 		MBoxQueue mbq;
 
 		mbq = find_mailbox (dest);
+		if (mbq == null) {
+			return -MSystem.ESRCH;
+		}
+
+		while (true) {
+			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			MWaitQueue wq;
+			boolean do_sleep;
 
-		while (looping) {
-			/* lock structures and scan for messages */
+			/* lock structures and take the oldest messages matching, if any */
 			synchronized (mbq) {
-				int i;
-
-				for (i = 0; looping && (i < mbq.msgs.size()); i++) {
-					MBox mbox = (MBox)mbq.msgs.get (i);
-
-					if ((mbox.to_pid == dest) &&
-							((source == -1) || (source == mbox.from_pid)) &&
-							((type == -1) || (type == mbox.type))) {
-						/* found one! */
-						looping = false;
-						msg = mbox.message;
-						mbq.msgs.remove (i);
+				MBoxList l = mbq.lists.get (key);
+
+				if (l != null) {
+					int n = 0;
+
+					while ((n < msgs.length) && (l.head != null)) {
+						MBox mbox = l.head;
+
+						unlink_message (mbq, mbox);
+						msgs[n++] = mbox.message;
+					}
+					mbq.received += n;
+					if (!mbq.b_send.is_empty ()) {
+						/* room for n more */
+						mbq.b_send.wake_n (n);
 					}
+					return n;
+				}
+				if (current.signalled) {
+					return -MSystem.EINTR;
+				}
+				/* no message found, put process to sleep */
+				wq = mbq.waiting.get (key);
+				if (wq == null) {
+					wq = new MWaitQueue ();
+					mbq.waiting.put (key, wq);
+				}
+				wq.add_exclusive (current);
+				synchronized (current) {
+					current.state = MProcess.TASK_SLEEPING;
 				}
 			}
-			if (msg == null) {
-				MProcess current = MKernel.current[MProcessor.currentCPU()];
-				boolean do_sleep = true;
+			synchronized (current) {
+				do_sleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+			}
+			if (do_sleep) {
+				MKernel.schedule ();
+			}
+			if (current.signalled) {
+				synchronized (mbq) {
+					boolean woken = !wq.del_from_queue (current);
+					MBoxList l = mbq.lists.get (key);
 
-				/* no message found, put process to sleep */
-				if (current.signalled) {
-					do_sleep = false;
-				} else {
-					synchronized (mbq) {
-						mbq.b_recv.add_to_queue (current);
-						synchronized (current) {
-							current.state = MProcess.TASK_SLEEPING;
-						}
-					}
-					synchronized (current) {
-						do_sleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+					if (wq.is_empty () && (mbq.waiting.get (key) == wq)) {
+						mbq.waiting.remove (key);
 					}
-				}
-				if (do_sleep) {
-					MKernel.schedule ();
-					if (current.signalled) {
-						synchronized (mbq) {
-							mbq.b_recv.del_from_queue (current);
-						}
-						looping = false;
-						msg = null;
+					if (woken && (l != null)) {
+						/* woken for a message as well, another receiver may want it */
+						wake_receiver (mbq, message_keys (l.head.from_pid, l.head.type));
 					}
 				}
+				return -MSystem.EINTR;
 			}
 		}
-		return msg;
 	}
 	//}}}
 	//{{{  public static void deadprocess (int pid)
@@ -248,12 +566,19 @@ public class MMailBox
 	 */
 	public static void deadprocess (int pid)
 	{
-		Object o = msgs.get (new Integer (pid));
+		MBoxQueue mbq;
 
-		if (o == null) {
+		if ((pid < 0) || (pid >= boxes.length ())) {
 			return;
 		}
-		msgs.remove (new Integer (pid));
+		mbq = boxes.getAndSet (pid, null);
+		if (mbq != null) {
+			/* anyone waiting to send gets ESRCH */
+			synchronized (mbq) {
+				mbq.dead = true;
+				mbq.b_send.wake_all ();
+			}
+		}
 		return;
 	}
 	//}}}
@@ -309,9 +309,7 @@ public class MNamedMsgQ
 					px.msgs.add (nmsg);
 					if (!px.waiting.is_empty()) {
 						/* wake up a blocked receiver */
-						MProcess p = px.waiting.get_from_queue ();
-
-						MKernel.add_to_run_queue (p);
+						px.waiting.wake_one ();
 					}
 				}
 			}
@@ -356,7 +354,7 @@ public class MNamedMsgQ
 					break;				/* for(;;) */
 				} else {
 					/* nothing here, put on queue and sleep */
-					pcxt.waiting.add_to_queue (current);
+					pcxt.waiting.add_exclusive (current);
 					current.state = MProcess.TASK_SLEEPING;
 					do_sleep = true;
 				}
@@ -23,28 +23,95 @@ import moss.kernel.*;
 import moss.fs.*;
 import moss.user.*;
 
+import java.util.ArrayList;
+
 /**
- * This implements the "pipe" IPC mechanism
+ * This implements the "pipe" IPC mechanism.  The data in a pipe is kept as
+ * a chain of buffers, each a piece of a pooled page (MPipePage);  splice()
+ * and tee() share these between pipes without copying the data.  The
+ * capacity of a pipe can be changed with fcntl (F_SETPIPE_SZ).
+ *
+ * A pipe can have any number of read and write ends (each an MFile, shared
+ * further by fork()), and is at end-of-file once all the write ends are
+ * closed.  The chain is a single-producer/single-consumer queue:  the
+ * writing side only moves the tail and `bytes_in', the reading side only
+ * the head and `bytes_out', so one writer and one reader need no locks.
+ * With more than one on a side, those on that side take its lock (rlock
+ * or wlock) amongst themselves.  An end counts as alone when it is the
+ * only end of its kind and one process holds it (refcount 1);  only that
+ * process can then make another (by forking), and it isn't in a pipe
+ * operation when it does.  The pipe's own monitor guards the wait-queues
+ * and the end counts, and is only taken to sleep, wake someone up, or
+ * open/close an end.
  */
 public class MPipe implements MFileOps
 {
+	//{{{  private class MPipeBuf
+	/**
+	 * a piece of a page in a pipe.  `off' belongs to the reading side, `end'
+	 * and `next' to the writing side.
+	 */
+	private static class MPipeBuf
+	{
+		/** page holding the data (null in the initial, empty, buffer) */
+		final MPipePage page;
+		/** offset of the next byte to read */
+		int off;
+		/** offset just past the last byte written */
+		volatile int end;
+		/** next (newer) buffer in the pipe */
+		volatile MPipeBuf next;
+
+		MPipeBuf (MPipePage page, int off, int end)
+		{
+			this.page = page;
+			this.off = off;
+			this.end = end;
+		}
+	}
+	//}}}
+	//{{{  private class MPipeEnd
+	/**
+	 * per-handle state, kept in MFile.pdata
+	 */
+	private static class MPipeEnd
+	{
+		/** pipe this end belongs to */
+		final MPipe pipe;
+		/** true for a read end, false for a write end */
+		final boolean reader;
+
+		MPipeEnd (MPipe pipe, boolean reader)
+		{
+			this.pipe = pipe;
+			this.reader = reader;
+		}
+	}
+	//}}}
 	//{{{  private vars
-	/** pipe buffer */
-	private byte buffer[];
+	/** oldest buffer in the pipe (reading side) */
+	private MPipeBuf head;
+	/** newest buffer in the pipe (writing side) */
+	private MPipeBuf tail;
+
+	/** bytes ever written into, and read out of, the pipe */
+	private volatile long bytes_in, bytes_out;
+	/** capacity of the pipe */
+	private volatile int capacity;
+
+	/** number of open read and write ends */
+	private volatile int readers, writers;
+	/** lengths of blocked_reader and blocked_writer, for checking without the lock */
+	private volatile int readers_waiting, writers_waiting;
 
-	/** buffer state */
-	private int bufsize, bufleft, bufin, bufhead, buftail;
+	/** locks for several readers or writers */
+	private final Object rlock, wlock;
 
 	/** waiting readers queue */
 	private MWaitQueue blocked_reader;
 	/** waiting writers queue */
 	private MWaitQueue blocked_writer;
 
-	/** reader(s) MFile handle */
-	private MFile reader_handle;
-	/** writer(s) MFile handle */
-	private MFile writer_handle;
-
 	//}}}
 
 	//{{{  public MPipe ()
@@ -53,22 +120,25 @@ public class MPipe implements MFileOps
 	 */
 	public MPipe ()
 	{
-		bufsize = MConfig.pipe_buffer_size;
-		buffer = new byte[bufsize];
-		bufleft = bufsize;
-		bufin = 0;
-		bufhead = 0;
-		buftail = 0;
+		head = new MPipeBuf (null, 0, 0);
+		tail = head;
+		bytes_in = 0;
+		bytes_out = 0;
+		capacity = MConfig.pipe_buffer_size;
+		readers = 0;
+		writers = 0;
+		readers_waiting = 0;
+		writers_waiting = 0;
+		rlock = new Object ();
+		wlock = new Object ();
 		blocked_reader = new MWaitQueue ();
 		blocked_writer = new MWaitQueue ();
-		reader_handle = null;
-		writer_handle = null;
 	}
 	//}}}
 	//{{{  public int open (MFile handle, int flags)
 	/**
-	 * called when creating a pipe;  stores reference to self in the file-handle.
-	 * to determine whether it is the reading or writer, `flags' is either OPEN_READ or OPEN_WRITE.
+	 * called when creating a pipe;  adds a read end or write end to it.
+	 * to determine which, `flags' is either OPEN_READ or OPEN_WRITE.
 	 *
 	 * @param handle file-handle
 	 * @param flags open flags
@@ -77,21 +147,26 @@ public class MPipe implements MFileOps
 	 */
 	public int open (MFile handle, int flags)
 	{
-		handle.pdata = (Object)this;
-		if ((flags & MFileOps.OPEN_READ) != 0) {
-			this.reader_handle = handle;
-		} else if ((flags & MFileOps.OPEN_WRITE) != 0) {
-			this.writer_handle = handle;
-		} else {
-			MKernel.log_msg ("MPipe::open(): bad usage.");
-			return -MSystem.EIO;
+		synchronized (this) {
+			if ((flags & MFileOps.OPEN_READ) != 0) {
+				handle.pdata = (Object)new MPipeEnd (this, true);
+				readers++;
+			} else if ((flags & MFileOps.OPEN_WRITE) != 0) {
+				handle.pdata = (Object)new MPipeEnd (this, false);
+				writers++;
+			} else {
+				MKernel.log_msg ("MPipe::open(): bad usage.");
+				return -MSystem.EIO;
+			}
 		}
 		return 0;
 	}
 	//}}}
 	//{{{  public int close (MFile handle)
 	/**
-	 * called when closing (destroying) a pipe
+	 * called when closing (destroying) an end of a pipe.  Once the last
+	 * reader has gone, anything left in the pipe can't be read, so its pages
+	 * are released.
 	 *
 	 * @param handle file-handle
 	 *
@@ -99,27 +174,38 @@ public class MPipe implements MFileOps
 	 */
 	public int close (MFile handle)
 	{
+		MPipeEnd pend = end_of (handle);
+
+		if (pend == null) {
+			MKernel.log_msg ("MPipe::close(): handle not reader/writer.");
+			return -MSystem.EIO;
+		}
 		handle.pdata = null;
-		synchronized (this) {
-			if (handle == reader_handle) {
-				reader_handle = null;
-				/* wake up any blocked writers */
-				while (!blocked_writer.is_empty ()) {
-					MProcess p = blocked_writer.get_from_queue ();
+		if (pend.reader) {
+			boolean last;
 
-					MKernel.add_to_run_queue (p);
+			synchronized (this) {
+				readers--;
+				last = (readers == 0);
+			}
+			if (last) {
+				synchronized (rlock) {
+					take (null, available ());
 				}
-			} else if (handle == writer_handle) {
-				writer_handle = null;
-				/* wake up any blocked readers */
-				while (!blocked_reader.is_empty ()) {
-					MProcess p = blocked_reader.get_from_queue ();
-
-					MKernel.add_to_run_queue (p);
+				/* wake up any blocked writers */
+				synchronized (this) {
+					blocked_writer.wake_all ();
+					writers_waiting = 0;
+				}
+			}
+		} else {
+			synchronized (this) {
+				writers--;
+				if (writers == 0) {
+					/* wake up any blocked readers */
+					blocked_reader.wake_all ();
+					readers_waiting = 0;
 				}
-			} else {
-				MKernel.log_msg ("MPipe::close(): handle not reader/writer.");
-				return -MSystem.EIO;
 			}
 		}
 		return 0;
@@ -146,94 +232,53 @@ public class MPipe implements MFileOps
 	 */
 	public int read (MFile handle, byte buffer[], int count)
 	{
-		synchronized (this) {
-			if (count > buffer.length) {
-				return -MSystem.EFAULT;
-			}
-			if (handle != reader_handle) {
-				return -MSystem.EBADF;
-			}
+		MPipeEnd pend = end_of (handle);
+
+		if (count > buffer.length) {
+			return -MSystem.EFAULT;
+		}
+		if ((pend == null) || !pend.reader) {
+			return -MSystem.EBADF;
+		}
+		if (count <= 0) {
+			return 0;
 		}
 		while (true) {
-			boolean do_sleep = false;
 			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			int n, r;
 
-			synchronized (this) {
-				if (bufin == 0) {
-					/* check for end-of-file (writer closed pipe) */
-					if (writer_handle == null) {
-						count = 0;		/* end-of-file */
-					} else {
-						/* empty buffer, better sleep */
-						synchronized (current) {
-							blocked_reader.add_to_queue (current);
-							current.state = MProcess.TASK_SLEEPING;
-							do_sleep = true;
-						}
-					}
-				} else if (count >= bufin) {
-					/* can get the whole lot in one go */
-					if (bufhead <= buftail) {
-						/* two-part copy */
-						System.arraycopy (this.buffer, buftail, buffer, 0, bufsize - buftail);
-						System.arraycopy (this.buffer, 0, buffer, bufsize - buftail, bufhead);
-					} else {
-						/* one-part copy */
-						System.arraycopy (this.buffer, buftail, buffer, 0, bufin);
-					}
-					count = bufin;
-					bufhead = 0;
-					buftail = 0;
-					bufin = 0;
-					bufleft = bufsize;
-				} else {
-					/* can't get the whole lot, just get a bit */
-					if ((buftail + count) > bufsize) {
-						/* two-part copy */
-						System.arraycopy (this.buffer, buftail, buffer, 0, bufsize - buftail);
-						System.arraycopy (this.buffer, 0, buffer, bufsize - buftail, count - (bufsize - buftail));
-					} else {
-						/* one-part copy */
-						System.arraycopy (this.buffer, buftail, buffer, 0, count);
-					}
-					buftail += count;
-					buftail &= MConfig.pipe_buffer_mask;
-					bufin -= count;
-					bufleft += count;
+			if (alone (handle, true)) {
+				n = take (buffer, count);
+			} else {
+				synchronized (rlock) {
+					n = take (buffer, count);
 				}
-				if (!blocked_writer.is_empty() && !do_sleep) {
+			}
+			if (n > 0) {
+				if (writers_waiting > 0) {
 					/* wake up a blocked writer */
-					MProcess p = blocked_writer.get_from_queue ();
-
-					MKernel.add_to_run_queue (p);
+					wake (blocked_writer);
 				}
+				return n;
 			}
-			if (do_sleep) {
-				boolean xsleep;
-
-				synchronized (current) {
-					xsleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
-				}
-				if (xsleep) {
-					/* reschedule */
-					MKernel.schedule ();
-				}
-				if (current.signalled) {
-					/* remove from wait queue */
-					synchronized (this) {
-						blocked_reader.del_from_queue (current);
-					}
-					return -MSystem.EINTR;
+			if (writers == 0) {
+				/* writers gone, but might have written something first */
+				if (available () == 0) {
+					return 0;		/* end-of-file */
 				}
-			} else {
-				return count;
+				continue;		/* while () */
+			}
+			r = wait_for (current, blocked_reader, 1);
+			if (r < 0) {
+				return r;
 			}
 		}
 	}
 	//}}}
 	//{{{  public int write (MFile handle, byte buffer[], int count)
 	/**
-	 * called to write data into the pipe
+	 * called to write data into the pipe.  Blocks until all of it fits,
+	 * at most the pipe's capacity is written in one go.
 	 *
 	 * @param handle file handle
 	 * @param buffer data to write
@@ -243,88 +288,628 @@ public class MPipe implements MFileOps
 	 */
 	public int write (MFile handle, byte buffer[], int count)
 	{
-		synchronized (this) {
-			if (count > buffer.length) {
-				return -MSystem.EFAULT;
+		MPipeEnd pend = end_of (handle);
+
+		if (count > buffer.length) {
+			return -MSystem.EFAULT;
+		}
+		if ((pend == null) || pend.reader) {
+			return -MSystem.EBADF;
+		}
+		while (true) {
+			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			int n = Math.min (count, capacity);		/* only allow this much in one go.. */
+			boolean done = false;
+			int r;
+
+			/* if the readers have all closed the pipe, generate SIGPIPE and return EPIPE */
+			if (readers == 0) {
+				MKernel.queue_signal (current, new MSignal (MSignal.SIGPIPE, null));
+				return -MSystem.EPIPE;
+			}
+			if (alone (handle, false)) {
+				if ((capacity - available ()) >= n) {
+					give (buffer, n);
+					done = true;
+				}
+			} else {
+				synchronized (wlock) {
+					if ((capacity - available ()) >= n) {
+						give (buffer, n);
+						done = true;
+					}
+				}
+			}
+			if (done) {
+				if (readers_waiting > 0) {
+					/* wake up a blocked reader */
+					wake (blocked_reader);
+				}
+				return n;
 			}
-			if (count > bufsize) {
-				count = bufsize;		/* only allow this much in onw go.. */
+			r = wait_for (current, blocked_writer, n);
+			if (r < 0) {
+				return r;
 			}
-			if (handle != writer_handle) {
-				return -MSystem.EBADF;
+		}
+	}
+	//}}}
+	//{{{  public int fcntl (MFile handle, int op, int arg)
+	/**
+	 * pipe control:  F_GETPIPE_SZ returns the capacity of the pipe, and
+	 * F_SETPIPE_SZ sets it, rounded up to a whole number of pages.  The
+	 * capacity can't be set above MConfig.pipe_max_size, or below what is
+	 * in the pipe already.
+	 *
+	 * @param handle file-handle (either end)
+	 * @param op operation (F_... in MFileOps)
+	 * @param arg new capacity in bytes, for F_SETPIPE_SZ
+	 *
+	 * @return capacity on success, or &lt; 0 indicating error
+	 */
+	public int fcntl (MFile handle, int op, int arg)
+	{
+		synchronized (this) {
+			switch (op) {
+			case MFileOps.F_GETPIPE_SZ:
+				return capacity;
+			case MFileOps.F_SETPIPE_SZ:
+				if ((arg <= 0) || (arg > MConfig.pipe_max_size)) {
+					return -MSystem.EINVAL;
+				}
+				arg = (arg + (MPipePage.PAGE_SIZE - 1)) & ~(MPipePage.PAGE_SIZE - 1);
+				if (arg < available ()) {
+					return -MSystem.EBUSY;
+				}
+				if (arg > capacity) {
+					/* blocked writers may fit now (each waits for its own amount) */
+					blocked_writer.wake_all ();
+					writers_waiting = 0;
+				}
+				capacity = arg;
+				return capacity;
 			}
 		}
+		return -MSystem.EIO;
+	}
+	//}}}
+	//{{{  private static MPipeEnd end_of (MFile handle)
+	/**
+	 * returns the pipe end a file-handle refers to
+	 *
+	 * @param handle file-handle
+	 *
+	 * @return pipe end, or null if not (now) a pipe
+	 */
+	private static MPipeEnd end_of (MFile handle)
+	{
+		Object pdata = handle.pdata;
+
+		return (pdata instanceof MPipeEnd) ? (MPipeEnd)pdata : null;
+	}
+	//}}}
+	//{{{  private boolean alone (MFile handle, boolean reader)
+	/**
+	 * tests whether the caller is the only reader (or writer) of the pipe,
+	 * so need not take rlock (or wlock)
+	 *
+	 * @param handle caller's end
+	 * @param reader true for the reading side, false for the writing side
+	 *
+	 * @return true if alone
+	 */
+	private boolean alone (MFile handle, boolean reader)
+	{
+		return ((reader ? readers : writers) == 1) && (handle.refcount == 1);
+	}
+	//}}}
+	//{{{  private int available ()
+	/**
+	 * returns the number of bytes in the pipe
+	 */
+	private int available ()
+	{
+		return (int)(bytes_in - bytes_out);
+	}
+	//}}}
+	//{{{  private MPipeBuf front ()
+	/**
+	 * returns the oldest buffer with something to read in it, releasing any
+	 * finished with on the way.  The newest is kept even when empty, as the
+	 * writing side may still add to it.  Reading side only.
+	 *
+	 * @return buffer (the newest if all are empty)
+	 */
+	private MPipeBuf front ()
+	{
 		while (true) {
-			MProcess current = MKernel.current[MProcessor.currentCPU()];
-			boolean do_sleep = false;
+			MPipeBuf next = head.next;
+
+			/* `next' before `end':  once there is a next, the writer has finished with head */
+			if ((next == null) || (head.off < head.end)) {
+				return head;
+			}
+			if (head.page != null) {
+				head.page.put ();
+			}
+			head = next;
+		}
+	}
+	//}}}
+	//{{{  private int take (byte buffer[], int count)
+	/**
+	 * copies data out of the pipe, without blocking.  Reading side only.
+	 *
+	 * @param buffer where to copy the data, or null to throw it away
+	 * @param count maximum number of bytes
+	 *
+	 * @return number of bytes taken
+	 */
+	private int take (byte buffer[], int count)
+	{
+		int n = Math.min (count, available ());
+		int done = 0;
+
+		while (done < n) {
+			MPipeBuf b = front ();
+			int m = Math.min (n - done, b.end - b.off);
+
+			if (buffer != null) {
+				System.arraycopy (b.page.data, b.off, buffer, done, m);
+			}
+			b.off += m;
+			done += m;
+		}
+		bytes_out += n;
+		return n;
+	}
+	//}}}
+	//{{{  private void give (byte buffer[], int count)
+	/**
+	 * copies data into the pipe, filling up the newest page first if it is
+	 * only in this pipe.  The caller has checked it fits.  Writing side only.
+	 *
+	 * @param buffer data
+	 * @param count number of bytes
+	 */
+	private void give (byte buffer[], int count)
+	{
+		MPipeBuf t = tail;
+		int done = 0;
+
+		if ((t.page != null) && (t.end == t.page.used) && (t.page.used < MPipePage.PAGE_SIZE) && t.page.exclusive ()) {
+			int n = Math.min (count, MPipePage.PAGE_SIZE - t.page.used);
+
+			System.arraycopy (buffer, 0, t.page.data, t.page.used, n);
+			t.page.used += n;
+			t.end += n;
+			done = n;
+		}
+		while (done < count) {
+			MPipePage page = MPipePage.alloc ();
+			int n = Math.min (count - done, MPipePage.PAGE_SIZE);
+
+			System.arraycopy (buffer, done, page.data, 0, n);
+			page.used = n;
+			append (new MPipeBuf (page, 0, n));
+			done += n;
+		}
+		bytes_in += count;
+	}
+	//}}}
+	//{{{  private void append (MPipeBuf b)
+	/**
+	 * adds a buffer at the end of the pipe, not counted in until bytes_in
+	 * is updated.  Writing side only.
+	 *
+	 * @param b buffer
+	 */
+	private void append (MPipeBuf b)
+	{
+		tail.next = b;
+		tail = b;
+	}
+	//}}}
+	//{{{  private void share (int count, ArrayList<MPipeBuf> into)
+	/**
+	 * collects buffers sharing the pages of the oldest data in the pipe,
+	 * which is left there.  Reading side only.
+	 *
+	 * @param count number of bytes (no more than available)
+	 * @param into list to add the new buffers to
+	 */
+	private void share (int count, ArrayList<MPipeBuf> into)
+	{
+		MPipeBuf b = front ();
+		int off = b.off;
+		int done = 0;
+
+		while (done < count) {
+			int m;
+
+			if (off == b.end) {
+				b = b.next;
+				off = b.off;
+				continue;		/* while () */
+			}
+			m = Math.min (count - done, b.end - off);
+			b.page.get ();
+			into.add (new MPipeBuf (b.page, off, off + m));
+			off += m;
+			done += m;
+		}
+	}
+	//}}}
+	//{{{  private void unget (ArrayList<MPipeBuf> bufs, int from)
+	/**
+	 * puts buffers back at the front of the pipe, in order.  Reading side only.
+	 *
+	 * @param bufs buffers
+	 * @param from index of the first to put back
+	 */
+	private void unget (ArrayList<MPipeBuf> bufs, int from)
+	{
+		long n = 0;
+
+		for (int i = bufs.size () - 1; i >= from; i--) {
+			MPipeBuf b = bufs.get (i);
+
+			b.next = head;
+			head = b;
+			n += (b.end - b.off);
+		}
+		bytes_out -= n;
+	}
+	//}}}
+	//{{{  private int wait_for (MProcess current, MWaitQueue queue, int count)
+	/**
+	 * sleeps the current process on one of the pipe's wait-queues until
+	 * there are `count' bytes to read (blocked_reader) or room for them
+	 * (blocked_writer), or the other side has gone.  The queue's length is
+	 * published before the pipe is looked at again, and the other side
+	 * publishes data (or room) before looking at the length, so one or
+	 * other will see the change.
+	 *
+	 * @param current current process
+	 * @param queue blocked_reader or blocked_writer
+	 * @param count bytes to wait for
+	 *
+	 * @return 0 when woken up (or not needing to sleep), or -EINTR if signalled
+	 *	(passing any wakeup it got on to the next waiter)
+	 */
+	private int wait_for (MProcess current, MWaitQueue queue, int count)
+	{
+		boolean reader = (queue == blocked_reader);
+		boolean xsleep;
 
+		synchronized (this) {
+			synchronized (current) {
+				queue.add_exclusive (current);
+			}
+			set_waiting (queue);
+			if (reader ? ((available () >= count) || (writers == 0)) :
+					(((capacity - available ()) >= count) || (readers == 0))) {
+				queue.del_from_queue (current);
+				set_waiting (queue);
+				return 0;
+			}
+			synchronized (current) {
+				current.state = MProcess.TASK_SLEEPING;
+			}
+		}
+		synchronized (current) {
+			xsleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+		}
+		if (xsleep) {
+			/* reschedule */
+			MKernel.schedule ();
+		}
+		if (current.signalled) {
+			/* remove from wait queue */
 			synchronized (this) {
-				/* if the reader has closed the pipe, generate SIGPIPE and return EPIPE */
-				if (reader_handle == null) {
-					MKernel.queue_signal (current, new MSignal (MSignal.SIGPIPE, null));
-					return -MSystem.EPIPE;
+				if (!queue.del_from_queue (current)) {
+					/* woken as well:  pass that on, or another waiter misses the data (or room) */
+					queue.wake_one ();
 				}
-				if (bufleft < count) {
-					/* can't get it all in the buffer, sleep */
-					synchronized (current) {
-						blocked_writer.add_to_queue (current);
-						current.state = MProcess.TASK_SLEEPING;
-						do_sleep = true;
+				set_waiting (queue);
+			}
+			return -MSystem.EINTR;
+		}
+		return 0;
+	}
+	//}}}
+	//{{{  private void wake (MWaitQueue queue)
+	/**
+	 * wakes up a process on one of the pipe's wait-queues
+	 *
+	 * @param queue blocked_reader or blocked_writer
+	 */
+	private void wake (MWaitQueue queue)
+	{
+		synchronized (this) {
+			queue.wake_one ();
+			set_waiting (queue);
+		}
+	}
+	//}}}
+	//{{{  private void set_waiting (MWaitQueue queue)
+	/**
+	 * updates readers_waiting or writers_waiting after a queue changed.
+	 * Called with the pipe locked.
+	 */
+	private void set_waiting (MWaitQueue queue)
+	{
+		if (queue == blocked_reader) {
+			readers_waiting = queue.length ();
+		} else {
+			writers_waiting = queue.length ();
+		}
+	}
+	//}}}
+	//{{{  public static int splice (MFile in, MFile out, int len, boolean tee)
+	/**
+	 * moves data from one file to another where one or both are pipes,
+	 * without copying it through the caller.  Between two pipes the data
+	 * itself isn't copied at all:  pages are shared with the output (and,
+	 * unless `tee', dropped from the input).  From a pipe into some other
+	 * file, pages are handed straight to the file's write();  from a file
+	 * into a pipe, the file reads into fresh pages.  Blocks like read() for
+	 * something to move, then moves what it can without blocking again.
+	 * Always takes rlock/wlock, which is cheap when the caller is alone.
+	 *
+	 * @param in input file-handle
+	 * @param out output file-handle
+	 * @param len most bytes to move
+	 * @param tee if true, copy (share) rather than move, both must be pipes
+	 *
+	 * @return number of bytes moved, 0 at end-of-file, or &lt; 0 indicating error
+	 */
+	public static int splice (MFile in, MFile out, int len, boolean tee)
+	{
+		MPipeEnd iend = end_of (in);
+		MPipeEnd oend = end_of (out);
+
+		if (len < 0) {
+			return -MSystem.EINVAL;
+		} else if ((iend != null) && !iend.reader) {
+			return -MSystem.EBADF;
+		} else if ((oend != null) && oend.reader) {
+			return -MSystem.EBADF;
+		} else if (len == 0) {
+			return 0;
+		}
+
+		if ((iend != null) && (oend != null)) {
+			if (iend.pipe == oend.pipe) {
+				return -MSystem.EINVAL;
+			}
+			return pipe_to_pipe (iend.pipe, oend.pipe, len, tee);
+		} else if (tee || (out.fileif == null) || (in.fileif == null)) {
+			return -MSystem.EINVAL;
+		} else if (iend != null) {
+			return iend.pipe.pipe_to_file (out, len);
+		} else if (oend != null) {
+			return oend.pipe.file_to_pipe (in, len);
+		}
+		return -MSystem.EINVAL;
+	}
+	//}}}
+	//{{{  private static int pipe_to_pipe (MPipe ipipe, MPipe opipe, int len, boolean tee)
+	/**
+	 * splice/tee between two pipes, see splice().  Locks are always taken
+	 * reading side first, so two splices in opposite directions can't
+	 * deadlock.
+	 */
+	private static int pipe_to_pipe (MPipe ipipe, MPipe opipe, int len, boolean tee)
+	{
+		ArrayList<MPipeBuf> bufs = new ArrayList<MPipeBuf> ();
+
+		while (true) {
+			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			int n, r;
+
+			if (opipe.readers == 0) {
+				MKernel.queue_signal (current, new MSignal (MSignal.SIGPIPE, null));
+				return -MSystem.EPIPE;
+			}
+			synchronized (ipipe.rlock) {
+				synchronized (opipe.wlock) {
+					n = Math.min (len, Math.min (ipipe.available (), opipe.capacity - opipe.available ()));
+					if (n > 0) {
+						ipipe.share (n, bufs);
+						for (int i = 0; i < bufs.size (); i++) {
+							opipe.append (bufs.get (i));
+						}
+						opipe.bytes_in += n;
+						if (!tee) {
+							ipipe.take (null, n);
+						}
 					}
-				} else {
-					/* can get it all in the buffer :) */
-					if ((bufhead + count) > bufsize) {
-						/* two-part copy */
-						System.arraycopy (buffer, 0, this.buffer, bufhead, (bufsize - bufhead));
-						System.arraycopy (buffer, (bufsize - bufhead), this.buffer, 0, count - (bufsize - bufhead));
-					} else {
-						/* one-part copy */
-						System.arraycopy (buffer, 0, this.buffer, bufhead, count);
+				}
+			}
+			if (n > 0) {
+				if (!tee && (ipipe.writers_waiting > 0)) {
+					ipipe.wake (ipipe.blocked_writer);
+				}
+				if (opipe.readers_waiting > 0) {
+					opipe.wake (opipe.blocked_reader);
+				}
+				return n;
+			}
+			if (ipipe.available () == 0) {
+				if (ipipe.writers == 0) {
+					if (ipipe.available () == 0) {
+						return 0;		/* end-of-file */
 					}
-					bufhead += count;
-					bufhead &= MConfig.pipe_buffer_mask;
-					bufin += count;
-					bufleft -= count;
+					continue;		/* while () */
 				}
-				if (!blocked_reader.is_empty() && !do_sleep) {
-					/* wake up a blocked reader */
-					MProcess p = blocked_reader.get_from_queue ();
+				r = ipipe.wait_for (current, ipipe.blocked_reader, 1);
+			} else {
+				r = opipe.wait_for (current, opipe.blocked_writer, 1);
+			}
+			if (r < 0) {
+				return r;
+			}
+		}
+	}
+	//}}}
+	//{{{  private int pipe_to_file (MFile out, int len)
+	/**
+	 * splice from this pipe into some other file, see splice().  Buffers are
+	 * taken out of the pipe, then written;  any the file doesn't take are
+	 * put back at the front of the pipe.
+	 */
+	private int pipe_to_file (MFile out, int len)
+	{
+		ArrayList<MPipeBuf> taken = new ArrayList<MPipeBuf> ();
+		byte scratch[] = null;
+		int total = 0;
+		int err = 0;
+		int i;
+
+		while (true) {
+			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			int n, r;
 
-					MKernel.add_to_run_queue (p);
+			synchronized (rlock) {
+				n = Math.min (len, available ());
+				if (n > 0) {
+					share (n, taken);
+					take (null, n);
+				}
+			}
+			if (n > 0) {
+				if (writers_waiting > 0) {
+					wake (blocked_writer);
+				}
+				break;		/* while () */
+			}
+			if (writers == 0) {
+				if (available () == 0) {
+					return 0;		/* end-of-file */
 				}
+				continue;		/* while () */
 			}
-			if (do_sleep) {
-				boolean xsleep;
+			r = wait_for (current, blocked_reader, 1);
+			if (r < 0) {
+				return r;
+			}
+		}
+
+		/* write them out, pages that start at the beginning go as they are */
+		for (i = 0; i < taken.size (); i++) {
+			MPipeBuf b = taken.get (i);
 
-				synchronized (current) {
-					xsleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+			while (b.off < b.end) {
+				byte src[] = b.page.data;
+				int v;
+
+				if (b.off > 0) {
+					if (scratch == null) {
+						scratch = new byte[MPipePage.PAGE_SIZE];
+					}
+					System.arraycopy (b.page.data, b.off, scratch, 0, b.end - b.off);
+					src = scratch;
 				}
-				if (xsleep) {
-					/* reschedule */
-					MKernel.schedule ();
+				v = out.fileif.write (out, src, b.end - b.off);
+				if (v <= 0) {
+					err = v;
+					break;		/* while () */
 				}
-				if (current.signalled) {
-					/* remove from wait queue */
-					synchronized (this) {
-						blocked_writer.del_from_queue (current);
+				b.off += v;
+				total += v;
+			}
+			if (b.off < b.end) {
+				break;		/* for () */
+			}
+			b.page.put ();
+		}
+		if (i < taken.size ()) {
+			/* put back what wasn't written */
+			synchronized (rlock) {
+				if (readers > 0) {
+					unget (taken, i);
+				} else {
+					for (; i < taken.size (); i++) {
+						taken.get(i).page.put ();
 					}
-					return -MSystem.EINTR;
 				}
-			} else {
-				return count;
+			}
+			if (readers_waiting > 0) {
+				wake (blocked_reader);
 			}
 		}
+		return (total > 0) ? total : err;
 	}
 	//}}}
-	//{{{  public int fcntl (MFile handle, int op, int arg)
+	//{{{  private int file_to_pipe (MFile in, int len)
 	/**
-	 * not supported by pipes
+	 * splice from some other file into this pipe, see splice().  Waits for
+	 * room in the pipe, then has the file read into fresh pages.  Another
+	 * writer could fill the pipe in the meantime, so this can leave it a
+	 * little over capacity.
 	 */
-	public int fcntl (MFile handle, int op, int arg)
+	private int file_to_pipe (MFile in, int len)
 	{
-		return -MSystem.EIO;
+		ArrayList<MPipeBuf> got = new ArrayList<MPipeBuf> ();
+		int total = 0;
+		int err = 0;
+
+		while (true) {
+			MProcess current = MKernel.current[MProcessor.currentCPU()];
+			int room = capacity - available ();
+			int r;
+
+			if (readers == 0) {
+				MKernel.queue_signal (current, new MSignal (MSignal.SIGPIPE, null));
+				return -MSystem.EPIPE;
+			}
+			if (room > 0) {
+				len = Math.min (len, room);
+				break;		/* while () */
+			}
+			r = wait_for (current, blocked_writer, 1);
+			if (r < 0) {
+				return r;
+			}
+		}
+
+		while (total < len) {
+			MPipePage page = MPipePage.alloc ();
+			int want = Math.min (len - total, MPipePage.PAGE_SIZE);
+			int r = in.fileif.read (in, page.data, want);
+
+			if (r <= 0) {
+				page.put ();
+				err = r;
+				break;		/* while () */
+			}
+			page.used = r;
+			got.add (new MPipeBuf (page, 0, r));
+			total += r;
+			if (r < want) {
+				break;		/* while () */
+			}
+		}
+
+		synchronized (wlock) {
+			if (readers == 0) {
+				for (int i = 0; i < got.size (); i++) {
+					got.get(i).page.put ();
+				}
+				MKernel.queue_signal (MKernel.current[MProcessor.currentCPU()], new MSignal (MSignal.SIGPIPE, null));
+				return -MSystem.EPIPE;
+			}
+			for (int i = 0; i < got.size (); i++) {
+				append (got.get (i));
+			}
+			bytes_in += total;
+		}
+		if ((total > 0) && (readers_waiting > 0)) {
+			wake (blocked_reader);
+		}
+		return (total > 0) ? total : err;
 	}
 	//}}}
 }
 
-
@@ -0,0 +1,128 @@
+/*
+ *	MPipePage.java -- pooled, shareable pages of pipe data
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.ipc;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a page of pipe data.  Pipes hold their contents as a chain of these
+ * (see MPipe.MPipeBuf), and splice/tee pass pages between pipes rather
+ * than copying the data, so a page can be in more than one pipe at once
+ * and is reference counted.  Data in a page is only ever appended to, and
+ * only while a single pipe holds it.  Free pages are kept in a small pool.
+ * None of this takes a lock, so that pipes can use pages from their
+ * lock-free paths.
+ */
+
+public class MPipePage
+{
+	//{{{  constants
+	/** size of a page in bytes */
+	public static final int PAGE_SIZE = 4096;
+	/** most free pages kept in the pool */
+	private static final int POOL_MAX = 256;
+	//}}}
+	//{{{  private static vars
+	/** free pages */
+	private static final ConcurrentLinkedQueue<MPipePage> pool = new ConcurrentLinkedQueue<MPipePage> ();
+	/** number of pages in pool */
+	private static final AtomicInteger npool = new AtomicInteger ();
+	//}}}
+	//{{{  public vars
+	/** page data */
+	public final byte data[];
+	/** number of bytes of data written into the page */
+	public int used;
+	//}}}
+	//{{{  private vars
+	/** references to this page (from pipe buffers) */
+	private final AtomicInteger refs = new AtomicInteger ();
+	//}}}
+
+
+	//{{{  private MPipePage ()
+	/**
+	 * creates a new page, use alloc() to get one
+	 */
+	private MPipePage ()
+	{
+		data = new byte[PAGE_SIZE];
+	}
+	//}}}
+	//{{{  public static MPipePage alloc ()
+	/**
+	 * gets an empty page, from the pool if there is one.  The caller holds
+	 * the only reference.
+	 *
+	 * @return page
+	 */
+	public static MPipePage alloc ()
+	{
+		MPipePage page = pool.poll ();
+
+		if (page == null) {
+			page = new MPipePage ();
+		} else {
+			npool.decrementAndGet ();
+		}
+		page.used = 0;
+		page.refs.set (1);
+		return page;
+	}
+	//}}}
+	//{{{  public void get ()
+	/**
+	 * adds a reference to this page
+	 */
+	public void get ()
+	{
+		refs.incrementAndGet ();
+	}
+	//}}}
+	//{{{  public void put ()
+	/**
+	 * drops a reference to this page, returning it to the pool with the last
+	 */
+	public void put ()
+	{
+		if (refs.decrementAndGet () > 0) {
+			return;
+		}
+		if (npool.incrementAndGet () <= POOL_MAX) {
+			pool.offer (this);
+		} else {
+			npool.decrementAndGet ();
+		}
+	}
+	//}}}
+	//{{{  public boolean exclusive ()
+	/**
+	 * tests whether the caller holds the only reference to this page (so may
+	 * append to it)
+	 *
+	 * @return true if exclusive
+	 */
+	public boolean exclusive ()
+	{
+		return (refs.get () == 1);
+	}
+	//}}}
+}
+
@@ -31,24 +31,148 @@ import java.util.*;
  *
  * However, wait() and signal() methods are still provided, for bits of
  * the kernel that want to use them like that.
+ *
+ * Decrements are granted whole and in arrival order:  each semaphore has a
+ * FIFO queue of waiting operations, and a new one waits behind any already
+ * there.  When the value goes up, waiters are granted from the front for
+ * as long as it covers them, and only those are woken (the amount is taken
+ * off for them, so there is no race to get it).  semopv() applies changes
+ * to several semaphores at once (all or nothing, like System V semop with
+ * an array);  one of those that has to wait is queued on each semaphore it
+ * decrements, and when it reaches the front of one it is woken to try
+ * again with all of them locked (in key order, as every multi-semaphore
+ * operation locks them).  Each semaphore has its own lock, and the table
+ * of them is looked up without one.
  */
 
 public class MSemaphore
 {
 	//{{{  private things
-	/** lock for private variables */
-	private static Object synclock;
+	/** lock for changing the table of semaphores */
+	private static Object tablelock;
 
-	/** hash-table of semaphores */
-	private static Hashtable sems;
+	/** table of semaphores, replaced (not changed) when one is added or removed */
+	private static volatile MSemTable sems;
 
-	/** semaphore structure.  The value is never below zero.  */
+	/** semaphore structure.  The value is never below zero.  Locked by its own monitor.  */
 	private static class MSem {
 		public int key;
 		public int value;
-		public MWaitQueue waiting;
 		public boolean destroyed;
+		/** waiting operations, oldest first */
+		public MSemWait head, tail;
+	}
+
+	/** an operation's place in one semaphore's queue */
+	private static class MSemWait {
+		MSemOp op;
+		/** amount wanted from this semaphore */
+		int need;
+		MSemWait prev, next;
+		/** true while on the queue */
+		boolean queued;
+	}
+
+	/** an operation on one or more semaphores that had to wait */
+	private static class MSemOp {
+		/** process doing it */
+		MProcess proc;
+		/** semaphores, in key order, and the change to each */
+		MSem sems[];
+		int deltas[];
+		/** places in the semaphores' queues (null where not decremented) */
+		MSemWait waits[];
+		/** true if on more than one semaphore */
+		boolean multi;
+		/** set when a single-semaphore operation has been granted */
+		boolean granted;
+		/** set when a multi-semaphore operation has been woken to try again */
+		boolean poked;
+		/** where the process sleeps (locked by this) */
+		MWaitQueue wq;
+
+		MSemOp (MProcess proc, MSem sems[], int deltas[])
+		{
+			this.proc = proc;
+			this.sems = sems;
+			this.deltas = deltas;
+			this.waits = new MSemWait[sems.length];
+			this.multi = (sems.length > 1);
+			this.wq = new MWaitQueue ();
+		}
 	}
+
+	/** open-addressed table of semaphores by key, so lookups need neither locks nor Integers */
+	private static class MSemTable {
+		final int keys[];
+		final MSem vals[];
+		final int count;
+
+		MSemTable (int size, int count)
+		{
+			this.keys = new int[size];
+			this.vals = new MSem[size];
+			this.count = count;
+		}
+
+		private static int slot (int key, int mask)
+		{
+			int h = key * 0x9e3779b9;
+
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		MSem get (int key)
+		{
+			int mask = vals.length - 1;
+
+			for (int i = slot (key, mask); vals[i] != null; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return vals[i];
+				}
+			}
+			return null;
+		}
+
+		/** returns a new table with `sem' added (and without any `drop' key) */
+		MSemTable rebuild (MSem sem, int drop)
+		{
+			int n = count + ((sem == null) ? -1 : 1);
+			int size = 16;
+			MSemTable t;
+
+			while (size < (2 * n)) {
+				size <<= 1;
+			}
+			t = new MSemTable (size, n);
+			for (int i = 0; i < vals.length; i++) {
+				if ((vals[i] != null) && ((sem != null) || (keys[i] != drop))) {
+					t.put (vals[i]);
+				}
+			}
+			if (sem != null) {
+				t.put (sem);
+			}
+			return t;
+		}
+
+		private void put (MSem sem)
+		{
+			int mask = vals.length - 1;
+			int i;
+
+			for (i = slot (sem.key, mask); vals[i] != null; i = (i + 1) & mask);
+			keys[i] = sem.key;
+			vals[i] = sem;
+		}
+	}
+
+	/** what run_locked() does once it has the locks */
+	private static final int OP_TRY = 0;
+	private static final int OP_RETRY = 1;
+	private static final int OP_CANCEL = 2;
+	/** run_locked() result:  operation is waiting */
+	private static final int WAITING = 1;
 	
 	//}}}
 	
@@ -67,10 +191,8 @@ public class MSemaphore
 	 */
 	public static void init_semaphore ()
 	{
-		synclock = new Object ();
-		sems = new Hashtable ();
-
-		sems.clear ();
+		tablelock = new Object ();
+		sems = new MSemTable (16, 0);
 		return;
 	}
 	//}}}
@@ -96,13 +218,7 @@ public class MSemaphore
 	 */
 	private static MSem find_sem (int key)
 	{
-		Integer ki = new Integer (key);
-		MSem sem;
-
-		synchronized (synclock) {
-			sem = (MSem)sems.get ((Object)ki);
-		}
-		return sem;
+		return sems.get (key);
 	}
 	//}}}
 
@@ -118,11 +234,8 @@ public class MSemaphore
 	public static int semcreate (int key, int value)
 	{
 		MSem sem;
-		boolean do_sleep = false;
-
-		synchronized (synclock) {
-			Integer ki;
 
+		synchronized (tablelock) {
 			sem = find_sem (key);
 			if (sem != null) {
 				return -MSystem.EEXISTS;
@@ -130,18 +243,11 @@ public class MSemaphore
 			/* else create semaphore */
 			sem = new MSem ();
 			sem.key = key;
-			if (value < 0) {
-				sem.value = 0;
-				do_sleep = true;
-			} else {
-				sem.value = value;
-			}
-			sem.waiting = new MWaitQueue ();
+			sem.value = (value < 0) ? 0 : value;
 			sem.destroyed = false;
-			ki = new Integer (key);
-			sems.put ((Object)ki, (Object)sem);
+			sems = sems.rebuild (sem, 0);
 		}
-		if (do_sleep) {
+		if (value < 0) {
 			MProcess current = MKernel.current[MProcessor.currentCPU()];
 
 			return semset (current, key, value);
@@ -151,7 +257,8 @@ public class MSemaphore
 	//}}}
 	//{{{  public static int semset (MProcess current, int key, int value)
 	/**
-	 * changes a semaphore's value
+	 * changes a semaphore's value.  A decrement waits (in turn) until the
+	 * semaphore can cover all of it.
 	 *
 	 * @param key semaphore key
 	 * @param value change semaphore value by this (+ve or -ve)
@@ -161,90 +268,305 @@ public class MSemaphore
 	public static int semset (MProcess current, int key, int value)
 	{
 		MSem sem;
-		boolean do_sleep = false;
-		int orig_value = value;
 
 		sem = find_sem (key);
 		if (sem == null) {
 			return -MSystem.ENXIO;
 		}
 
-		/* else deal with semaphore value */
-		synchronized (synclock) {
-			if (value > 0) {
-				/* increment value */
+		synchronized (sem) {
+			if (sem.destroyed) {
+				return -MSystem.ENOENT;
+			}
+			if (value >= 0) {
+				/* increment value, and grant what that covers */
+				sem.value += value;
+				grant (sem);
+				return 0;
+			}
+			if ((sem.head == null) && (sem.value >= -value)) {
+				/* nobody waiting and enough there */
 				sem.value += value;
+				return 0;
+			}
+		}
 
-				/* if there are any waiting processes, wake them up -- they will loop if not available */
-				while (!sem.waiting.is_empty ()) {
-					MProcess p = sem.waiting.get_from_queue ();
+		return do_op (current, new MSemOp (current, new MSem[] {sem}, new int[] {value}));
+	}
+	//}}}
+	//{{{  public static int semsetv (MProcess current, int keys[], int values[])
+	/**
+	 * changes several semaphores' values together:  waits (in turn on each)
+	 * until all the decrements can be done, then does all the changes.
+	 * Changes to the same key are added together.
+	 *
+	 * @param key semaphore keys
+	 * @param value change each semaphore value by this (+ve or -ve)
+	 *
+	 * @return 0 on success, or &lt; 0 indicating error
+	 */
+	public static int semsetv (MProcess current, int keys[], int values[])
+	{
+		TreeMap<Integer, Integer> bykey = new TreeMap<Integer, Integer> ();
+		MSem set[];
+		int deltas[];
+		int i;
 
-					MKernel.add_to_run_queue (p);
-				}
-			} else {
-				do_sleep = true;
+		for (i = 0; i < keys.length; i++) {
+			Integer v = bykey.get (keys[i]);
+
+			bykey.put (keys[i], ((v == null) ? 0 : v) + values[i]);
+		}
+		if (bykey.size () == 1) {
+			return semset (current, keys[0], bykey.get (keys[0]));
+		}
+
+		set = new MSem[bykey.size ()];
+		deltas = new int[bykey.size ()];
+		i = 0;
+		for (Map.Entry<Integer, Integer> e : bykey.entrySet ()) {
+			set[i] = find_sem (e.getKey ());
+			if (set[i] == null) {
+				return -MSystem.ENXIO;
 			}
+			deltas[i] = e.getValue ();
+			i++;
 		}
 
-		if (do_sleep) {
-			/* try and adjust value, sleep if not */
-			while (value < 0) {
+		return do_op (current, new MSemOp (current, set, deltas));
+	}
+	//}}}
+	//{{{  private static int do_op (MProcess current, MSemOp op)
+	/**
+	 * does an operation, waiting for it as needed
+	 *
+	 * @param current current process
+	 * @param op operation
+	 *
+	 * @return 0 on success, or &lt; 0 indicating error
+	 */
+	private static int do_op (MProcess current, MSemOp op)
+	{
+		int r = run_locked (op, 0, OP_TRY);
+
+		while (r == WAITING) {
+			boolean xsleep;
 
-				synchronized (synclock) {
-					/* adjust value */
-					if (sem.value < (-value)) {
-						value += sem.value;
-						sem.value = 0;
+			synchronized (current) {
+				xsleep = ((current.state == MProcess.TASK_SLEEPING) && !current.signalled);
+			}
+			if (xsleep) {
+				MKernel.schedule ();
+			}
+			if (!op.multi) {
+				/* granted (or not) by whoever woke us */
+				MSem sem = op.sems[0];
+
+				synchronized (sem) {
+					if (op.granted) {
+						r = 0;
+					} else if (sem.destroyed) {
+						cancel (op);
+						r = -MSystem.ENOENT;		/* it'll do.. */
+					} else if (current.signalled) {
+						cancel (op);
+						r = -MSystem.EINTR;		/* interrupted! */
 					} else {
-						sem.value += value;
-						value = 0;
+						sleep_on (op);
 					}
 				}
+			} else {
+				r = run_locked (op, 0, current.signalled ? OP_CANCEL : OP_RETRY);
+			}
+		}
+		return r;
+	}
+	//}}}
+	//{{{  private static int run_locked (MSemOp op, int i, int what)
+	/**
+	 * locks the operation's semaphores (in order), then tries it (OP_TRY,
+	 * queueing it if it can't be done yet), tries it again after being woken
+	 * (OP_RETRY), or takes it off the queues (OP_CANCEL, after a signal).
+	 *
+	 * @param op operation
+	 * @param i index of the next semaphore to lock
+	 * @param what OP_TRY, OP_RETRY or OP_CANCEL
+	 *
+	 * @return 0 if done, WAITING if the process is to sleep, or &lt; 0 indicating error
+	 */
+	private static int run_locked (MSemOp op, int i, int what)
+	{
+		if (i < op.sems.length) {
+			synchronized (op.sems[i]) {
+				return run_locked (op, i + 1, what);
+			}
+		}
 
-				if (value < 0) {
-					//{{{  sleep if still more
-					synchronized (current) {
-						if (current.signalled) {
-							do_sleep = false;
-						} else {
-							do_sleep = true;
-							synchronized (synclock) {
-								sem.waiting.add_to_queue (current);
-							}
-							current.state = MProcess.TASK_SLEEPING;
-						}
-					}
-					if (do_sleep) {
-						MKernel.schedule ();
-					}
-					/* check to see if we woke because the semaphore was being removed */
-					if (sem.destroyed) {
-						return -MSystem.ENOENT;		/* it'll do.. */
-					}
-					/* if signalled, better "undo" the operation */
-					if (current.signalled) {
-						synchronized (synclock) {
-							if (do_sleep) {
-								sem.waiting.del_from_queue (current);
-							}
-
-							/* and fix semaphore value */
-							sem.value += (value - orig_value);
-							/* but that might have woken someone else up..! (better schedule them if so) */
-							while (!sem.waiting.is_empty ()) {
-								MProcess p = sem.waiting.get_from_queue ();
-
-								MKernel.add_to_run_queue (p);
-							}
-						}
-						return -MSystem.EINTR;			/* interrupted! */
+		op.poked = false;
+		for (i = 0; i < op.sems.length; i++) {
+			if (op.sems[i].destroyed) {
+				cancel (op);
+				return -MSystem.ENOENT;
+			}
+		}
+		if (what == OP_CANCEL) {
+			cancel (op);
+			return -MSystem.EINTR;
+		}
+
+		/* can it be done?  it must be at the front of every queue it is waiting on */
+		for (i = 0; i < op.sems.length; i++) {
+			MSem sem = op.sems[i];
+
+			if (op.deltas[i] >= 0) {
+				continue;		/* for () */
+			}
+			if ((sem.value < -op.deltas[i]) || ((sem.head != null) && (sem.head.op != op))) {
+				break;		/* for () */
+			}
+		}
+		if (i < op.sems.length) {
+			/* no, (stay) queued */
+			if (what == OP_TRY) {
+				for (i = 0; i < op.sems.length; i++) {
+					if (op.deltas[i] < 0) {
+						op.waits[i] = enqueue (op.sems[i], op, -op.deltas[i]);
 					}
-					//}}}
 				}
 			}
+			sleep_on (op);
+			return WAITING;
 		}
+
+		/* yes, do all of it */
+		for (i = 0; i < op.sems.length; i++) {
+			op.sems[i].value += op.deltas[i];
+		}
+		cancel (op);
 		return 0;
+	}
+	//}}}
+	//{{{  private static MSemWait enqueue (MSem sem, MSemOp op, int need)
+	/**
+	 * adds an operation to the end of a semaphore's queue.  Called with the semaphore locked.
+	 */
+	private static MSemWait enqueue (MSem sem, MSemOp op, int need)
+	{
+		MSemWait w = new MSemWait ();
+
+		w.op = op;
+		w.need = need;
+		w.prev = sem.tail;
+		w.next = null;
+		if (sem.tail == null) {
+			sem.head = w;
+		} else {
+			sem.tail.next = w;
+		}
+		sem.tail = w;
+		w.queued = true;
+		return w;
+	}
+	//}}}
+	//{{{  private static void dequeue (MSem sem, MSemWait w)
+	/**
+	 * removes an operation from a semaphore's queue.  Called with the semaphore locked.
+	 */
+	private static void dequeue (MSem sem, MSemWait w)
+	{
+		if (w.prev == null) {
+			sem.head = w.next;
+		} else {
+			w.prev.next = w.next;
+		}
+		if (w.next == null) {
+			sem.tail = w.prev;
+		} else {
+			w.next.prev = w.prev;
+		}
+		w.prev = null;
+		w.next = null;
+		w.queued = false;
+	}
+	//}}}
+	//{{{  private static void cancel (MSemOp op)
+	/**
+	 * takes an operation off all its queues (done or given up), and lets
+	 * those behind it go if they can.  Called with its semaphores locked.
+	 */
+	private static void cancel (MSemOp op)
+	{
+		synchronized (op) {
+			op.wq.del_from_queue (op.proc);
+		}
+		for (int i = 0; i < op.sems.length; i++) {
+			if ((op.waits[i] != null) && op.waits[i].queued) {
+				dequeue (op.sems[i], op.waits[i]);
+			}
+		}
+		for (int i = 0; i < op.sems.length; i++) {
+			grant (op.sems[i]);
+		}
+	}
+	//}}}
+	//{{{  private static void grant (MSem sem)
+	/**
+	 * grants waiting operations from the front of a semaphore's queue, for as
+	 * long as the value covers them, and wakes those processes.  A
+	 * multi-semaphore operation at the front is woken to try for itself,
+	 * and nothing behind it goes first.  Called with the semaphore locked.
+	 */
+	private static void grant (MSem sem)
+	{
+		if (sem.destroyed) {
+			return;
+		}
+		while (sem.head != null) {
+			MSemWait w = sem.head;
+			MSemOp op = w.op;
 
+			if (op.multi) {
+				if (!op.poked) {
+					op.poked = true;
+					wake (op);
+				}
+				return;
+			}
+			if (sem.value < w.need) {
+				return;
+			}
+			sem.value -= w.need;
+			dequeue (sem, w);
+			op.granted = true;
+			wake (op);
+		}
+	}
+	//}}}
+	//{{{  private static void sleep_on (MSemOp op)
+	/**
+	 * gets ready to sleep the process doing an operation (it calls schedule()
+	 * once the semaphores are unlocked).  Called with its semaphores locked.
+	 */
+	private static void sleep_on (MSemOp op)
+	{
+		synchronized (op) {
+			op.wq.del_from_queue (op.proc);
+			synchronized (op.proc) {
+				op.wq.add_to_queue (op.proc);
+				op.proc.state = MProcess.TASK_SLEEPING;
+			}
+		}
+	}
+	//}}}
+	//{{{  private static void wake (MSemOp op)
+	/**
+	 * wakes up the process doing an operation
+	 */
+	private static void wake (MSemOp op)
+	{
+		synchronized (op) {
+			op.wq.wake_all ();
+		}
 	}
 	//}}}
 	//{{{  public static int semremove (int key)
@@ -259,26 +581,23 @@ public class MSemaphore
 	{
 		MSem sem;
 
-		synchronized (synclock) {
-			Integer ki;
-
+		synchronized (tablelock) {
 			sem = find_sem (key);
 			if (sem == null) {
 				return -MSystem.ENOENT;
 			}
+			sems = sems.rebuild (null, key);		/* remove from sems */
+		}
+
+		synchronized (sem) {
 			if (sem.destroyed) {
 				return -MSystem.ENOENT;
 			}
 			sem.destroyed = true;
-			ki = new Integer (key);
-
-			sems.remove ((Object)ki);		/* remove from sems */
-
-			/* if waiting processes, resume them */
-			while (!sem.waiting.is_empty ()) {
-				MProcess p = sem.waiting.get_from_queue ();
 
-				MKernel.add_to_run_queue (p);
+			/* if waiting processes, resume them (they take themselves off the queues) */
+			for (MSemWait w = sem.head; w != null; w = w.next) {
+				wake (w.op);
 			}
 		}
 
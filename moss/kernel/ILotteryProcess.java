@@ -2,11 +2,11 @@ package moss.kernel;
 
 public interface ILotteryProcess {
 	/*
-	 * Set ticket number to a process
+	 * Set the number of lottery tickets the process holds (its weight)
 	 */
-	void SetTicket(int ticket);
+	void SetTickets(int tickets);
 	/*
-	 * Get ticket number of current process	
+	 * Get the number of lottery tickets the process holds
 	 */
-	int GetTicket();
-}
\ No newline at end of file
+	int GetTickets();
+}
@@ -0,0 +1,8 @@
+package moss.kernel;
+
+public interface ILotteryScheduler {
+	/*
+	 * Sets the number of tickets held by a specific process within scheduler list.
+	 */
+	Boolean SetProcessTickets(int pid, int tickets);
+}
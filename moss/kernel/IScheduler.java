@@ -4,6 +4,7 @@ public interface IScheduler {
 	Boolean AddProcess(MProcess process);
 	Boolean RemoveProcess(MProcess process);
 	MProcess GetNextProcess();
+	MProcess GetNextProcess(int cpu);
 	Boolean Schedule();	
 	Boolean IsProcessAvailable();
 }
\ No newline at end of file
@@ -1,85 +1,194 @@
 package moss.kernel;
 
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Random;
 
-public class LotteryScheduler extends SchedulerBase {
+/*
+ * Lottery scheduler.  Each queued process holds some tickets (its weight, one
+ * unless it is an ILotteryProcess that says otherwise) and wins the draw with
+ * probability tickets/total.  Processes sit in slots of a Fenwick (binary
+ * indexed) tree of ticket counts, so drawing a winner, adding, removing and
+ * re-weighting a process are all O(log n).  Slots are indexed by PID, and
+ * freed slots are reused.
+ */
+public class LotteryScheduler extends SchedulerBase implements ILotteryScheduler {
 		//Constructor
 		public LotteryScheduler() {
-			m_listLotteryProcess = new ArrayList<ILotteryProcess>();
-			m_listTicketsInUse = new ArrayList<Integer>();
+			this(MConfig.max_pids);
 		}
-		
-		//Private Methods
+
+		public LotteryScheduler(int maxPids) {
+			m_slotOfPid = new int[maxPids];
+			for (int i=0; i<maxPids; i++) {
+				m_slotOfPid[i] = -1;
+			}
+			Allocate(INITIAL_SLOTS);
+		}
+
+		//Public Methods
 		@Override
 		public Boolean AddProcess(MProcess process) {
-			if (process != null){
-				ILotteryProcess lotteryProcess = (ILotteryProcess)process;
-				int ticket = GetTicketNumber();
-				
-				lotteryProcess.SetTicket(ticket);
-				m_listTicketsInUse.add(ticket);
-				m_listLotteryProcess.add((ILotteryProcess)process);
-				return true;
-			}
-		
-			return false;
+			if (process == null || process.pid < 0 || process.pid >= m_slotOfPid.length)
+				return false;
+			if (m_slotOfPid[process.pid] >= 0)
+				return false;		//already queued
+
+			if (m_freeCount == 0)
+				Allocate(m_slots.length * 2);
+
+			int slot = m_freeSlots[--m_freeCount];
+			int tickets = GetTickets(process);
+
+			m_slots[slot] = process;
+			m_weights[slot] = tickets;
+			Update(slot, tickets);
+			m_slotOfPid[process.pid] = slot;
+			m_count++;
+			return true;
 		}
 
 		@Override
 		public Boolean RemoveProcess(MProcess process) {
-			if (process != null) {
-				if (m_listLotteryProcess.contains(process)) {
-					m_listLotteryProcess.remove(process);
-					ILotteryProcess lotteryProcess = (ILotteryProcess)process;
-					m_listTicketsInUse.remove((Object)lotteryProcess.GetTicket());
-					return true;
-				}
-			}
-			return false;
+			if (process == null || process.pid < 0 || process.pid >= m_slotOfPid.length)
+				return false;
+
+			int slot = m_slotOfPid[process.pid];
+			if (slot < 0 || m_slots[slot] != process)
+				return false;
+
+			Free(slot);
+			return true;
 		}
 
 		@Override
 		public MProcess GetNextProcess() {
-			Random randNumber = new Random();
-			int n = m_listTicketsInUse.size();	
-			int index = randNumber.nextInt(n);
-			
-			int ticket = m_listTicketsInUse.get(index);
-			
-			for (int i=0; i<m_listLotteryProcess.size(); i++)
-			{
-				ILotteryProcess lotteryProcess = m_listLotteryProcess.get(i);
-				if (lotteryProcess.GetTicket() == ticket)
-				{
-					RemoveProcess((MProcess)lotteryProcess);
-					return (MProcess)lotteryProcess;
-				}
-			}
+			if (m_total == 0)
+				return null;
+
+			int slot = Find(m_random.nextInt(m_total));
+			MProcess retValue = m_slots[slot];
 
-			return null;
+			Free(slot);
+			return retValue;
 		}
-		
+
 		@Override
 		public Boolean IsProcessAvailable() {
-			return m_listLotteryProcess.size() > 0;
+			return m_count > 0;
+		}
+
+		@Override
+		public Boolean SetProcessTickets(int pid, int tickets) {
+			if (pid < 0 || pid >= m_slotOfPid.length)
+				return false;
+
+			int slot = m_slotOfPid[pid];
+			if (slot < 0)
+				return false;
+
+			MProcess process = m_slots[slot];
+			if (process instanceof ILotteryProcess)
+				((ILotteryProcess)process).SetTickets(tickets);
+
+			tickets = Clamp(tickets);
+			Update(slot, tickets - m_weights[slot]);
+			m_weights[slot] = tickets;
+			return true;
 		}
-		
+
 		//Private Methods
-		int GetTicketNumber()
-		{
-			Random randNumber = new Random();
-			int ticket;
-			do {
-				ticket = randNumber.nextInt(TICKETS);
-			} while (m_listTicketsInUse.contains(ticket));
-			
-			return ticket;
+		private static int GetTickets(MProcess process) {
+			if (process instanceof ILotteryProcess)
+				return Clamp(((ILotteryProcess)process).GetTickets());
+			return 1;
+		}
+
+		private static int Clamp(int tickets) {
+			if (tickets < 1)
+				return 1;
+			if (tickets > MAX_TICKETS)
+				return MAX_TICKETS;
+			return tickets;
+		}
+
+		private void Free(int slot) {
+			Update(slot, -m_weights[slot]);
+			m_slotOfPid[m_slots[slot].pid] = -1;
+			m_slots[slot] = null;
+			m_weights[slot] = 0;
+			m_freeSlots[m_freeCount++] = slot;
+			m_count--;
+		}
+
+		/*
+		 * Adds delta to a slot's weight in the tree (and to the total).
+		 */
+		private void Update(int slot, int delta) {
+			m_total += delta;
+			for (int i = slot + 1; i <= m_slots.length; i += i & -i) {
+				m_tree[i] += delta;
+			}
+		}
+
+		/*
+		 * Finds the slot holding ticket number `ticket' (0 <= ticket < total):
+		 * the first slot whose running total of tickets exceeds it.
+		 */
+		private int Find(int ticket) {
+			int position = 0;
+
+			for (int step = Integer.highestOneBit(m_slots.length); step > 0; step >>= 1) {
+				int next = position + step;
+				if (next <= m_slots.length && m_tree[next] <= ticket) {
+					position = next;
+					ticket -= m_tree[next];
+				}
+			}
+			return position;
 		}
-		
+
+		/*
+		 * (Re)allocates room for `size' slots, keeping what is queued.  The
+		 * tree is rebuilt in linear time.
+		 */
+		private void Allocate(int size) {
+			int oldSize = (m_slots == null) ? 0 : m_slots.length;
+			MProcess[] slots = new MProcess[size];
+			int[] weights = new int[size];
+			int[] freeSlots = new int[size];
+
+			if (oldSize > 0) {
+				System.arraycopy(m_slots, 0, slots, 0, oldSize);
+				System.arraycopy(m_weights, 0, weights, 0, oldSize);
+				System.arraycopy(m_freeSlots, 0, freeSlots, 0, m_freeCount);
+			}
+			//Hand out low slots first.
+			for (int i = size - 1; i >= oldSize; i--) {
+				freeSlots[m_freeCount++] = i;
+			}
+
+			m_tree = new int[size + 1];
+			for (int i=1; i<=size; i++) {
+				m_tree[i] += weights[i - 1];
+				int parent = i + (i & -i);
+				if (parent <= size)
+					m_tree[parent] += m_tree[i];
+			}
+			m_slots = slots;
+			m_weights = weights;
+			m_freeSlots = freeSlots;
+		}
+
 		//Private Fields
-		private List<ILotteryProcess> m_listLotteryProcess;
-		private List<Integer> m_listTicketsInUse;
-		private final int TICKETS = Integer.MAX_VALUE;
+		private static final int INITIAL_SLOTS = 64;
+		//Keeps the total (MConfig.max_pids * MAX_TICKETS) inside an int.
+		private static final int MAX_TICKETS = 10000;
+		private final Random m_random = new Random();
+		private MProcess[] m_slots;
+		private int[] m_weights;
+		private int[] m_tree;
+		private int[] m_freeSlots;
+		private int m_freeCount = 0;
+		private int[] m_slotOfPid;
+		private int m_count = 0;
+		private int m_total = 0;
 }
@@ -19,15 +19,21 @@
 
 package moss.kernel;
 
+import java.io.*;
+
 /**
  * This class defines various constants used throughout the moss kernel.
+ * The virtual hardware and system sizes can be changed at boot (see
+ * configure()), and must not be changed after that.
  */
 
 public class MConfig
 {
 	//{{{  virtual hardware
 	/** number of virtual processors */
-	public static final int ncpus = 2;
+	public static int ncpus = 2;
+	/** virtual processors per CPU domain (think: sharing a cache);  wakeups prefer to stay in a domain */
+	public static int cpu_domain_size = 2;
 
 
 	//}}}
@@ -41,19 +47,27 @@ public class MConfig
 	//}}}
 	//{{{  various system size constants
 	/** maximum number of open files an MProcess may have */
-	public static final int max_files_per_process = 32;
-	/** pipe (IPC) buffer size */
-	public static final int pipe_buffer_size = 4096;
+	public static int max_files_per_process = 32;
+	/** pipe (IPC) buffer size (a power of 2) */
+	public static int pipe_buffer_size = 4096;
 	/** pipe (IPC) buffer mask */
-	public static final int pipe_buffer_mask = 0x0fff;
-	/** maximum number of concurrent timers */
-	public static final int max_timer_tasks = 128;
+	public static int pipe_buffer_mask = 0x0fff;
+	/** largest capacity a pipe can be given with F_SETPIPE_SZ */
+	public static int pipe_max_size = 1048576;
+	/** timer tick (milli-seconds);  sleep timeouts are rounded up to this */
+	public static int timer_tick = 10;
 	/** maximum number of device drivers (major device numbers/names) */
 	public static final int max_device_drivers = 256;
 	/** maximum number of mounted file-systems */
 	public static final int max_mounted_fs = 32;
 	/** number of lines in the kernel log-buffer */
-	public static final int kernel_log_lines = 64;
+	public static int kernel_log_lines = 64;
+	/** number of process IDs (PIDs are recycled once these are all used) */
+	public static int max_pids = 32768;
+	/** number of executables kept loaded in MExec's image cache (0 to turn it off) */
+	public static int exec_cache_size = 64;
+	/** most messages a mailbox holds before senders block (0 for no limit) */
+	public static int mailbox_size = 1024;
 
 	//}}}
 	//{{{  some major device numbers
@@ -62,6 +76,184 @@ public class MConfig
 	/** ramdisk */
 	public static final int DEV_MAJOR_RAMDISK = 129;
 	//}}}
+	//{{{  boot-time settings
+	/** host file read for settings at boot (unless "config=FILE" is given) */
+	public static final String config_file = "extra/etc/moss.conf";
+
+	/** names of the settings that can be changed at boot */
+	private static final String setting_names[] = {"ncpus", "cpu_domain_size", "max_files_per_process",
+		"pipe_buffer_size", "timer_tick", "kernel_log_lines", "max_pids", "exec_cache_size",
+		"pipe_max_size", "mailbox_size"};
+	/** smallest allowed value of each */
+	private static final int setting_min[] = {1, 1, 4, 64, 1, 8, 64, 0, 4096, 0};
+	/** largest allowed value of each (max_pids is limited by LotteryScheduler's ticket total) */
+	private static final int setting_max[] = {128, 128, 1024, 1 << 24, 1000, 65536, 131072, 4096, 1 << 26, 1 << 20};
+	//}}}
+
+
+	//{{{  public static void configure (String bootargs[], PrintStream msgs)
+	/**
+	 * sets up the boot-time settings:  first from the host file config_file
+	 * (or the one named by a "config=FILE" boot option), if it exists, then
+	 * from "name=value" boot options.  Called by the harness before anything
+	 * is sized from these.  Lines in the file are "name = value", and "#"
+	 * starts a comment.  Bad settings are reported and ignored.
+	 *
+	 * @param bootargs boot arguments (MOSS command-line);  others are left for MInitTask
+	 * @param msgs somewhere to write boot-messages
+	 */
+	public static void configure (String bootargs[], PrintStream msgs)
+	{
+		String fname = config_file;
+		boolean named = false;
+		File f;
+
+		for (int i=0; i<bootargs.length; i++) {
+			if (bootargs[i].startsWith ("config=")) {
+				fname = bootargs[i].substring (7);
+				named = true;
+			}
+		}
+
+		f = new File (fname);
+		if (f.exists ()) {
+			try {
+				BufferedReader rdr = new BufferedReader (new FileReader (f));
+				String line;
+				int lineno = 0;
+
+				while ((line = rdr.readLine ()) != null) {
+					int hash = line.indexOf ('#');
+					int eq;
+
+					lineno++;
+					if (hash >= 0) {
+						line = line.substring (0, hash);
+					}
+					line = line.trim ();
+					if (line.length () == 0) {
+						continue;		/* while () */
+					}
+					eq = line.indexOf ('=');
+					if ((eq <= 0) || !set (line.substring (0, eq).trim (), line.substring (eq + 1).trim (), msgs, fname + ":" + lineno)) {
+						msgs.println ("config: " + fname + ":" + lineno + ": ignoring [" + line + "]");
+					}
+				}
+				rdr.close ();
+			} catch (IOException e) {
+				msgs.println ("config: failed to read " + fname + ": " + e.getMessage ());
+			}
+		} else if (named) {
+			msgs.println ("config: no such file " + fname);
+		}
+
+		for (int i=0; i<bootargs.length; i++) {
+			int eq = bootargs[i].indexOf ('=');
+
+			if (eq > 0) {
+				/* anything we don't know about is for MInitTask */
+				set (bootargs[i].substring (0, eq), bootargs[i].substring (eq + 1), msgs, "boot option");
+			}
+		}
+
+		/* keep things consistent */
+		pipe_buffer_mask = pipe_buffer_size - 1;
+		if (cpu_domain_size > ncpus) {
+			cpu_domain_size = ncpus;
+		}
+	}
+	//}}}
+	//{{{  public static String describe ()
+	/**
+	 * describes the boot-time settings in force
+	 *
+	 * @return one "name = value" line for each
+	 */
+	public static String describe ()
+	{
+		String r = "";
+
+		for (int i=0; i<setting_names.length; i++) {
+			r = r + setting_names[i] + " = " + get (i) + "\n";
+		}
+		return r;
+	}
+	//}}}
+	//{{{  private static boolean set (String name, String value, PrintStream msgs, String where)
+	/**
+	 * changes one setting, if name is one of them
+	 *
+	 * @param name setting name
+	 * @param value new value
+	 * @param msgs somewhere to write boot-messages
+	 * @param where where the setting came from (for messages)
+	 *
+	 * @return true if name is a setting (even if the value was bad), false otherwise
+	 */
+	private static boolean set (String name, String value, PrintStream msgs, String where)
+	{
+		int i, v;
+
+		for (i=0; (i<setting_names.length) && !setting_names[i].equals (name); i++);
+		if (i == setting_names.length) {
+			return false;
+		}
+		try {
+			v = Integer.parseInt (value);
+		} catch (NumberFormatException e) {
+			msgs.println ("config: " + name + ": bad number [" + value + "] (" + where + ")");
+			return true;
+		}
+		if ((v < setting_min[i]) || (v > setting_max[i])) {
+			msgs.println ("config: " + name + ": " + v + " out of range " + setting_min[i] + ".." + setting_max[i] + " (" + where + ")");
+			return true;
+		}
+		if (name.equals ("pipe_buffer_size") && ((v & (v - 1)) != 0)) {
+			msgs.println ("config: " + name + ": " + v + " is not a power of 2 (" + where + ")");
+			return true;
+		}
+
+		switch (i) {
+		case 0: ncpus = v; break;
+		case 1: cpu_domain_size = v; break;
+		case 2: max_files_per_process = v; break;
+		case 3: pipe_buffer_size = v; break;
+		case 4: timer_tick = v; break;
+		case 5: kernel_log_lines = v; break;
+		case 6: max_pids = v; break;
+		case 7: exec_cache_size = v; break;
+		case 8: pipe_max_size = v; break;
+		case 9: mailbox_size = v; break;
+		}
+		msgs.println ("config: " + name + " = " + v + " (" + where + ")");
+		return true;
+	}
+	//}}}
+	//{{{  private static int get (int i)
+	/**
+	 * returns the value of a setting
+	 *
+	 * @param i index into setting_names
+	 *
+	 * @return value
+	 */
+	private static int get (int i)
+	{
+		switch (i) {
+		case 0: return ncpus;
+		case 1: return cpu_domain_size;
+		case 2: return max_files_per_process;
+		case 3: return pipe_buffer_size;
+		case 4: return timer_tick;
+		case 5: return kernel_log_lines;
+		case 6: return max_pids;
+		case 7: return exec_cache_size;
+		case 8: return pipe_max_size;
+		case 9: return mailbox_size;
+		}
+		return -1;
+	}
+	//}}}
 
 }
 
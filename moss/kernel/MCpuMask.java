@@ -0,0 +1,208 @@
+/*
+ *	MCpuMask.java -- set of virtual processors, as an atomic bitmap
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.kernel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * this class holds a set of CPUs as a bitmap, one bit per processor, 64 to
+ * a word.  Bits are set and cleared atomically, so the mask can be read
+ * without holding any lock (the kernel uses one to track which processors
+ * are idle).  Finding a set bit is a trailing-zero count per word.
+ */
+
+public class MCpuMask
+{
+	//{{{  private data
+	/** the bits, CPU n is bit (n & 63) of word (n >> 6) */
+	private AtomicLongArray words;
+	/** number of CPUs the mask covers */
+	private int ncpus;
+	//}}}
+
+	//{{{  public MCpuMask (int ncpus)
+	/**
+	 * creates a new, empty, CPU mask
+	 *
+	 * @param ncpus number of CPUs it covers
+	 */
+	public MCpuMask (int ncpus)
+	{
+		this.ncpus = ncpus;
+		words = new AtomicLongArray ((ncpus + 63) >> 6);
+	}
+	//}}}
+	//{{{  public void set (int cpu)
+	/**
+	 * adds a CPU to the set
+	 *
+	 * @param cpu processor number
+	 */
+	public void set (int cpu)
+	{
+		long bit = 1L << (cpu & 63);
+		int w = cpu >> 6;
+		long old;
+
+		do {
+			old = words.get (w);
+		} while (((old & bit) == 0) && !words.compareAndSet (w, old, old | bit));
+	}
+	//}}}
+	//{{{  public void clear (int cpu)
+	/**
+	 * removes a CPU from the set
+	 *
+	 * @param cpu processor number
+	 */
+	public void clear (int cpu)
+	{
+		long bit = 1L << (cpu & 63);
+		int w = cpu >> 6;
+		long old;
+
+		do {
+			old = words.get (w);
+		} while (((old & bit) != 0) && !words.compareAndSet (w, old, old & ~bit));
+	}
+	//}}}
+	//{{{  public boolean test (int cpu)
+	/**
+	 * tests whether a CPU is in the set
+	 *
+	 * @param cpu processor number
+	 *
+	 * @return true if set
+	 */
+	public boolean test (int cpu)
+	{
+		if ((cpu < 0) || (cpu >= ncpus)) {
+			return false;
+		}
+		return ((words.get (cpu >> 6) & (1L << (cpu & 63))) != 0);
+	}
+	//}}}
+	//{{{  public int first ()
+	/**
+	 * finds the lowest numbered CPU in the set
+	 *
+	 * @return processor number, or -1 if the set is empty
+	 */
+	public int first ()
+	{
+		for (int w=0; w<words.length (); w++) {
+			long v = words.get (w);
+
+			if (v != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros (v);
+			}
+		}
+		return -1;
+	}
+	//}}}
+	//{{{  public int first_and (MCpuMask a, MCpuMask b)
+	/**
+	 * finds the lowest numbered CPU that is in this set and in both the others
+	 *
+	 * @param a another mask, or null for all CPUs
+	 * @param b another mask, or null for all CPUs
+	 *
+	 * @return processor number, or -1 if there are none
+	 */
+	public int first_and (MCpuMask a, MCpuMask b)
+	{
+		for (int w=0; w<words.length (); w++) {
+			long v = words.get (w);
+
+			if ((a != null) && (v != 0)) {
+				v &= (w < a.words.length ()) ? a.words.get (w) : 0;
+			}
+			if ((b != null) && (v != 0)) {
+				v &= (w < b.words.length ()) ? b.words.get (w) : 0;
+			}
+			if (v != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros (v);
+			}
+		}
+		return -1;
+	}
+	//}}}
+	//{{{  public int[] to_array ()
+	/**
+	 * returns the CPUs in the set
+	 *
+	 * @return processor numbers, lowest first
+	 */
+	public int[] to_array ()
+	{
+		int r[] = new int[count ()];
+		int n = 0;
+
+		for (int i=0; (i<ncpus) && (n<r.length); i++) {
+			if (test (i)) {
+				r[n++] = i;
+			}
+		}
+		return r;
+	}
+	//}}}
+	//{{{  public int count ()
+	/**
+	 * returns the number of CPUs in the set
+	 *
+	 * @return count
+	 */
+	public int count ()
+	{
+		int n = 0;
+
+		for (int w=0; w<words.length (); w++) {
+			n += Long.bitCount (words.get (w));
+		}
+		return n;
+	}
+	//}}}
+	//{{{  public String toString ()
+	/**
+	 * returns the mask as a hex string (highest CPUs first, like Linux's cpumask)
+	 *
+	 * @return string
+	 */
+	public String toString ()
+	{
+		String r = "";
+
+		for (int w=words.length () - 1; w >= 0; w--) {
+			String s = Long.toHexString (words.get (w));
+
+			if (r.equals ("")) {
+				r = s;
+			} else {
+				r = r + ",";
+				for (int i=s.length (); i<16; i++) {
+					r = r + "0";
+				}
+				r = r + s;
+			}
+		}
+		return r;
+	}
+	//}}}
+}
+
@@ -45,11 +45,32 @@ public class MExec
 	private int errorcode;		/* error-code if something goes wrong */
 	private String hashbang[];	/* array of arguments if a hash-bang script */
 	private MExecCL cloader;	/* class loader for Java classes */
+	private Class<?> uclass;	/* the class, once loaded (see classof()) */
 
-	private int exec_refcount;	/* reference count for the exec */
+	private String path;		/* file this was read from */
+	private MInode stamp;		/* what the file looked like when read (see same_file()) */
+	private long uses;		/* times handed out by the image cache */
 	//}}}
 
 
+	//{{{  private static class HelperStamp
+	/**
+	 * a helper class loaded from /lib/ and what its file looked like then
+	 */
+	private static class HelperStamp
+	{
+		/** path to the file */
+		final String path;
+		/** what it looked like when read */
+		final MInode stamp;
+
+		HelperStamp (String path, MInode stamp)
+		{
+			this.path = path;
+			this.stamp = stamp;
+		}
+	}
+	//}}}
 	//{{{  private class-loader
 	/**
 	 * the MExecCL class implements the ClassLoader for MOSS, reading
@@ -64,6 +85,8 @@ public class MExec
 		Class eclass;
 		/** byte-array that contains the class */
 		byte classdata[];
+		/** helper classes loaded from /lib, paths and what the files looked like then */
+		List<HelperStamp> helpers;
 		//}}}
 		
 		//{{{  public MExecCL (String path, byte data[])
@@ -80,6 +103,7 @@ public class MExec
 
 			eclass = null;
 			classdata = data;
+			helpers = new ArrayList<HelperStamp> ();
 
 			hc = path.hashCode();
 			if (hc < 0) {
@@ -114,7 +138,14 @@ public class MExec
 					/* not this class itself.. */
 					byte cbuf[];
 					Class cc;
+					MInode st = new MInode ();
 
+					if (MFileSystem.stat ("/lib/" + name, st) == 0) {
+						/* so the image cache can tell if it changes */
+						synchronized (helpers) {
+							helpers.add (new HelperStamp ("/lib/" + name, st));
+						}
+					}
 					cbuf = MExec.readfile ("/lib/" + name, 0, null);
 					if (cbuf == null) {
 						// MKernel.log_msg ("MExec:MExecCL::findFlass(): name = [" + name + "], didn\'t find in /lib, trying builtin...");
@@ -177,6 +208,26 @@ public class MExec
 			return eclass;
 		}
 		//}}}
+		//{{{  public boolean uses_helper (String path)
+		/**
+		 * tests whether a helper class was loaded from a particular file
+		 *
+		 * @param path file in /lib/
+		 *
+		 * @return true if so
+		 */
+		public boolean uses_helper (String path)
+		{
+			synchronized (helpers) {
+				for (HelperStamp h : helpers) {
+					if (path.equals (h.path)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		//}}}
 		//{{{  public String getclassname ()
 		/**
 		 * returns the fudged class-name for this loader (based on the path given earlier)
@@ -201,7 +252,10 @@ public class MExec
 		type = EXEC_INVALID;
 		hashbang = null;
 		cloader = null;
-		exec_refcount = 0;
+		uclass = null;
+		path = null;
+		stamp = null;
+		uses = 0;
 
 		return;
 	}
@@ -300,6 +354,13 @@ public class MExec
 	{
 		byte rbuf[];
 
+		/* note what the file looks like before reading it:  if it changes after, the cache entry just goes stale */
+		this.path = path;
+		stamp = new MInode ();
+		if (MFileSystem.stat (path, stamp) < 0) {
+			stamp = null;
+		}
+
 		/* read the first 128 bytes (or less) from the file */
 		rbuf = readfile (path, 128, this);
 		if (rbuf == null) {
@@ -360,6 +421,38 @@ public class MExec
 		return (ClassLoader)cloader;
 	}
 	//}}}
+	//{{{  public synchronized Class<?> classof ()
+	/**
+	 * returns the Java class for an EXEC_CLASS executable, loading it the first time
+	 *
+	 * @return class on success, or null on error (see errorof())
+	 */
+	public synchronized Class<?> classof ()
+	{
+		String cname;
+
+		if ((uclass != null) || (type != EXEC_CLASS) || (cloader == null)) {
+			if ((uclass == null) && (errorcode == 0)) {
+				errorcode = -MSystem.ENOEXEC;
+			}
+			return uclass;
+		}
+		cname = classnameof ();
+		try {
+			uclass = Class.forName (cname, true, cloader);
+		} catch (ClassNotFoundException e) {
+			/* probably because the name was junk, but now look in the class loader for a good name */
+			cname = classnameof ();
+			try {
+				uclass = Class.forName (cname, true, cloader);
+			} catch (ClassNotFoundException f) {
+				uclass = null;
+				errorcode = -MSystem.ENOEXEC;
+			}
+		}
+		return uclass;
+	}
+	//}}}
 	//{{{  public String classnameof (ClassLoader mcloader)
 	/**
 	 * returns a string providing a class-name for MExecCL objects.  This is needed
@@ -406,77 +499,208 @@ public class MExec
 
 
 	/*
-	 *	note: this stuff below is _UGLY_..  Basically it seems the class can't be
-	 *	re-loaded if it already is since class-loaders "partition" the JVM.  Attempting
-	 *	to load a second one causes problems with inner-classes later on.  The code below
-	 *	stops that happening, but currently doesn't deal with "trash_active()", so once
-	 *	loaded, executables are never removed..  (not a serious problem at the moment)
+	 *	the executable image cache:  class-loaders "partition" the JVM, so
+	 *	every exec of a fresh MExec defines the class (and any helpers from
+	 *	/lib/) all over again.  Instead, MExecs are kept here, keyed by path,
+	 *	and handed out again as long as the file (and helpers) still look
+	 *	the same:  same inode, size and modification time.  Entries are also
+	 *	dropped when the file is unlinked or opened for writing, and the
+	 *	least recently used ones go when there are more than
+	 *	MConfig.exec_cache_size.  Processes already running keep their class.
 	 */
 
 
 	//{{{  private static stuff
-	private static Hashtable loaded = new Hashtable ();
+	/** cached executables, by path, least recently used first */
+	private static LinkedHashMap<String, MExec> cache = new LinkedHashMap<String, MExec> (16, 0.75f, true);
+	/** statistics (guarded by cache) */
+	private static long hits, misses, stale, invalidated, evicted;
 
 	//}}}
-	//{{{  public static MExec load_active (String path)
+	//{{{  private static class PFS_execcache implements MProcFSIf
 	/**
-	 * this is called to return an already loaded MExec for a path
-	 * (ie something that is already running).
+	 * this class provides the "execcache" file in the process file-system
+	 */
+	private static class PFS_execcache implements MProcFSIf
+	{
+		/**
+		 * called to get the info
+		 *
+		 * @param inode inode for the proc-fs entry
+		 * @param name name of the entry
+		 *
+		 * @return string containing image cache statistics and contents
+		 */
+		public String readproc (MInode inode, String name)
+		{
+			String r;
+
+			synchronized (cache) {
+				r = "entries: " + cache.size () + " (max " + MConfig.exec_cache_size + ")\n" +
+					"hits: " + hits + "\n" + "misses: " + misses + "\n" + "stale: " + stale + "\n" +
+					"invalidated: " + invalidated + "\n" + "evicted: " + evicted + "\n";
+				if (cache.size () > 0) {
+					r = r + String.format ("%-32s %-7s %8s %8s\n", "path", "type", "helpers", "uses");
+					for (MExec exec : cache.values ()) {
+						r = r + String.format ("%-32s %-7s %8d %8d\n", exec.path, (exec.type == EXEC_CLASS) ? "class" : "script",
+								(exec.cloader == null) ? 0 : exec.cloader.helpers.size (), exec.uses);
+					}
+				}
+			}
+			return r;
+		}
+	}
+	//}}}
+	//{{{  public static void finalinit ()
+	/**
+	 * called to do final initialisation (in the context of the init-task)
+	 */
+	public static void finalinit ()
+	{
+		MProcFS.register_procimpl ("execcache", new PFS_execcache ());
+	}
+	//}}}
+	//{{{  public static MExec load_cached (String path)
+	/**
+	 * returns a cached MExec for a path, provided the file (and any helper
+	 * classes it loaded) has not changed since
 	 *
 	 * @param path path to executable
 	 * 
-	 * @return MExec class or null if not found
+	 * @return MExec or null if not cached (or stale)
 	 */
-	public static MExec load_active (String path)
+	public static MExec load_cached (String path)
 	{
-		MExec exec = null;
+		MExec exec;
 
-		synchronized (loaded) {
-			exec = (MExec)loaded.get (path);
-			if (exec != null) {
-				exec.exec_refcount++;
+		synchronized (cache) {
+			exec = cache.get (path);
+			if (exec == null) {
+				misses++;
+				return null;
 			}
 		}
+		/* stat outside the cache lock, the file-system has its own */
+		if (!exec.same_file ()) {
+			synchronized (cache) {
+				if (cache.get (path) == exec) {
+					cache.remove (path);
+				}
+				stale++;
+				misses++;
+			}
+			return null;
+		}
+		synchronized (cache) {
+			hits++;
+			exec.uses++;
+		}
 		return exec;
 	}
 	//}}}
-	//{{{  public static void store_active (MExec exec, String path)
+	//{{{  public static void store_cached (MExec exec)
 	/**
-	 * adds an MExec to the list of those loaded
+	 * adds a freshly read MExec to the cache (a Java class or script, read with setpath()),
+	 * evicting the least recently used if it is full
 	 *
 	 * @param exec MExec representing the executable
-	 * @param path path to the executable
 	 */
-	public static void store_active (MExec exec, String path)
+	public static void store_cached (MExec exec)
 	{
-		synchronized (loaded) {
-			exec.exec_refcount = 1;
-			loaded.put (path, exec);
+		if ((exec.path == null) || (exec.stamp == null) || ((exec.type != EXEC_CLASS) && (exec.type != EXEC_SCRIPT))) {
+			return;
+		}
+		synchronized (cache) {
+			exec.uses = 1;
+			cache.put (exec.path, exec);
+			while (cache.size () > MConfig.exec_cache_size) {
+				Iterator<String> it = cache.keySet ().iterator ();
+
+				it.next ();
+				it.remove ();
+				evicted++;
+			}
 		}
 		return;
 	}
 	//}}}
-	//{{{  public static void trash_active (MExec exec, String path)
+	//{{{  public static void invalidate_cached (String path)
 	/**
-	 * this removes a loaded MExec, called when a process is done using it
-	 * (during process shutdown)
+	 * drops any cached MExec for a path, or that loaded a helper class from it.
+	 * Called by the file-system when a file is unlinked or opened for writing.
 	 *
-	 * @param exec MExec representing the executable
-	 * @param path path to the executable
+	 * @param path absolute path to the file
 	 */
-	public static void trash_active (MExec exec, String path)
+	public static void invalidate_cached (String path)
 	{
-		synchronized (loaded) {
-			if (loaded.contains (exec)) {
-				exec.exec_refcount--;
-				if (exec.exec_refcount == 0) {
-					loaded.remove (path);
+		synchronized (cache) {
+			if (cache.isEmpty ()) {
+				return;
+			}
+			if (cache.remove (path) != null) {
+				invalidated++;
+			}
+			if (path.startsWith ("/lib/")) {
+				for (Iterator<MExec> it = cache.values ().iterator (); it.hasNext (); ) {
+					MExec exec = it.next ();
+
+					if ((exec.cloader != null) && exec.cloader.uses_helper (path)) {
+						it.remove ();
+						invalidated++;
+					}
 				}
 			}
 		}
 		return;
 	}
 	//}}}
+	//{{{  private boolean same_file ()
+	/**
+	 * checks whether the file this was read from, and any helper classes
+	 * loaded for it, still look the same
+	 *
+	 * @return true if unchanged
+	 */
+	private boolean same_file ()
+	{
+		if ((stamp == null) || !same_stamp (path, stamp)) {
+			return false;
+		}
+		if (cloader != null) {
+			HelperStamp hs[];
+
+			synchronized (cloader.helpers) {
+				hs = cloader.helpers.toArray (new HelperStamp[0]);
+			}
+			for (HelperStamp h : hs) {
+				if (!same_stamp (h.path, h.stamp)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	//}}}
+	//{{{  private static boolean same_stamp (String path, MInode was)
+	/**
+	 * checks whether a file still has the same inode, size and modification time
+	 *
+	 * @param path file to check
+	 * @param was what it looked like before
+	 *
+	 * @return true if unchanged
+	 */
+	private static boolean same_stamp (String path, MInode was)
+	{
+		MInode now = new MInode ();
+
+		if (MFileSystem.stat (path, now) < 0) {
+			return false;
+		}
+		return ((now.major == was.major) && (now.minor == was.minor) && (now.ino == was.ino) &&
+				(now.size == was.size) && (now.mtime == was.mtime));
+	}
+	//}}}
 }
 
 
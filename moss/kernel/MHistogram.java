@@ -0,0 +1,139 @@
+/*
+ *	MHistogram.java -- power-of-two latency histogram
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.kernel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * this class counts durations (given in nano-seconds) into power-of-two
+ * buckets of micro-seconds: bucket 0 is under 1us, bucket n is 2^(n-1)us
+ * up to 2^n us.  Adding a sample is a few atomic increments, so it may be
+ * done from anywhere without locks.
+ */
+
+public class MHistogram
+{
+	//{{{  private data
+	/** number of buckets, the last one catches everything longer */
+	private static final int BUCKETS = 32;
+
+	/** sample counts per bucket */
+	private AtomicLongArray buckets;
+	/** total of all samples (nano-seconds) */
+	private AtomicLong sum;
+	/** longest sample (nano-seconds) */
+	private AtomicLong max;
+	//}}}
+
+	//{{{  public MHistogram ()
+	/**
+	 * creates a new, empty, histogram
+	 */
+	public MHistogram ()
+	{
+		buckets = new AtomicLongArray (BUCKETS);
+		sum = new AtomicLong ();
+		max = new AtomicLong ();
+	}
+	//}}}
+	//{{{  public void add (long nanos)
+	/**
+	 * adds a sample
+	 *
+	 * @param nanos duration in nano-seconds (negative values count as 0)
+	 */
+	public void add (long nanos)
+	{
+		long m;
+		int b;
+
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		b = 64 - Long.numberOfLeadingZeros (nanos / 1000);
+		if (b >= BUCKETS) {
+			b = BUCKETS - 1;
+		}
+		buckets.incrementAndGet (b);
+		sum.addAndGet (nanos);
+		do {
+			m = max.get ();
+		} while ((nanos > m) && !max.compareAndSet (m, nanos));
+	}
+	//}}}
+	//{{{  public long count ()
+	/**
+	 * returns the number of samples
+	 *
+	 * @return count
+	 */
+	public long count ()
+	{
+		long n = 0;
+
+		for (int i=0; i<BUCKETS; i++) {
+			n += buckets.get (i);
+		}
+		return n;
+	}
+	//}}}
+	//{{{  public String format ()
+	/**
+	 * formats the histogram for the process file-system, skipping empty
+	 * buckets at either end
+	 *
+	 * @return printable histogram
+	 */
+	public String format ()
+	{
+		String r = "";
+		long counts[] = new long[BUCKETS];
+		long n = 0;
+		int lo = -1, hi = -1;
+
+		for (int i=0; i<BUCKETS; i++) {
+			counts[i] = buckets.get (i);
+			n += counts[i];
+			if (counts[i] != 0) {
+				if (lo < 0) {
+					lo = i;
+				}
+				hi = i;
+			}
+		}
+
+		r = r + "samples: " + n + "\n";
+		if (n == 0) {
+			return r;
+		}
+		r = r + "average: " + String.format ("%.1f", (double)sum.get () / n / 1000.0) + " us\n";
+		r = r + "maximum: " + String.format ("%.1f", max.get () / 1000.0) + " us\n";
+		r = r + String.format ("%24s : %s\n", "usecs", "count");
+		for (int i=lo; i<=hi; i++) {
+			long from = (i == 0) ? 0 : (1L << (i - 1));
+			String range = (i == (BUCKETS - 1)) ? (from + " ->") : (from + " -> " + ((1L << i) - 1));
+
+			r = r + String.format ("%24s : %d\n", range, counts[i]);
+		}
+		return r;
+	}
+	//}}}
+}
+
@@ -24,6 +24,10 @@ import moss.user.*;
 import moss.drivers.*;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -45,180 +49,327 @@ public class MInitTask implements MUserProcess
 
 	//}}}
 
-	//{{{  private int setuphostfile (String srcfile, String dstfile)
+	//{{{  boot-time copying of files from the host
+	/** most threads copying files in from the host at boot */
+	private static final int MAX_BOOT_WORKERS = 4;
+
+	/** files being copied in, by MOSS path (null once they all are);  not changed once set */
+	private static volatile HashMap<String, BootFile> boot_files = null;
+	/** the same files, in inventory order */
+	private static BootFile boot_list[];
+	/** next file in boot_list for a worker to take */
+	private static AtomicInteger boot_next = new AtomicInteger ();
+	/** number of files not yet copied */
+	private static AtomicInteger boot_left = new AtomicInteger ();
+	/** bytes copied so far */
+	private static AtomicLong boot_bytes = new AtomicLong ();
+	/** when copying started (System.nanoTime()) */
+	private static long boot_copy_start;
+
+	//}}}
+	//{{{  private static class BootFile
+	/**
+	 * one file to copy in from the host at boot
+	 */
+	private static class BootFile
+	{
+		/** host path */
+		String spath;
+		/** MOSS path */
+		String dpath;
+		/** BOOT_WAITING, BOOT_COPYING or BOOT_DONE */
+		AtomicInteger state = new AtomicInteger (BOOT_WAITING);
+		/** thread doing the copy, once BOOT_COPYING */
+		volatile Thread copier;
+	}
+	private static final int BOOT_WAITING = 0;
+	private static final int BOOT_COPYING = 1;
+	private static final int BOOT_DONE = 2;
+	//}}}
+	//{{{  private static class BootCopier extends Thread
+	/**
+	 * worker thread that copies files in at boot, in inventory order, until there are none left
+	 */
+	private static class BootCopier extends Thread
+	{
+		public BootCopier (int n)
+		{
+			super ("boot-copy-" + n);
+			setDaemon (true);
+		}
+
+		public void run ()
+		{
+			int i;
+
+			while ((i = boot_next.getAndIncrement ()) < boot_list.length) {
+				copy_boot_file (boot_list[i]);
+			}
+		}
+	}
+	//}}}
+	//{{{  private static boolean copy_boot_file (BootFile bf)
+	/**
+	 * copies a boot file in, unless someone else already is (or has)
+	 *
+	 * @param bf file to copy
+	 *
+	 * @return true if this call did the copy
+	 */
+	private static boolean copy_boot_file (BootFile bf)
+	{
+		int r;
+
+		if (!bf.state.compareAndSet (BOOT_WAITING, BOOT_COPYING)) {
+			return false;
+		}
+		bf.copier = Thread.currentThread ();
+		r = setuphostfile (bf.spath, bf.dpath);
+		if (r < 0) {
+			MKernel.log_msg ("init: failed to copy " + bf.spath + " to " + bf.dpath + ": " + MStdLib.strerror (r));
+		}
+		synchronized (bf) {
+			bf.state.set (BOOT_DONE);
+			bf.notifyAll ();
+		}
+		if (boot_left.decrementAndGet () == 0) {
+			boot_files = null;
+			MKernel.log_msg ("init: inventory copied, " + boot_bytes.get () + " bytes in " +
+					String.format ("%.1f", (System.nanoTime () - boot_copy_start) / 1e6) + "ms");
+		}
+		return true;
+	}
+	//}}}
+	//{{{  private static int setuphostfile (String srcfile, String dstfile)
 	/**
-	 * copies a file from the host environment into the MOSS file-system (somewhere)
+	 * copies a file from the host environment into the MOSS file-system (somewhere).
+	 * Goes straight to MFileSystem, so may be called by threads that are not MOSS processes.
 	 *
 	 * @param srcfile source file-name in the host (JVM) file-system
 	 * @param dstfile destination file-name in the MOSS file-system
 	 *
 	 * @return 0 on success, otherwise &lt; 0 indicating error
 	 */
-	private int setuphostfile (String srcfile, String dstfile)
+	private static int setuphostfile (String srcfile, String dstfile)
 	{
-		FileInputStream fio;
-		int fd;
+		byte data[];
+		MFile fh;
+		int r;
 
 		// MKernel.log_msg ("setuphostfile(): srcfile=[" + srcfile + "], dstfile = [" + dstfile + "]");
 
+		data = readhostfile (srcfile);
+		if (data == null) {
+			return -MSystem.ENOENT;
+		}
+
+		fh = new MFile ();
+		fh.refcount = 1;
+		fh.pdata = null;
+		fh.offset = 0;
+		fh.fileif = null;
+		fh.dirif = null;
+		r = MFileSystem.open (dstfile, fh, MFileOps.OPEN_WRITE | MFileOps.OPEN_CREAT, 0755);
+		if (r < 0) {
+			return r;
+		}
+
+		/* copy contents, in one go */
+		r = (data.length == 0) ? 0 : fh.fileif.write (fh, data, data.length);
+		fh.fileif.close (fh);
+		if (r != data.length) {
+			return -MSystem.EIO;
+		}
+		boot_bytes.addAndGet (data.length);
+
+		return 0;
+	}
+	//}}}
+	//{{{  private static byte[] readhostfile (String srcfile)
+	/**
+	 * reads the whole of a file in the host environment
+	 *
+	 * @param srcfile file-name in the host (JVM) file-system
+	 *
+	 * @return contents, or null if it could not be read
+	 */
+	private static byte[] readhostfile (String srcfile)
+	{
+		FileInputStream fio;
+		byte data[];
+		int in = 0;
+
 		try {
-			fio = new FileInputStream (srcfile);
+			File f = new File (srcfile);
+
+			fio = new FileInputStream (f);
+			data = new byte[(int)f.length ()];
 		} catch (FileNotFoundException e) {
-			return -MSystem.ENOENT;
+			return null;
 		} catch (SecurityException e) {
-			return -MSystem.EACCESS;
+			return null;
 		}
 
-		fd = MPosixIf.open (dstfile, MFileOps.OPEN_WRITE | MFileOps.OPEN_CREAT, 0755);
-		if (fd < 0) {
-			try {
-				fio.close ();
-			} catch (IOException e) { /* skip */ }
-			return fd;
-		}
-		
-		/* copy contents */
-		for (;;) {
-			byte buf[] = new byte[8192];
-			int r;
+		try {
+			for (;;) {
+				int r;
 
-			try {
-				r = fio.read (buf);
-				if (r == -1) {
-					r = 0;	/* end-of-file */
-				}
-			} catch (IOException e) {
-				r = -1;
-			}
+				if (in == data.length) {
+					/* full, but might have grown since */
+					byte newbuf[] = new byte[data.length + 8192];
 
-			if (r < 0) {
-				MPosixIf.close (fd);
-				try {
-					fio.close ();
-				} catch (IOException e) { /* skip */ }
-				return -MSystem.EIO;
-			} else if (r > 0) {
-				/* write these bytes */
-				int x;
-
-				x = MPosixIf.write (fd, buf, r);
-				if (x != r) {
-					MPosixIf.close (fd);
-					try {
-						fio.close ();
-					} catch (IOException e) { /* skip */ }
-					return -MSystem.EIO;
+					System.arraycopy (data, 0, newbuf, 0, in);
+					data = newbuf;
+				}
+				r = fio.read (data, in, data.length - in);
+				if (r == -1) {
+					break;		/* end-of-file */
 				}
-			} else {
-				break;		/* end-of-file */
+				in += r;
 			}
+		} catch (IOException e) {
+			data = null;
 		}
 
-		MPosixIf.close (fd);
 		try {
 			fio.close ();
 		} catch (IOException e) { /* skip */ }
 
-		return 0;
+		if ((data != null) && (in != data.length)) {
+			byte exact[] = new byte[in];
+
+			System.arraycopy (data, 0, exact, 0, in);
+			data = exact;
+		}
+		return data;
 	}
 	//}}}
 	//{{{  private int setuphostinv (String srcfile)
 	/**
-	 * reads the module inventory and calls setuphostfile() appropriately
+	 * reads the module inventory and starts copying the files it lists in
+	 * (with setuphostfile()), on a few worker threads.  Anything that opens
+	 * or stats one of those files before it is there waits for it, or
+	 * copies it itself if no worker has got to it yet (see wait_boot_file()).
+	 * Completion (and any errors) go to the kernel log.
 	 *
 	 * @param srcfile path to the inventory
 	 *
-	 * @return 0 on success, otherwise &lt; 0 indicating error
+	 * @return number of files being copied on success, otherwise &lt; 0 indicating error
 	 */
 	private int setuphostinv (String srcfile)
 	{
-		FileInputStream fio;
-		byte inv[] = null;
-		int i;
+		byte inv[];
+		Vector<BootFile> todo = new Vector<BootFile> ();
+		HashMap<String, BootFile> files;
+		int nworkers;
 
-		try {
-			fio = new FileInputStream (srcfile);
-		} catch (FileNotFoundException e) {
+		inv = readhostfile (srcfile);
+		if (inv == null) {
 			return -MSystem.ENOENT;
-		} catch (SecurityException e) {
-			return -MSystem.EACCESS;
 		}
 
-		/* read inventory */
-		for (;;) {
-			byte buf[] = new byte[512];
-			int r;
-
-			try {
-				r = fio.read (buf);
-				if (r == -1) {
-					r = 0;	/* end-of-file */
+		/* parse inventory, "hostpath mosspath" per line */
+		for (int i=0; i<inv.length;) {
+			BootFile bf = new BootFile ();
+			int j, k;
+
+			for (j=i; (j<inv.length) && (inv[j] != (byte)'\n'); j++);
+			/* trim carriage return (that may be added by <manj>) */
+			for (k=j; (k>i) && (inv[k-1] == (byte)'\r'); k--);
+			if (k > i) {
+				int sp;
+
+				for (sp=i; (sp<k) && (inv[sp] != (byte)' '); sp++);
+				if ((sp == i) || (sp >= (k - 1))) {
+					MPosixIf.writestring (MPosixIf.STDERR, "bad inventory!\n");
+					return -MSystem.EINVAL;
 				}
-			} catch (IOException e) {
-				r = -1;
+				bf.spath = new String (inv, i, sp - i);
+				bf.dpath = new String (inv, sp + 1, k - (sp + 1));
+				todo.addElement (bf);
 			}
+			i = j + 1;
+		}
+		if (todo.size () == 0) {
+			return 0;
+		}
 
-			if (r < 0) {
+		files = new HashMap<String, BootFile> ();
+		boot_list = new BootFile[todo.size ()];
+		for (int i=0; i<boot_list.length; i++) {
+			boot_list[i] = todo.elementAt (i);
+			files.put (boot_list[i].dpath, boot_list[i]);
+		}
+		boot_left.set (boot_list.length);
+		boot_next.set (0);
+		boot_copy_start = System.nanoTime ();
+		boot_files = files;
+
+		nworkers = Math.max (1, Math.min (MAX_BOOT_WORKERS, Runtime.getRuntime().availableProcessors ()));
+		nworkers = Math.min (nworkers, boot_list.length);
+		for (int i=0; i<nworkers; i++) {
+			new BootCopier (i).start ();
+		}
+
+		return boot_list.length;
+	}
+	//}}}
+	//{{{  public static void wait_boot_file (String path)
+	/**
+	 * called by the file-system before opening or stat'ing a file:  if it is
+	 * still to be copied in from the host at boot, copies it now, or waits
+	 * for the copy already going.  Waiting holds up the virtual processor,
+	 * but only during boot.
+	 *
+	 * @param path absolute path to the file
+	 */
+	public static void wait_boot_file (String path)
+	{
+		HashMap<String, BootFile> files = boot_files;
+		BootFile bf;
+
+		if (files == null) {
+			return;
+		}
+		bf = files.get (path);
+		if ((bf == null) || copy_boot_file (bf) || (bf.copier == Thread.currentThread ())) {
+			/* not a boot file, or just copied it, or it's the copy itself opening the file */
+			return;
+		}
+		synchronized (bf) {
+			while (bf.state.get () != BOOT_DONE) {
 				try {
-					fio.close ();
-				} catch (IOException e) { /* skip */ }
-				return -MSystem.EIO;
-			} else if (r > 0) {
-				/* grab these bytes */
-				if (inv == null) {
-					inv = new byte[r];
-					System.arraycopy (buf, 0, inv, 0, r);
-				} else {
-					byte newbuf[] = new byte[inv.length + r];
-
-					System.arraycopy (inv, 0, newbuf, 0, inv.length);
-					System.arraycopy (buf, 0, newbuf, inv.length, r);
-					inv = newbuf;
+					bf.wait ();
+				} catch (InterruptedException e) {
+					return;
 				}
-			} else {
-				break;			/* end-of-file */
 			}
 		}
+	}
+	//}}}
+	//{{{  public static void wait_boot_dir (String path)
+	/**
+	 * called by the file-system before listing or removing a directory:
+	 * waits for (or copies) any files still to be copied in somewhere under
+	 * it at boot.
+	 *
+	 * @param path absolute path to the directory
+	 */
+	public static void wait_boot_dir (String path)
+	{
+		BootFile list[];
+		String prefix;
 
-		try {
-			fio.close ();
-		} catch (IOException e) { /* skip */ }
-
-		/* process inventory */
-		for (i=0; i<inv.length;) {
-			int j;
-			byte tmpbuf[];
-			String spath;
-			String dpath;
-
-			for (j=i; (j<inv.length) && (inv[j] != (byte)' '); j++);
-			if ((j-i) == 0) {
-				MPosixIf.writestring (MPosixIf.STDERR, "bad inventory!\n");
-				return -MSystem.EINVAL;
-			}
-			tmpbuf = new byte[j-i];
-			System.arraycopy (inv, i, tmpbuf, 0, j-i);
-			spath = new String (tmpbuf);
-			j++;
-			for (i=j; (j<inv.length) && (inv[j] != (byte)'\n'); j++);
-			if ((j-i) == 0) {
-				MPosixIf.writestring (MPosixIf.STDERR, "bad inventory!\n");
-				return -MSystem.EINVAL;
-			}
-			tmpbuf = new byte[j-i];
-			System.arraycopy (inv, i, tmpbuf, 0, j-i);
-			dpath = new String (tmpbuf);
-			j++;
-			i=j;
-
-			dpath = dpath.replaceAll("[\\r\\n]", "");	//Remove carriage return that has been added by <manj>
-			j = setuphostfile (spath, dpath);
-			if (j < 0) {
-				return j;
+		if (boot_files == null) {
+			return;
+		}
+		list = boot_list;
+		prefix = path.endsWith ("/") ? path : (path + "/");
+		for (int i=0; i<list.length; i++) {
+			if (list[i].dpath.startsWith (prefix)) {
+				wait_boot_file (list[i].dpath);
 			}
 		}
-
-		return 0;
 	}
 	//}}}
 
@@ -243,6 +394,17 @@ public class MInitTask implements MUserProcess
 		me.cmdline = bootargs;
 		me.setName ("MInitTask");
 
+		/* look for threads=... boot option (must be settled before any process starts) */
+		for (int i=0; i<bootargs.length; i++) {
+			if (bootargs[i].equals ("threads=virtual")) {
+				if (!MProcess.set_exec_mode (MProcess.EXEC_VIRTUAL)) {
+					System.out.println ("virtual threads not supported by this JVM, using platform threads");
+				}
+			} else if (bootargs[i].equals ("threads=platform")) {
+				MProcess.set_exec_mode (MProcess.EXEC_PLATFORM);
+			}
+		}
+
 		MKernel.first_process (me);
 	}
 	//}}}
@@ -355,7 +517,8 @@ public class MInitTask implements MUserProcess
 		if (x < 0) {
 			MPosixIf.writestring (MPosixIf.STDOUT, "failed.\n");
 		} else {
-			MPosixIf.writestring (MPosixIf.STDOUT, "done\n");
+			/* the rest of boot only waits for the files it uses */
+			MPosixIf.writestring (MPosixIf.STDOUT, "copying " + x + " files\n");
 		}
 
 
@@ -394,6 +557,7 @@ public class MInitTask implements MUserProcess
 		} else {
 			MPosixIf.writestring (MPosixIf.STDOUT, "done (pid " + pid + ")\n");
 		}
+		MKernel.log_msg ("init: time to shell " + String.format ("%.1f", (System.nanoTime () - MKernel.boot_nanos) / 1e6) + "ms");
 
 		while (true) {
 			/* sits in here forever, will transparently catch death of assorted child processes */
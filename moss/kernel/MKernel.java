@@ -23,13 +23,20 @@ package moss.kernel;
 import moss.fs.*;
 import moss.drivers.*;
 import moss.ipc.*;
+import moss.kernel.Scheduler.BitmapPriorityScheduler;
+import moss.kernel.Scheduler.FairScheduler;
 import moss.kernel.Scheduler.IPriorityProcess;
 import moss.kernel.Scheduler.IPriorityScheduler;
+import moss.kernel.Scheduler.MFairProcess;
 import moss.kernel.Scheduler.MPrioritizedLotteryProcess;
 import moss.kernel.Scheduler.MPrioritizedProcess;
 import moss.kernel.Scheduler.PrioritizedLotteryScheduler;
 import moss.kernel.Scheduler.ProcessPriorityEnum;
 import moss.kernel.Scheduler.RoundRobinPriorityScheduler;
+import moss.kernel.Scheduler.IPreemtiveScheduler;
+import moss.kernel.Scheduler.MWorkStealingProcess;
+import moss.kernel.Scheduler.PreemtiveRoundRobinScheduler;
+import moss.kernel.Scheduler.WorkStealingScheduler;
 import moss.user.*;
 
 import java.lang.*;
@@ -38,9 +45,17 @@ import java.util.*;
 
 public class MKernel
 {
-	//{{{  private stuff -- code must hold "lock" (below) before accessing these
-	public static CREWLock lock;
-	private static int nextpid;
+	//{{{  kernel locks -- code must hold the relevant one before touching what it guards
+	/** run-queue lock: guards the scheduler and which processor is running what */
+	public static MKernelLock lock;
+	/** task-list lock: guards task_list and the PID table */
+	public static MKernelLock task_lock;
+	/** per-CPU locks: cpu_lock[n] guards current[n] */
+	public static MKernelLock cpu_lock[];
+	//}}}
+	//{{{  private stuff -- code must hold "task_lock" (above) before accessing these
+	/** PID allocation and PID to process lookup */
+	private static MPidTable pids;
 	//}}}
 	//{{{  public static variables that we allow other parts of the system to read
 
@@ -55,6 +70,18 @@ public class MKernel
 
 	/** virtual processor objects */
 	public static MProcessor processors[];
+
+	/** processors with nothing to run (kept up to date by MProcessor.set_process()) */
+	public static MCpuMask idle_cpus;
+
+	/** processors in each CPU domain */
+	public static MCpuMask domain_cpus[];
+
+	/** time from processes becoming runnable to them running */
+	public static MHistogram wakeup_latency;
+
+	/** System.nanoTime() when the kernel started booting */
+	public static long boot_nanos;
 	
 	/** Scheduler object */
 	public static IScheduler m_schedular; 
@@ -80,6 +107,10 @@ public class MKernel
 		private MInode i_version;
 		/** "host" file inode */
 		private MInode i_host;
+		/** "wakeup" file inode */
+		private MInode i_wakeup;
+		/** "config" file inode */
+		private MInode i_config;
 
 
 		//}}}
@@ -91,6 +122,8 @@ public class MKernel
 		{
 			i_version = MProcFS.register_procimpl ("version", this);
 			i_host = MProcFS.register_procimpl ("host", this);
+			i_wakeup = MProcFS.register_procimpl ("wakeup", this);
+			i_config = MProcFS.register_procimpl ("config", this);
 		}
 		//}}}
 		//{{{  public String readproc (MInode inode, String name)
@@ -110,7 +143,13 @@ public class MKernel
 					"/" + System.getProperty ("java.vendor") + "\n";
 				r = r + "virtual system: " + System.getProperty ("java.vm.vendor") +
 					"  " + System.getProperty ("java.vm.name") + "/" + System.getProperty ("java.vm.version") + "\n";
+				r = r + "process threads: " + ((MProcess.get_exec_mode () == MProcess.EXEC_VIRTUAL) ? "virtual" : "platform") + "\n";
 
+			} else if (inode == i_wakeup) {
+				r = r + "idle CPUs: " + idle_cpus.count () + " (mask " + idle_cpus + ")\n";
+				r = r + wakeup_latency.format ();
+			} else if (inode == i_config) {
+				r = MConfig.describe ();
 			}
 			return r;
 		}
@@ -127,14 +166,34 @@ public class MKernel
 	 */
 	public static void init_kernel (MProcessor cpus[], PrintStream msgs)
 	{
+		boot_nanos = System.nanoTime ();
+
 		//Set this value to make the specific scheduler active <manj>
 		m_schedularType = SchedulerType.FIFO;
 		
 		m_schedular = NewScheduler();
 		
 		current = new MProcess[MConfig.ncpus];
-		lock = new CREWLock ();
-		nextpid = 0;
+		lock = new MKernelLock (true);
+		task_lock = new MKernelLock ();
+		cpu_lock = new MKernelLock[MConfig.ncpus];
+		for (int i=0; i<cpu_lock.length; i++) {
+			cpu_lock[i] = new MKernelLock ();
+		}
+		pids = new MPidTable (MConfig.max_pids);
+		idle_cpus = new MCpuMask (MConfig.ncpus);
+		for (int i=0; i<MConfig.ncpus; i++) {
+			idle_cpus.set (i);
+		}
+		domain_cpus = new MCpuMask[(MConfig.ncpus + MConfig.cpu_domain_size - 1) / MConfig.cpu_domain_size];
+		for (int i=0; i<domain_cpus.length; i++) {
+			domain_cpus[i] = new MCpuMask (MConfig.ncpus);
+		}
+		for (int i=0; i<MConfig.ncpus; i++) {
+			domain_cpus[i / MConfig.cpu_domain_size].set (i);
+		}
+		wakeup_latency = new MHistogram ();
+		MSchedStat.init_schedstat (MConfig.ncpus);
 
 		msgs.println ("MKernel starting...");
 		init_task = null;
@@ -204,6 +263,57 @@ public class MKernel
 		getScheduler().Schedule();
 	}
 	//}}}
+	//{{{  public static long quantum_ticks ()
+	/**
+	 * returns the scheduler's time-slice in timer ticks, if it preempts
+	 *
+	 * @return quantum in ticks, or 0 if processes are never preempted
+	 */
+	public static long quantum_ticks ()
+	{
+		long millis;
+
+		if (!(m_schedular instanceof IPreemtiveScheduler)) {
+			return 0;
+		}
+		millis = ((IPreemtiveScheduler)m_schedular).getQuantum ();
+		if (millis <= 0) {
+			return 0;
+		}
+		return (millis + MConfig.timer_tick - 1) / MConfig.timer_tick;
+	}
+	//}}}
+	//{{{  public static void preempt_check (MProcess p)
+	/**
+	 * called by a running process at a system-call boundary (from
+	 * MProcess.sync_process_signals).  If its quantum has run out and something
+	 * else is waiting to run, it goes to the back of the run-queue.  Processes
+	 * never make system calls while holding other kernel locks, so this is a
+	 * safe point to deschedule them.
+	 *
+	 * @param p current process
+	 */
+	public static void preempt_check (MProcess p)
+	{
+		int cpu = p.cpu;
+		boolean waiting;
+
+		if ((cpu < 0) || (p.state != MProcess.TASK_RUNNING) || !processors[cpu].need_resched ()) {
+			return;
+		}
+		lock.claim_read ();
+		waiting = getScheduler().IsProcessAvailable();
+		lock.release_read ();
+
+		if (!waiting) {
+			/* nobody to give the processor to, carry on */
+			processors[cpu].renew_slice ();
+			return;
+		}
+		add_to_run_queue (p);
+		schedule ();
+	}
+	//}}}
 	//{{{  private static void schedule_to_cpu (MProcess p, int cpu)
 	/**
 	 * This is used to set a process running on a particular processor.  Processor must be idle..
@@ -217,8 +327,142 @@ public class MKernel
 		// System.err.println ("schedule_to_cpu(" + p.getName() + ", " + cpu + ")!");
 		processors[cpu].set_process (p);
 		/* wake up the sleeping process */
-		synchronized (p) {
-			p.notify ();
+		p.dispatch ();
+	}
+	//}}}
+	//{{{  public static void set_current (int cpu, MProcess p)
+	/**
+	 * sets the current process on a particular processor (null when it stops running there).
+	 * Takes that processor's cpu_lock, so may be called with the run-queue lock held or not.
+	 * Also keeps the processes' on_cpu flags in step, and records how long a
+	 * process waited between becoming runnable and getting here.
+	 *
+	 * @param cpu processor number
+	 * @param p process now current on that processor
+	 */
+	public static void set_current (int cpu, MProcess p)
+	{
+		cpu_lock[cpu].claim_write ();
+		if ((current[cpu] != null) && (current[cpu].cpu == cpu)) {
+			/* (unless it has already been dispatched elsewhere) */
+			current[cpu].on_cpu = false;
+		}
+		current[cpu] = p;
+		if (p != null) {
+			p.on_cpu = true;
+		}
+		cpu_lock[cpu].release_write ();
+
+		if ((p != null) && (p.runnable_since != 0)) {
+			long waited = System.nanoTime () - p.runnable_since;
+
+			wakeup_latency.add (waited);
+			MSchedStat.dispatched (cpu, waited);
+			p.wait_sum += waited;
+			p.wait_count++;
+			p.runnable_since = 0;
+		}
+	}
+	//}}}
+	//{{{  private static int find_idle_cpu (MProcess p)
+	/**
+	 * picks an idle processor for a process, out of those its affinity
+	 * allows:  preferably the one it last ran on, then one in the same CPU
+	 * domain, then any.  The kernel lock must be held.
+	 *
+	 * @param p process about to be woken
+	 *
+	 * @return processor number, or -1 if none are idle
+	 */
+	private static int find_idle_cpu (MProcess p)
+	{
+		MCpuMask allowed = p.affinity;
+		int last = p.cpu;
+
+		if ((last >= 0) && (last < processors.length)) {
+			int cpu;
+
+			if (idle_cpus.test (last) && ((allowed == null) || allowed.test (last))) {
+				return last;
+			}
+			cpu = idle_cpus.first_and (domain_cpus[processors[last].domain], allowed);
+			if (cpu >= 0) {
+				return cpu;
+			}
+		}
+		return idle_cpus.first_and (allowed, null);
+	}
+	//}}}
+	//{{{  public static MProcess pick_next (int cpu)
+	/**
+	 * takes the next process to run on a processor off the run-queue.
+	 * Processes whose affinity does not include this processor are passed
+	 * over:  each goes to an idle processor it may run on, if there is one,
+	 * otherwise back in the run-queue.  So are processes still current on
+	 * another processor (woken, or preempting themselves, on their way to
+	 * schedule()):  taking one of those would have it running in two places.
+	 * They go back in the run-queue, and wake_idle() finds them a processor
+	 * once they are off.  The kernel lock must be held.
+	 *
+	 * @param cpu processor that is looking for work
+	 *
+	 * @return process to run, or null if there is nothing this processor may run
+	 */
+	public static MProcess pick_next (int cpu)
+	{
+		MProcess p = getScheduler().GetNextProcess(cpu);
+		ArrayList<MProcess> passed = null;
+
+		while ((p != null) && (((p.affinity != null) && !p.affinity.test (cpu)) || (p.on_cpu && (p != current[cpu])))) {
+			if (passed == null) {
+				passed = new ArrayList<MProcess> ();
+			}
+			passed.add (p);
+			MSchedStat.dequeued ();
+			p = getScheduler().IsProcessAvailable() ? getScheduler().GetNextProcess(cpu) : null;
+		}
+		if (passed != null) {
+			for (int i=0; i<passed.size (); i++) {
+				MProcess x = passed.get (i);
+				int other = x.on_cpu ? -1 : find_idle_cpu (x);
+
+				if (other >= 0) {
+					schedule_to_cpu (x, other);
+				} else {
+					run_queue_add (x);
+				}
+			}
+		}
+		return p;
+	}
+	//}}}
+	//{{{  public static void wake_idle ()
+	/**
+	 * hands processes waiting in the run-queue to idle processors.  Normally
+	 * there aren't both, but pick_next() can leave a process queued (while it
+	 * finishes switching out) when a processor could have run it, and a
+	 * process added behind others may be one only an idle processor may run.
+	 * Each idle processor is tried in turn:  one that has nothing it may run
+	 * doesn't stop the others getting work.  Called by a processor as it
+	 * switches, once the process it was running is off
+	 * (MKernel.set_current (cpu, null)), and when a process joins a non-empty
+	 * run-queue.  The kernel lock must be held.
+	 */
+	public static void wake_idle ()
+	{
+		int cpus[] = idle_cpus.to_array ();
+
+		for (int i=0; (i<cpus.length) && getScheduler().IsProcessAvailable(); i++) {
+			MProcess p;
+
+			if (!idle_cpus.test (cpus[i])) {
+				continue;		/* for () -- given work by pick_next() for another */
+			}
+			p = pick_next (cpus[i]);
+			if (p != null) {
+				MSchedStat.dequeued ();
+				schedule_to_cpu (p, cpus[i]);
+			}
 		}
 	}
 	//}}}
@@ -231,15 +475,19 @@ public class MKernel
 	 */
 	public static void first_process (MProcess p)
 	{
-		lock.claim_write ();
+		task_lock.claim_write ();
 		init_task = p;
-		current[0] = init_task;
+		init_task.pid = 1;
+		pids.reserve (1);
+		task_lock.release_write ();
+
+		lock.claim_write ();
 		processors[0].set_process (init_task);
+		set_current (0, init_task);
 		init_task.state = MProcess.TASK_RUNNING;
-		init_task.pid = 1;
-		nextpid = 2;
 		lock.release_write ();
-		init_task.start ();
+		init_task.exec_start = System.nanoTime ();
+		init_task.launch ();
 	}
 	//}}}
 	//{{{  public static void finalinit ()
@@ -251,10 +499,12 @@ public class MKernel
 	{
 		MLog.finalinit ();
 		MProcessor.finalinit ();
+		MSchedStat.finalinit ();
 		MDevices.finalinit ();
 		MMailBox.finalinit ();
 		MFileSystem.finalinit ();
 		MProcFS.finalinit ();
+		MExec.finalinit ();
 		MModules.finalinit ();
 		MNamedMsgQ.finalinit ();
 		MSemaphore.finalinit ();
@@ -277,28 +527,20 @@ public class MKernel
 	{
 		int cpu;
 
-		/* add it to the run-queue */
-		quiet_add_to_run_queue (p);
-
-		synchronized (p) {
-			/* notify process start semaphore */
-			p.start_sem.sem_signal ();
-
-			/* go to sleep */
-			try {
-				p.wait ();
-			} catch (InterruptedException e) {
-				panic ("MKernel::starting_process()  interrupted!");
-			}
+		/* add it to the run-queue (unless start_processes() is doing that) */
+		if (!p.batched) {
+			quiet_add_to_run_queue (p);
 		}
 
+		/* notify process start semaphore and go to sleep */
+		p.wait_dispatch (p.start_sem);
+
 		/* when a thread wakes up here, it is p */
+		p.exec_start = System.nanoTime ();
 		cpu = MProcessor.currentCPU ();
-		lock.claim_write ();
-		current[cpu] = p;
+		set_current (cpu, p);
 		/* ensure proper detachment from any queue */
 		p.state = MProcess.TASK_RUNNING;
-		lock.release_write ();
 		// System.err.println ("starting_process(" + current[cpu].getName() + ") on CPU " + cpu);
 	}
 	//}}}
@@ -312,20 +554,19 @@ public class MKernel
 		MProcess old_p, new_p;
 		int cpu = MProcessor.currentCPU ();
 
-		lock.claim_write ();
-
 		if (current[cpu] == null) {
 			panic ("MKernel::ending_process().  current[cpu] is null!");
 		}
 
-		/* reparent any child processes (init inherits) */
+		/* reparent any child processes (init inherits) -- only p's children change, so reading the list will do */
+		task_lock.claim_read ();
 		for (MProcess x = task_list; x != null; x = x.next_task) {
 			if (x.parent == p) {
 				/* this one */
 				x.parent = init_task;
 			}
 		}
-		lock.release_write ();
+		task_lock.release_read ();
 
 		/* tell parent process -- done before we check the run-queue. */
 		if (current[cpu].parent != null) {
@@ -336,6 +577,9 @@ public class MKernel
 
 		lock.claim_write ();
 
+		if (getScheduler() instanceof SchedulerBase) {
+			((SchedulerBase)getScheduler()).ChargeRuntime (current[cpu]);
+		}
 		if (!getScheduler().IsProcessAvailable()) {
 			/* nothing else to run, make processor idle */
 			old_p = current[cpu];
@@ -344,18 +588,18 @@ public class MKernel
 		} else {
 			/* pick a process off the run-queue */
 			old_p = current[cpu];
-			new_p = getScheduler().GetNextProcess();
+			new_p = pick_next (cpu);
 			
 			processors[cpu].set_process (new_p);
 		}
-		current[cpu] = null;			/* just incase anything tries during the reschedule */
+		MSchedStat.switched (cpu, old_p, new_p);
+		set_current (cpu, null);		/* just incase anything tries during the reschedule */
+		wake_idle ();
 
 		lock.release_write ();
 
 		if (new_p != null) {
-			synchronized (new_p) {
-				new_p.notify ();
-			}
+			new_p.dispatch ();
 		}
 
 		/* and we're done..! */
@@ -364,27 +608,102 @@ public class MKernel
 	//{{{  public static void start_process (MProcess p)
 	/**
 	 * this is called to start a new process.  The process given should be
-	 * a non-started MProcess (extending Java's Thread).
+	 * a non-started MProcess.
 	 *
 	 * @param p process to be started
 	 */
 	public static void start_process (MProcess p)
 	{
-		if (p.isAlive ()) {
+		if (p.launched ()) {
 			panic ("MKernel::start_process() process [" + p.getName() + "] already running!");
 		}
-		p.start ();
+		p.launch ();
 		/* wait for it */
 		p.start_sem.sem_wait ();
 	}
 	//}}}
+	//{{{  public static void start_processes (MProcess ps[])
+	/**
+	 * starts several new processes at once.  Each is put on the task list
+	 * and launched, then, once they have all reached the point where they
+	 * wait to be dispatched, they go on the run-queue together (with idle
+	 * processors picking some straight off).  Processes given should be
+	 * non-started MProcesses with PIDs allocated.
+	 *
+	 * @param ps processes to be started
+	 */
+	public static void start_processes (MProcess ps[])
+	{
+		Semaphore started = new Semaphore (0);
+		long now;
+
+		for (int i=0; i<ps.length; i++) {
+			if (ps[i].launched ()) {
+				panic ("MKernel::start_processes() process [" + ps[i].getName() + "] already running!");
+			}
+			ps[i].batched = true;
+			ps[i].start_sem = started;
+		}
+		add_to_task_list (ps);
+		for (int i=0; i<ps.length; i++) {
+			ps[i].launch ();
+		}
+		/* wait for all of them */
+		started.sem_wait (ps.length);
+
+		lock.claim_write ();
+		now = System.nanoTime ();
+		for (int i=0; i<ps.length; i++) {
+			ps[i].state = MProcess.TASK_RUNNABLE;
+			ps[i].runnable_since = now;
+			run_queue_add (ps[i]);
+		}
+		wake_idle ();
+		lock.release_write ();
+	}
+	//}}}
 	//{{{  public static int get_free_pid ()
 	/**
 	 * returns a free PID (and stops it being allocated again until released)
+	 *
+	 * @return PID, or -MSystem.EAGAIN if every PID is in use
 	 */
 	public static int get_free_pid ()
 	{
-		return nextpid++;
+		int pid;
+
+		task_lock.claim_write ();
+		pid = pids.alloc ();
+		task_lock.release_write ();
+		return (pid < 0) ? -MSystem.EAGAIN : pid;
+	}
+	//}}}
+	//{{{  public static int[] get_free_pids (int n)
+	/**
+	 * returns several free PIDs at once (all or none)
+	 *
+	 * @param n number of PIDs wanted
+	 *
+	 * @return array of PIDs, or null if there are not that many free
+	 */
+	public static int[] get_free_pids (int n)
+	{
+		int r[] = new int[n];
+
+		task_lock.claim_write ();
+		for (int i=0; i<n; i++) {
+			r[i] = pids.alloc ();
+			if (r[i] < 0) {
+				/* give back the ones we got */
+				while (--i >= 0) {
+					pids.free (r[i]);
+				}
+				task_lock.release_write ();
+				return null;
+			}
+		}
+		task_lock.release_write ();
+		return r;
 	}
 	//}}}
 	//{{{  public static void release_free_pid (int pid)
@@ -395,7 +714,9 @@ public class MKernel
 	 */
 	public static void release_free_pid (int pid)
 	{
-		/* nothing yet, pids are allocated incrementally forever.. */
+		task_lock.claim_write ();
+		pids.free (pid);
+		task_lock.release_write ();
 	}
 	//}}}
 	//{{{  public static void quiet_add_to_run_queue (MProcess p)
@@ -405,98 +726,136 @@ public class MKernel
 	public static void quiet_add_to_run_queue (MProcess p)
 	{
 		p.state = MProcess.TASK_RUNNABLE;
+		p.runnable_since = System.nanoTime ();
 		lock.claim_write ();
-		getScheduler().AddProcess(p);
+		run_queue_add (p);
 		lock.release_write ();
 	}
 	//}}}
 	//{{{  public static void add_to_run_queue (MProcess p)
 	/**
 	 * adds a process to the run-queue.  If its not already running, and there
-	 * is a free-processor, it is dispatched immediately.
+	 * is a free-processor, it is dispatched immediately (on the processor it
+	 * last ran on, if that one is idle).  Otherwise it is queued, and if
+	 * others were queued already, idle processors are offered them (they may
+	 * be waiting for a processor their affinity allows, that this one can use).
 	 *
 	 * @param p process to add.  Must not be on any other queue!
 	 */
 	public static void add_to_run_queue (MProcess p)
 	{
 		p.state = MProcess.TASK_RUNNABLE;
+		p.runnable_since = System.nanoTime ();
 		lock.claim_write ();
 		if (!getScheduler().IsProcessAvailable()) {
 			int freecpu = -1;
 
-			/* see if there's a spare processor (and the process isn't already running) */
-			for (int i=0; i<processors.length; i++) {
-				if (processors[i].is_idle()) {
-					/* got an idle CPU, check running */
-					freecpu = i;
-
-					for (int j=0; j<current.length; j++) {
-						if (current[j] == p) {
-							/* already running (rare, but can happen) */
-							freecpu = -1;
-							break;
-						}
-					}
-					break;
-				}
+			/* see if there's a spare processor (and the process isn't already running -- rare, but can happen) */
+			if (!p.on_cpu) {
+				freecpu = find_idle_cpu (p);
 			}
 			if (freecpu >= 0) {
 				/* have a free processor, schedule process */
 				schedule_to_cpu (p, freecpu);
 			} else {
 				/* make it the run-queue */
-				getScheduler().AddProcess(p);
+				run_queue_add (p);
 			}
 		} else {
-			getScheduler().AddProcess(p);
+			run_queue_add (p);
+			wake_idle ();
 		}
 		lock.release_write ();
 	}
 	//}}}
+	//{{{  private static void run_queue_add (MProcess p)
+	/**
+	 * hands a process to the scheduler, keeping count.  The kernel lock must be held.
+	 *
+	 * @param p process to add
+	 */
+	private static void run_queue_add (MProcess p)
+	{
+		if (getScheduler().AddProcess(p)) {
+			MSchedStat.enqueued ();
+		}
+	}
+	//}}}
 	//{{{  public static void add_to_task_list (MProcess p)
 	/**
-	 * adds a process to the global task list.  Should only be used when creating a new process.
+	 * adds a process to the global task list (and PID table).  Should only be used when creating a new process.
 	 *
 	 * @param p process to add
 	 */
 	public static void add_to_task_list (MProcess p)
 	{
-		lock.claim_write ();
+		task_lock.claim_write ();
+		task_list_insert (p);
+		task_lock.release_write ();
+	}
+	//}}}
+	//{{{  public static void add_to_task_list (MProcess ps[])
+	/**
+	 * adds several new processes to the global task list (and PID table), in one go
+	 *
+	 * @param ps processes to add
+	 */
+	public static void add_to_task_list (MProcess ps[])
+	{
+		task_lock.claim_write ();
+		for (int i=0; i<ps.length; i++) {
+			task_list_insert (ps[i]);
+		}
+		task_lock.release_write ();
+	}
+	//}}}
+	//{{{  private static void task_list_insert (MProcess p)
+	/**
+	 * puts a process on the front of the task list and in the PID table.  task_lock must be held.
+	 *
+	 * @param p process to add
+	 */
+	private static void task_list_insert (MProcess p)
+	{
+		if (!pids.insert (p)) {
+			task_lock.release_write ();
+			panic ("MKernel::add_to_task_list() bad or duplicate PID " + p.pid);
+		}
 		p.next_task = task_list;
 		p.prev_task = null;
 		if (task_list != null) {
 			task_list.prev_task = p;
 		}
 		task_list = p;
-		lock.release_write ();
 	}
 	//}}}
 	//{{{  public static void remove_from_task_list (MProcess p)
 	/**
-	 * removes a process from the global task queue.  Should only be used when destroying a process.
+	 * removes a process from the global task queue, and releases its PID.  Should only be used when destroying a process.
 	 *
 	 * @param p process to remove
 	 */
 	public static void remove_from_task_list (MProcess p)
 	{
-		MProcess t;
-
-		lock.claim_write ();
-		/* search, just to make sure it's here first.. */
-		for (t = task_list; (t != null) && (t != p); t = t.next_task);
-		if (t == null) {
+		task_lock.claim_write ();
+		/* make sure it's here first.. */
+		if (!pids.remove (p)) {
+			task_lock.release_write ();
 			panic ("MKernel::remove_from_task_list() no such task.");
 		}
 		if (p.prev_task == null) {
 			task_list = p.next_task;
-			task_list.prev_task = null;
+			if (task_list != null) {
+				task_list.prev_task = null;
+			}
 		} else if (p.next_task == null) {
 			p.prev_task.next_task = null;
 		} else {
 			p.prev_task.next_task = p.next_task;
 			p.next_task.prev_task = p.prev_task;
 		}
-		lock.release_write ();
+		pids.free (p.pid);
+		task_lock.release_write ();
 	}
 	//}}}
 	//{{{  public static MProcess find_process (int pid)
@@ -510,14 +869,21 @@ public class MKernel
 	public static MProcess find_process (int pid)
 	{
 		MProcess tmp;
+		long stamp;
 
-		lock.claim_read ();
-		for (tmp=task_list; tmp != null; tmp = tmp.next_task) {
-			if (tmp.pid == pid) {
-				break;		/* from for() */
+		/* optimistic first: look it up without touching the lock */
+		stamp = task_lock.read_begin ();
+		if (stamp != 0) {
+			tmp = pids.lookup (pid);
+			if (task_lock.read_validate (stamp)) {
+				return tmp;
 			}
 		}
-		lock.release_read ();
+
+		/* a writer got in the way, do it properly */
+		task_lock.claim_read ();
+		tmp = pids.lookup (pid);
+		task_lock.release_read ();
 		
 		return tmp;
 	}
@@ -598,11 +964,7 @@ public class MKernel
 			/* destroy thread */
 			//p.destroy ();
 			/* and deadlock if we're still here */
-			synchronized (p) {
-				try {
-					p.wait ();
-				} catch (InterruptedException e) {}
-			}
+			p.halt ();
 		}
 	}
 	//}}}
@@ -668,7 +1030,7 @@ public class MKernel
 		int nprocs;
 		MProcess procdata[];
 
-		lock.claim_read ();
+		task_lock.claim_read ();
 		/* count number of processes first */
 		nprocs = 0;
 		for (MProcess tmp = task_list; tmp != null; tmp = tmp.next_task) {
@@ -688,14 +1050,14 @@ public class MKernel
 			procdata[nprocs].ppid = (tmp.parent == null) ? 0 : tmp.parent.pid;
 			nprocs++;
 		}
-		lock.release_read ();
+		task_lock.release_read ();
 		return procdata;
 	}
 	
 	public static Boolean setProcessPriority(int pid, ProcessPriorityEnum priority) {
 		Boolean retValue = false;
 		
-		lock.claim_read();
+		lock.claim_write();
 		
 		//Check if process is currently running
 		for (int i=0; i<current.length; i++) {
@@ -723,10 +1085,64 @@ public class MKernel
 			retValue = false;
 		}
 		
-		lock.release_read();
+		lock.release_write();
 		
 		return retValue;
 	}
+	
+	/*
+	 * Sets how many lottery tickets a process holds, whether it is queued,
+	 * running or asleep.
+	 */
+	public static Boolean setProcessTickets(int pid, int tickets) {
+		MProcess process = find_process(pid);
+		if (process == null || !(process instanceof ILotteryProcess) || tickets < 1)
+			return false;
+		
+		lock.claim_write();
+		
+		((ILotteryProcess)process).SetTickets(tickets);
+		
+		//Re-weight it too, if it is in the scheduler list.
+		if (getScheduler() instanceof ILotteryScheduler)
+			((ILotteryScheduler)getScheduler()).SetProcessTickets(pid, tickets);
+		
+		lock.release_write();
+		
+		return true;
+	}
+	//}}}
+	//{{{  public static int set_affinity (MProcess p, MCpuMask mask)
+	/**
+	 * sets the processors a process may run on.  If the process is running
+	 * somewhere it may no longer run it moves at its next deschedule, or
+	 * straight away if it is the caller.
+	 *
+	 * @param p process
+	 * @param mask allowed processors, or null for all
+	 *
+	 * @return 0 on success, or -MSystem.EINVAL if the mask has no CPUs in it
+	 */
+	public static int set_affinity (MProcess p, MCpuMask mask)
+	{
+		int cpu = MProcessor.currentCPU ();
+		boolean move;
+
+		if ((mask != null) && (mask.first () < 0)) {
+			return -MSystem.EINVAL;
+		}
+		lock.claim_write ();
+		p.affinity = mask;
+		move = (p == current[cpu]) && (mask != null) && !mask.test (cpu);
+		lock.release_write ();
+
+		if (move) {
+			/* reschedule ourselves;  pick_next() sends us somewhere allowed */
+			add_to_run_queue (p);
+			schedule ();
+		}
+		return 0;
+	}
 	//}}}
 	//{{{  public static void process_fault (MProcess p, RuntimeException e)
 	/**
@@ -790,6 +1206,14 @@ public class MKernel
 			return new MPrioritizedLotteryProcess(parentProcess);
 		case PrioritizedRoundRobbin:
 			return new MPrioritizedProcess(parentProcess);
+		case PreemtiveScheduler:
+			return new MProcess(parentProcess);
+		case WorkStealing:
+			return new MWorkStealingProcess(parentProcess);
+		case BitmapPriority:
+			return new MPrioritizedProcess(parentProcess);
+		case CompletelyFair:
+			return new MFairProcess(parentProcess);
 		}
 		
 		return null;
@@ -807,6 +1231,14 @@ public class MKernel
 			return new PrioritizedLotteryScheduler();
 		case PrioritizedRoundRobbin:
 			return new RoundRobinPriorityScheduler();
+		case PreemtiveScheduler:
+			return new PreemtiveRoundRobinScheduler();
+		case WorkStealing:
+			return new WorkStealingScheduler();
+		case BitmapPriority:
+			return new BitmapPriorityScheduler();
+		case CompletelyFair:
+			return new FairScheduler();
 		}
 		
 		return null;
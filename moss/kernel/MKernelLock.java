@@ -0,0 +1,150 @@
+/*
+ *	MKernelLock.java -- reader/writer lock with optimistic reads for kernel state
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.kernel;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * lock used to protect the kernel's shared data-structures.  This is a CREW
+ * (concurrent read, exclusive write) lock, plus an optimistic read path:
+ * a reader takes a stamp with read_begin(), reads what it needs, then checks
+ * the stamp with read_validate().  If a writer got in meanwhile the reader
+ * must retry (typically with claim_read()).  Optimistic readers never write
+ * to the lock, so they do not contend with each other at all.
+ *
+ * Like Semaphore, a claim that has to wait holds up the virtual processor
+ * rather than descheduling the MOSS process;  critical sections must be short
+ * and must never call MKernel.schedule().  The lock is not re-entrant.
+ *
+ * Lock order in the kernel is: MKernel.lock, then MKernel.cpu_lock[n].
+ * MKernel.task_lock is never held together with either.
+ */
+
+public class MKernelLock
+{
+	//{{{  private data
+	private StampedLock sl;
+	/** whether time spent waiting for the lock is reported to MSchedStat */
+	private boolean timed;
+	//}}}
+
+	//{{{  public MKernelLock ()
+	/**
+	 * creates and initialises a new kernel lock
+	 */
+	public MKernelLock ()
+	{
+		this (false);
+	}
+	//}}}
+	//{{{  public MKernelLock (boolean timed)
+	/**
+	 * creates and initialises a new kernel lock
+	 *
+	 * @param timed if true, claims that have to wait are timed and counted in MSchedStat
+	 */
+	public MKernelLock (boolean timed)
+	{
+		sl = new StampedLock ();
+		this.timed = timed;
+	}
+	//}}}
+	//{{{  public long read_begin ()
+	/**
+	 * starts an optimistic read
+	 *
+	 * @return stamp to pass to read_validate(), or 0 if a writer currently holds the lock
+	 */
+	public long read_begin ()
+	{
+		return sl.tryOptimisticRead ();
+	}
+	//}}}
+	//{{{  public boolean read_validate (long stamp)
+	/**
+	 * tests whether an optimistic read is still valid
+	 *
+	 * @param stamp stamp returned by read_begin()
+	 *
+	 * @return true if no writer claimed the lock since the stamp was taken
+	 */
+	public boolean read_validate (long stamp)
+	{
+		return sl.validate (stamp);
+	}
+	//}}}
+	//{{{  public void claim_read ()
+	/**
+	 * claim a read lock
+	 */
+	public void claim_read ()
+	{
+		if (!timed) {
+			sl.readLock ();
+		} else if (sl.tryReadLock () == 0) {
+			/* contended, time the wait */
+			long start = System.nanoTime ();
+
+			sl.readLock ();
+			MSchedStat.lock_wait (System.nanoTime () - start);
+		}
+	}
+	//}}}
+	//{{{  public void release_read ()
+	/**
+	 * release a read lock.  Panics if no read lock is held, that's a locking
+	 * bug somewhere.
+	 */
+	public void release_read ()
+	{
+		if (!sl.tryUnlockRead ()) {
+			MKernel.panic ("MKernelLock::release_read(): not held");
+		}
+	}
+	//}}}
+	//{{{  public void claim_write ()
+	/**
+	 * claim the write lock
+	 */
+	public void claim_write ()
+	{
+		if (!timed) {
+			sl.writeLock ();
+		} else if (sl.tryWriteLock () == 0) {
+			/* contended, time the wait */
+			long start = System.nanoTime ();
+
+			sl.writeLock ();
+			MSchedStat.lock_wait (System.nanoTime () - start);
+		}
+	}
+	//}}}
+	//{{{  public void release_write ()
+	/**
+	 * release the write lock.  Panics if it isn't held.
+	 */
+	public void release_write ()
+	{
+		if (!sl.tryUnlockWrite ()) {
+			MKernel.panic ("MKernelLock::release_write(): not held");
+		}
+	}
+	//}}}
+}
+
@@ -9,19 +9,21 @@ public class MLotteryProcess extends MProcess implements ILotteryProcess{
 	public MLotteryProcess(MProcess parentProcess)
 	{
 		super(parentProcess);
+		if (parentProcess instanceof ILotteryProcess)
+			m_tickets = ((ILotteryProcess)parentProcess).GetTickets();
 	}
 	
 	//Public Methods
 	@Override
-	public void SetTicket(int ticket) {
-		m_ticket = ticket;
+	public void SetTickets(int tickets) {
+		m_tickets = tickets;
 	}
 
 	@Override
-	public int GetTicket() {
-		return m_ticket;
+	public int GetTickets() {
+		return m_tickets;
 	}
 
 	//Private Fields
-	private int m_ticket;
+	private int m_tickets = 1;
 }
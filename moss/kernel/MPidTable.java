@@ -0,0 +1,161 @@
+/*
+ *	MPidTable.java -- process-ID allocation and lookup
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.kernel;
+
+/**
+ * this class maps process IDs to processes and hands out free PIDs.
+ *
+ * PIDs index straight into a table, so lookup, insertion and removal are
+ * all constant time.  Fresh PIDs are handed out in order until the table
+ * is used up, after that released PIDs are recycled oldest-first, which
+ * keeps a PID from being reused for as long as possible.
+ *
+ * It doesn't do any locking itself (the kernel uses MKernel.task_lock).
+ */
+
+public class MPidTable
+{
+	//{{{  private data
+	/** processes, indexed by PID */
+	private MProcess table[];
+	/** next never-allocated PID */
+	private int nextpid;
+	/** ring of released PIDs, oldest first */
+	private int freeq[];
+	private int free_head, free_count;
+	//}}}
+
+	//{{{  public MPidTable (int maxpids)
+	/**
+	 * creates an empty PID table
+	 *
+	 * @param maxpids number of PIDs (valid PIDs are 0 .. maxpids-1)
+	 */
+	public MPidTable (int maxpids)
+	{
+		table = new MProcess[maxpids];
+		freeq = new int[maxpids];
+		nextpid = 0;
+		free_head = 0;
+		free_count = 0;
+	}
+	//}}}
+	//{{{  public void reserve (int pid)
+	/**
+	 * stops PIDs up to and including `pid' being handed out fresh.  Used at
+	 * startup, for PIDs that are fixed (e.g. the init-task is always 1).
+	 *
+	 * @param pid highest reserved PID
+	 */
+	public void reserve (int pid)
+	{
+		if (nextpid <= pid) {
+			nextpid = pid + 1;
+		}
+	}
+	//}}}
+	//{{{  public int alloc ()
+	/**
+	 * allocates a PID
+	 *
+	 * @return PID, or -1 if none are free
+	 */
+	public int alloc ()
+	{
+		int pid;
+
+		if (nextpid < table.length) {
+			return nextpid++;
+		}
+		if (free_count == 0) {
+			return -1;
+		}
+		pid = freeq[free_head];
+		free_head = (free_head + 1) % freeq.length;
+		free_count--;
+		return pid;
+	}
+	//}}}
+	//{{{  public void free (int pid)
+	/**
+	 * returns a PID to the pool.  Must be one previously allocated (and not in the table).
+	 *
+	 * @param pid PID to release
+	 */
+	public void free (int pid)
+	{
+		if ((pid < 0) || (pid >= table.length) || (free_count == freeq.length)) {
+			return;
+		}
+		freeq[(free_head + free_count) % freeq.length] = pid;
+		free_count++;
+	}
+	//}}}
+	//{{{  public boolean insert (MProcess p)
+	/**
+	 * adds a process to the table (under its PID)
+	 *
+	 * @param p process to add
+	 *
+	 * @return true on success, false if the PID is out of range or already in use
+	 */
+	public boolean insert (MProcess p)
+	{
+		if ((p.pid < 0) || (p.pid >= table.length) || (table[p.pid] != null)) {
+			return false;
+		}
+		table[p.pid] = p;
+		return true;
+	}
+	//}}}
+	//{{{  public boolean remove (MProcess p)
+	/**
+	 * removes a process from the table
+	 *
+	 * @param p process to remove
+	 *
+	 * @return true on success, false if not here
+	 */
+	public boolean remove (MProcess p)
+	{
+		if ((p.pid < 0) || (p.pid >= table.length) || (table[p.pid] != p)) {
+			return false;
+		}
+		table[p.pid] = null;
+		return true;
+	}
+	//}}}
+	//{{{  public MProcess lookup (int pid)
+	/**
+	 * finds a process by PID
+	 *
+	 * @param pid process ID
+	 *
+	 * @return process, or null if there is no such process
+	 */
+	public MProcess lookup (int pid)
+	{
+		if ((pid < 0) || (pid >= table.length)) {
+			return null;
+		}
+		return table[pid];
+	}
+	//}}}
+}
+
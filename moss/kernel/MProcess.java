@@ -19,21 +19,37 @@
 
 package moss.kernel;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
 import moss.fs.*;
 import moss.ipc.*;
+import moss.kernel.Scheduler.IFairProcess;
 import moss.kernel.Scheduler.ProcessPriorityEnum;
 import moss.user.*;
 
 /**
  * The MProcess class is effectively the process control block,
  * it extends Thread so it can exist on its own.
+ *
+ * By default each process runs on its own Java thread (the MProcess itself).
+ * Processes can instead be run on JDK virtual threads (see set_exec_mode()),
+ * in which case the MProcess is only a descriptor.  The rest of the kernel
+ * does not care which:  it starts processes with launch(), blocks and wakes
+ * them with wait_dispatch(), switch_to() and dispatch(), and finds the
+ * running process with current_process().
  */
 
 public class MProcess extends Thread
 {
 	//{{{  variables
-	/** next process on a wait queue */
-	public MProcess q_next;
+	/** next and previous processes on a wait queue */
+	public MProcess q_next, q_prev;
+	/** wait queue this process is on, if any */
+	public MWaitQueue q_wait;
+	/** whether it is waiting exclusively (see MWaitQueue) */
+	public boolean q_exclusive;
 
 	/** prev_task and next_task are a linked list of all processes */
 	public MProcess prev_task, next_task;
@@ -51,6 +67,9 @@ public class MProcess extends Thread
 	/** process id */
 	public int pid;
 
+	/** virtual processor this process was last dispatched to (-1 if never) */
+	public volatile int cpu;
+
 	/** parent process id -- this is not used for active processes */
 	public int ppid;
 
@@ -73,6 +92,8 @@ public class MProcess extends Thread
 
 	/** a semaphore used to synchronize process startup */
 	public Semaphore start_sem;
+	/** true if started by MKernel.start_processes(), which lists and queues it rather than the process itself */
+	public boolean batched;
 
 	/** string indicating what system-call the process is doing */
 	public String syscall;
@@ -89,6 +110,31 @@ public class MProcess extends Thread
 	/** Process Priority */
 	public ProcessPriorityEnum priority;
 
+	/** System.nanoTime() when the process was last dispatched (0 if never) */
+	public long exec_start;
+	/** total CPU time the process has used, in nano-seconds */
+	public long sum_exec_runtime;
+	/** System.nanoTime() when the process was last made runnable (0 once it has run) */
+	public long runnable_since;
+	/** true while the process is current on some processor (see MKernel.set_current()) */
+	public volatile boolean on_cpu;
+	/** scheduler statistics (see MSchedStat): times switched out, and how many of those while still runnable */
+	public long nr_switches, nr_involuntary;
+	/** scheduler statistics: total time spent waiting in the run-queue (nano-seconds), and number of waits */
+	public long wait_sum, wait_count;
+	/** scheduler statistics: times moved to a different processor, and how many of those to another CPU domain */
+	public long nr_migrations, nr_domain_migrations;
+	/** processors the process may run on (null for any).  Inherited by child processes;  never changed once set, only replaced */
+	public volatile MCpuMask affinity;
+
+	/** timeout node used while sleeping (see MTimer), created on first use */
+	MTimer.TimerNode timer;
+
+	/** Java thread running this process (itself, or a virtual thread), null until launched */
+	private Thread backing;
+	/** set by dispatch() until the process wakes up */
+	private AtomicBoolean dispatched;
+
 	//}}}
 	//{{{  process state constants
 	public static final int TASK_INVALID = 0;
@@ -102,6 +148,20 @@ public class MProcess extends Thread
 	//{{{  process creation flags
 	public static final int INHERIT_OPEN_FILES = 0x0001;
 	//}}}
+	//{{{  execution modes
+	/** each process is its own (platform) Java thread */
+	public static final int EXEC_PLATFORM = 0;
+	/** each process runs on a JDK virtual thread */
+	public static final int EXEC_VIRTUAL = 1;
+	//}}}
+	//{{{  execution-mode state
+	/** how processes are run (EXEC_...) */
+	private static int exec_mode = EXEC_PLATFORM;
+	/** Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable), looked up when needed */
+	private static Method vt_of, vt_name, vt_unstarted;
+	/** process run by the current Java thread, when that thread isn't the MProcess itself */
+	private static final ThreadLocal<MProcess> running = new ThreadLocal<MProcess> ();
+	//}}}
 
 
 	//{{{  private class PFS_mprocess implements MProcFSIf
@@ -117,6 +177,8 @@ public class MProcess extends Thread
 		private MInode i_cmdline;
 		/** inode for the "status" file */
 		private MInode i_status;
+		/** inode for the "sched" file */
+		private MInode i_sched;
 
 
 		//}}}
@@ -131,6 +193,7 @@ public class MProcess extends Thread
 			this.p = p;
 			this.i_cmdline = null;
 			this.i_status = null;
+			this.i_sched = null;
 		}
 		//}}}
 		//{{{  public int register_entries ()
@@ -151,6 +214,7 @@ public class MProcess extends Thread
 
 			i_cmdline = MProcFS.register_procimpl (path + "/cmdline", this);
 			i_status = MProcFS.register_procimpl (path + "/status", this);
+			i_sched = MProcFS.register_procimpl (path + "/sched", this);
 
 			return 0;
 		}
@@ -174,6 +238,10 @@ public class MProcess extends Thread
 			if (r < 0) {
 				return r;
 			}
+			r = MProcFS.unregister_procimpl (path + "/sched");
+			if (r < 0) {
+				return r;
+			}
 
 			r = MProcFS.unregister_procdir (path);
 			
@@ -229,6 +297,22 @@ public class MProcess extends Thread
 					break;
 				}
 				r = r + "syscall: " + ((p.syscall == null) ? "(none)" : p.syscall) + "\n";
+				r = r + "runtime: " + String.format ("%.3f", p.sum_exec_runtime / 1e6) + " ms\n";
+				if (p instanceof IFairProcess) {
+					r = r + "vruntime: " + String.format ("%.3f", ((IFairProcess)p).GetVRuntime () / 1e6) + " ms\n";
+				}
+			} else if (inode == i_sched) {
+				r = r + "cpu: " + p.cpu + "\n";
+				r = r + "affinity: " + ((p.affinity == null) ? "all" : p.affinity.toString ()) + "\n";
+				r = r + "nr_migrations: " + p.nr_migrations + "\n";
+				r = r + "nr_domain_migrations: " + p.nr_domain_migrations + "\n";
+				r = r + "sum_exec_runtime: " + String.format ("%.3f", p.sum_exec_runtime / 1e6) + " ms\n";
+				r = r + "nr_switches: " + p.nr_switches + "\n";
+				r = r + "nr_voluntary_switches: " + (p.nr_switches - p.nr_involuntary) + "\n";
+				r = r + "nr_involuntary_switches: " + p.nr_involuntary + "\n";
+				r = r + "wait_count: " + p.wait_count + "\n";
+				r = r + "wait_sum: " + String.format ("%.3f", p.wait_sum / 1e6) + " ms\n";
+				r = r + "wait_avg: " + String.format ("%.3f", (p.wait_count == 0) ? 0.0 : (p.wait_sum / 1e6 / p.wait_count)) + " ms\n";
 			} else {
 				MKernel.log_msg ("MProcess (PFS_mprocess): unhandled request to readproc(" + name + ")");
 			}
@@ -262,10 +346,13 @@ public class MProcess extends Thread
 	public MProcess ()
 	{
 		q_next = null;
+		q_prev = null;
+		q_wait = null;
 		prev_task = null;
 		next_task = null;
 		state = TASK_INVALID;
 		pid = 0;
+		cpu = -1;
 		ktask = false;
 		sig_handling = null;
 		pending_signals = null;
@@ -275,11 +362,26 @@ public class MProcess extends Thread
 		user_if = null;
 		kernel_if = null;
 		start_sem = null;
+		batched = false;
 		cmdline = null;
 		umask = 0002;
 		environ = null;
 		pfslink = null;
 		priority = ProcessPriorityEnum.Medium;
+		backing = null;
+		dispatched = new AtomicBoolean (false);
+		timer = null;
+		exec_start = 0;
+		sum_exec_runtime = 0;
+		runnable_since = 0;
+		on_cpu = false;
+		nr_switches = 0;
+		nr_involuntary = 0;
+		wait_sum = 0;
+		wait_count = 0;
+		nr_migrations = 0;
+		nr_domain_migrations = 0;
+		affinity = null;
 	}
 	//}}}
 	//{{{  public MProcess (MProcess parent)
@@ -291,10 +393,13 @@ public class MProcess extends Thread
 	public MProcess (MProcess parent)
 	{
 		q_next = null;
+		q_prev = null;
+		q_wait = null;
 		prev_task = null;
 		next_task = null;
 		state = TASK_INVALID;
 		pid = 0;
+		cpu = -1;
 		ktask = false;
 		sig_handling = new int[MSignal.SIG_NSIGS];
 		for (int i=0; i<MSignal.SIG_NSIGS; i++) {
@@ -306,6 +411,7 @@ public class MProcess extends Thread
 		user_if = null;
 		kernel_if = null;
 		start_sem = new Semaphore (0);
+		batched = false;
 		syscall = null;
 		priority = ProcessPriorityEnum.Medium;
 
@@ -321,38 +427,58 @@ public class MProcess extends Thread
 			environ.env = new String[0];
 		}
 		pfslink = null;
+		backing = null;
+		dispatched = new AtomicBoolean (false);
+		timer = null;
+		exec_start = 0;
+		sum_exec_runtime = 0;
+		runnable_since = 0;
+		on_cpu = false;
+		nr_switches = 0;
+		nr_involuntary = 0;
+		wait_sum = 0;
+		wait_count = 0;
+		nr_migrations = 0;
+		nr_domain_migrations = 0;
+		affinity = (parent == null) ? null : parent.affinity;
 	}
 	//}}}
-	//{{{  public static int create_user_process (String name, MProcess parent, String args[], int flags)
+	//{{{  private static class UserImage
 	/**
-	 * creates a new user process and adds it to the run-queue
+	 * a user program resolved to the class that provides it (see load_user_image())
+	 */
+	private static class UserImage
+	{
+		/** name to give processes running it */
+		String name;
+		/** class implementing MUserProcess */
+		Class<?> uclass;
+		/** arguments for the interpreter, if it was a script (these replace the given ones), otherwise null */
+		String script_args[];
+	}
+	//}}}
+	//{{{  private static int load_user_image (String name, UserImage img)
+	/**
+	 * finds and loads the class for a user program, going through MExec
+	 * for things in the file-system
 	 *
-	 * @param name name of the class that provides the process
-	 * @param parent parent process
-	 * @param args arguments to be passed to the new process
-	 * @param flags process creation flags (INHERIT_...)
+	 * @param name name of the class that provides the process, or its path
+	 * @param img filled in with the result
 	 *
-	 * @return pid of new process on success, -1 on failure
+	 * @return 0 on success, or &lt; 0 indicating error
 	 */
-	public static int create_user_process (String name, MProcess parent, String args[], int flags)
+	private static int load_user_image (String name, UserImage img)
 	{
 		Class uclass = null;
-		MProcess mp;
-		MUserProcess mup;
 
+		img.script_args = null;
 		if (name.charAt(0) == '/') {
 			/* trying to run something from the file-system (need MExec's help) */
-			MExec exec = null;
-			int r;
+			MExec exec;
 
-			exec = MExec.load_active (name);
-			if (exec == null) {
-				/* doesn't already exist, create it */
-				exec = new MExec ();
-				r = exec.setpath (name);
-				if (r < 0) {
-					return r;
-				}
+			exec = load_exec (name);
+			if (exec.errorof () < 0) {
+				return exec.errorof ();
 			}
 			if (exec.typeof() == MExec.EXEC_SCRIPT) {
 				String strs[] = exec.shebangof ();
@@ -361,47 +487,22 @@ public class MProcess extends Thread
 					return -MSystem.ENOEXEC;
 				}
 
-				/* re-create the MExec object with updated info */
+				/* look up the interpreter instead */
 				name = strs[0];
-				args = strs;
-				exec = new MExec ();
-
-				r = exec.setpath (name);
-				if (r < 0) {
-					return r;
+				img.script_args = strs;
+				exec = load_exec (name);
+				if (exec.errorof () < 0) {
+					return exec.errorof ();
 				}
 			}
 			
-			if (exec.typeof() == MExec.EXEC_CLASS) {
-				ClassLoader cloader = exec.getclassloader ();
-				String ncname = exec.classnameof ();
-
-				if (cloader == null) {
-					return -MSystem.ENOEXEC;
-				}
-
-				try {
-					uclass = Class.forName (ncname, true, cloader);
-				} catch (ClassNotFoundException e) {
-					/* probably because ncname was junk, but now look in the class loader for a good name */
-					ncname = exec.classnameof ();
-					try {
-						uclass = Class.forName (ncname, true, cloader);
-					} catch (ClassNotFoundException f) {
-						uclass = null;
-						return -MSystem.ENOEXEC;
-					}
-				}
-				
-				if (uclass == null) {
-					return exec.errorof ();
-				}
-			} else {
+			if (exec.typeof() != MExec.EXEC_CLASS) {
 				return -MSystem.ENOEXEC;
 			}
-
-			/* FIXME: need to do this better.. (incl. trash_active() support) */
-			MExec.store_active (exec, name);
+			uclass = exec.classof ();
+			if (uclass == null) {
+				return exec.errorof ();
+			}
 		} else {
 			try {
 				uclass = Class.forName (name);
@@ -412,18 +513,62 @@ public class MProcess extends Thread
 		if (uclass == null) {
 			return -MSystem.ENOENT;
 		}
+		img.name = name;
+		img.uclass = uclass;
+		return 0;
+	}
+	//}}}
+	//{{{  private static MExec load_exec (String path)
+	/**
+	 * gets the MExec for a file, from the executable image cache if it is
+	 * there and up to date, otherwise by reading it (and caching it)
+	 *
+	 * @param path path to the executable
+	 *
+	 * @return MExec, with errorof() &lt; 0 if it could not be read
+	 */
+	private static MExec load_exec (String path)
+	{
+		MExec exec;
+
+		exec = MExec.load_cached (path);
+		if (exec == null) {
+			exec = new MExec ();
+			if (exec.setpath (path) == 0) {
+				MExec.store_cached (exec);
+			}
+		}
+		return exec;
+	}
+	//}}}
+	//{{{  private static MProcess new_user_process (UserImage img, MProcess parent, String args[], int flags, int pid)
+	/**
+	 * creates and initialises (but does not start) a new user process
+	 *
+	 * @param img program to run
+	 * @param parent parent process
+	 * @param args arguments to be passed to the new process
+	 * @param flags process creation flags (INHERIT_...)
+	 * @param pid process-ID to give it
+	 *
+	 * @return new process, or null if the program could not be instantiated
+	 */
+	private static MProcess new_user_process (UserImage img, MProcess parent, String args[], int flags, int pid)
+	{
+		MProcess mp;
+		MUserProcess mup;
 
 		try {
-			mup = (MUserProcess)(uclass.newInstance());
+			mup = (MUserProcess)(img.uclass.newInstance());
 		} catch (Exception e) {
-			return -MSystem.ENOEXEC;
+			return null;
 		}
 
 		/* create and initialise a new MProcess structure */
 		mp = MKernel.NewProcess(parent);
 		mp.user_if = mup;
-		mp.pid = MKernel.get_free_pid ();
-		mp.cmdline = args;
+		mp.pid = pid;
+		mp.cmdline = (img.script_args != null) ? img.script_args : args;
 
 		/* inherit open files */
 		if ((flags & INHERIT_OPEN_FILES) != 0) {
@@ -437,12 +582,99 @@ public class MProcess extends Thread
 			}
 		}
 
-		mp.setName (name);
+		mp.setName (img.name);
+		return mp;
+	}
+	//}}}
+	//{{{  public static int create_user_process (String name, MProcess parent, String args[], int flags)
+	/**
+	 * creates a new user process and adds it to the run-queue
+	 *
+	 * @param name name of the class that provides the process
+	 * @param parent parent process
+	 * @param args arguments to be passed to the new process
+	 * @param flags process creation flags (INHERIT_...)
+	 *
+	 * @return pid of new process on success, -1 on failure
+	 */
+	public static int create_user_process (String name, MProcess parent, String args[], int flags)
+	{
+		UserImage img = new UserImage ();
+		MProcess mp;
+		int r, pid;
+
+		r = load_user_image (name, img);
+		if (r < 0) {
+			return r;
+		}
+		pid = MKernel.get_free_pid ();
+		if (pid < 0) {
+			return pid;
+		}
+		mp = new_user_process (img, parent, args, flags, pid);
+		if (mp == null) {
+			MKernel.release_free_pid (pid);
+			return -MSystem.ENOEXEC;
+		}
+
 		MKernel.start_process (mp);
 		/* by the time we get back here, it should be on the run-queue..! */
 		return mp.pid;
 	}
 	//}}}
+	//{{{  public static int create_user_processes (String name, MProcess parent, String argvs[][], int flags, int pids[])
+	/**
+	 * creates several user processes running the same program, and adds them
+	 * to the run-queue together.  The program is only looked up and loaded
+	 * once, and the PIDs are allocated in one go.  Either all the processes
+	 * are started, or none are.
+	 *
+	 * @param name name of the class that provides the processes
+	 * @param parent parent process
+	 * @param argvs arguments to be passed to each new process (one set per process)
+	 * @param flags process creation flags (INHERIT_...)
+	 * @param pids filled in with the PIDs of the new processes
+	 *
+	 * @return number of processes started on success, or &lt; 0 indicating error
+	 */
+	public static int create_user_processes (String name, MProcess parent, String argvs[][], int flags, int pids[])
+	{
+		UserImage img = new UserImage ();
+		MProcess mps[];
+		int got[];
+		int r;
+
+		if ((argvs.length == 0) || (pids.length < argvs.length)) {
+			return -MSystem.EINVAL;
+		}
+		r = load_user_image (name, img);
+		if (r < 0) {
+			return r;
+		}
+		got = MKernel.get_free_pids (argvs.length);
+		if (got == null) {
+			return -MSystem.EAGAIN;
+		}
+		mps = new MProcess[argvs.length];
+		for (int i=0; i<mps.length; i++) {
+			mps[i] = new_user_process (img, parent, argvs[i], flags, got[i]);
+			if (mps[i] == null) {
+				/* undo the ones made so far */
+				for (int j=0; j<i; j++) {
+					shutdown_process (mps[j]);
+				}
+				for (int j=0; j<got.length; j++) {
+					MKernel.release_free_pid (got[j]);
+				}
+				return -MSystem.ENOEXEC;
+			}
+		}
+
+		MKernel.start_processes (mps);
+		System.arraycopy (got, 0, pids, 0, got.length);
+		return mps.length;
+	}
+	//}}}
 	//{{{  public static int create_kernel_process (String name, String args[])
 	/**
 	 * creates a new kernel process and adds it to the run-queue
@@ -517,6 +749,9 @@ public class MProcess extends Thread
 		mp.ktask = true;
 		mp.kernel_if = mkp;
 		mp.pid = MKernel.get_free_pid ();
+		if (mp.pid < 0) {
+			return mp.pid;
+		}
 		mp.cmdline = new String[args.length + 2];
 		System.arraycopy (args, 0, mp.cmdline, 2, args.length);
 		mp.cmdline[0] = ncname;
@@ -534,6 +769,162 @@ public class MProcess extends Thread
 		return mp.pid;
 	}
 	//}}}
+	//{{{  public static boolean set_exec_mode (int mode)
+	/**
+	 * selects how processes are run.  Must be called before the first process is
+	 * launched.  Virtual threads need a Java 21 or later runtime;  they are found
+	 * by reflection so that MOSS still builds and runs on older ones.
+	 *
+	 * @param mode execution mode (EXEC_PLATFORM or EXEC_VIRTUAL)
+	 *
+	 * @return true on success, false if this JVM does not support the mode
+	 */
+	public static boolean set_exec_mode (int mode)
+	{
+		if (mode == EXEC_VIRTUAL) {
+			try {
+				Class<?> bclass = Class.forName ("java.lang.Thread$Builder");
+
+				vt_of = Thread.class.getMethod ("ofVirtual");
+				vt_name = bclass.getMethod ("name", String.class);
+				vt_unstarted = bclass.getMethod ("unstarted", Runnable.class);
+			} catch (Exception e) {
+				return false;
+			}
+		} else if (mode != EXEC_PLATFORM) {
+			return false;
+		}
+		exec_mode = mode;
+		return true;
+	}
+	//}}}
+	//{{{  public static int get_exec_mode ()
+	/**
+	 * returns the current execution mode
+	 *
+	 * @return EXEC_PLATFORM or EXEC_VIRTUAL
+	 */
+	public static int get_exec_mode ()
+	{
+		return exec_mode;
+	}
+	//}}}
+	//{{{  public static MProcess current_process ()
+	/**
+	 * returns the process being run by the calling Java thread
+	 *
+	 * @return MProcess, or null if the caller isn't a MOSS process
+	 */
+	public static MProcess current_process ()
+	{
+		Thread t = Thread.currentThread ();
+
+		if (t instanceof MProcess) {
+			return (MProcess)t;
+		}
+		return running.get ();
+	}
+	//}}}
+	//{{{  public void launch ()
+	/**
+	 * starts the Java thread behind this process (once only).  Used by MKernel.
+	 */
+	public void launch ()
+	{
+		if (exec_mode == EXEC_PLATFORM) {
+			backing = this;
+		} else {
+			final MProcess p = this;
+			Runnable body = new Runnable () {
+				public void run ()
+				{
+					running.set (p);
+					p.run ();
+				}
+			};
+
+			try {
+				Object builder = vt_of.invoke (null);
+
+				builder = vt_name.invoke (builder, getName ());
+				backing = (Thread)vt_unstarted.invoke (builder, body);
+			} catch (Exception e) {
+				MKernel.panic ("MProcess::launch() cannot create virtual thread: " + e);
+			}
+		}
+		backing.start ();
+	}
+	//}}}
+	//{{{  public boolean launched ()
+	/**
+	 * tests whether launch() has been called for this process
+	 *
+	 * @return true if launched
+	 */
+	public boolean launched ()
+	{
+		return (backing != null);
+	}
+	//}}}
+	//{{{  public void dispatch ()
+	/**
+	 * wakes up this process, which has just been given a processor and is
+	 * (or is about to be) blocked in wait_dispatch() or switch_to().
+	 *
+	 * The hand-off is a single permit:  dispatch() sets it and unparks the
+	 * thread, the waiter parks until it can take it.  There are no monitors
+	 * involved, and a dispatch() that arrives before the process has got as
+	 * far as waiting is not lost, it just leaves the permit set.
+	 */
+	public void dispatch ()
+	{
+		dispatched.set (true);
+		LockSupport.unpark (backing);
+	}
+	//}}}
+	//{{{  public void wait_dispatch (Semaphore ready)
+	/**
+	 * called by a process (this one) to block until it is dispatch()ed
+	 *
+	 * @param ready if non-null, signalled once it is safe for another process to call dispatch()
+	 */
+	public void wait_dispatch (Semaphore ready)
+	{
+		if (ready != null) {
+			ready.sem_signal ();
+		}
+		while (!dispatched.compareAndSet (true, false)) {
+			LockSupport.park (this);
+		}
+	}
+	//}}}
+	//{{{  public void switch_to (MProcess next)
+	/**
+	 * called by a process (this one) giving up its processor:  wakes the process
+	 * that now has it, then blocks until this one is dispatch()ed again.
+	 *
+	 * @param next process to wake (null if the processor is going idle)
+	 */
+	public void switch_to (MProcess next)
+	{
+		if (next != null) {
+			next.dispatch ();
+		}
+		wait_dispatch (null);
+	}
+	//}}}
+	//{{{  public void halt ()
+	/**
+	 * called by a process (this one) that is dead as far as MOSS is concerned,
+	 * but whose Java thread can't be got rid of.  Never returns.
+	 */
+	public void halt ()
+	{
+		while (true) {
+			LockSupport.park (this);
+		}
+	}
+	//}}}
 	//{{{  public static void shutdown_process (MProcess p)
 	/**
 	 * this is used to tidy-up a process that's shutting down.
@@ -591,7 +982,9 @@ public class MProcess extends Thread
 	{
 		int exitcode = -1;
 
-		MKernel.add_to_task_list (this);
+		if (!batched) {
+			MKernel.add_to_task_list (this);
+		}
 		if (!ktask) {
 
 			/* regular user process */
@@ -678,7 +1071,9 @@ public class MProcess extends Thread
 	/**
 	 * this method is used by MPosixIf to deliver signals to a process.
 	 * The body is synchronized (on the process) to prevent races with
-	 * other processes (on different virtual CPUs) delivering signals
+	 * other processes (on different virtual CPUs) delivering signals.
+	 * Since it happens at every system-call boundary, it is also where a
+	 * process whose quantum has expired gets preempted.
 	 *
 	 * @param p process to handle signals for
 	 *
@@ -687,14 +1082,18 @@ public class MProcess extends Thread
 	public static boolean sync_process_signals (MProcess p)
 	{
 		// System.err.println ("sync_process_signals(" + ((p == null) ? "null" : p.getName()) + ") currentCPU is " + MProcessor.currentCPU ());
+		boolean delivered = false;
+
 		synchronized (p) {
 			if (p.signalled) {
 				p.syscall = "[signal]";
 				MKernel.deliver_process_signals (p);
-				return true;
+				delivered = true;
 			}
 		}
-		return false;
+		/* also a good point to take the processor away, if its quantum is up */
+		MKernel.preempt_check (p);
+		return delivered;
 	}
 	//}}}
 }
@@ -30,11 +30,17 @@ public class MProcessor
 	//{{{  public and private variables
 	/** which CPU, 0 = first */
 	public int cpu;
+	/** which CPU domain this one is in (see MConfig.cpu_domain_size) */
+	public int domain;
 
 	/** magic */
 	private int pmagic = 0xdeadbeef;
 	/** <strong>Java</strong> Thred object current running on this "processor".  Used to discover current CPU */
-	private Thread current_p = null;
+	private volatile Thread current_p = null;
+	/** timer ticks left in the current process's quantum (0 if not preempting) */
+	private long slice = 0;
+	/** set when the current process's quantum has run out */
+	private volatile boolean need_resched = false;
 
 
 	//}}}
@@ -61,7 +67,7 @@ public class MProcessor
 				MProcessor cpu = MKernel.processors[i];
 
 				if (cpu != null) {
-					r = r + "CPU" + i + (cpu.is_idle() ? "(idle)" : "(busy)") + ": " + cpu.get_processor_id() + "\n";
+					r = r + "CPU" + i + (cpu.is_idle() ? "(idle)" : "(busy)") + " domain " + cpu.domain + ": " + cpu.get_processor_id() + "\n";
 				}
 			}
 
@@ -80,6 +86,7 @@ public class MProcessor
 	public MProcessor (int n)
 	{
 		cpu = n;
+		domain = n / MConfig.cpu_domain_size;
 	}
 	//}}}
 
@@ -103,30 +110,60 @@ public class MProcessor
 	 */
 	public static int currentCPU ()
 	{
-		Thread t = Thread.currentThread ();
+		MProcess p = MProcess.current_process ();
 
-		for (int i=0; i<MKernel.processors.length; i++) {
-			if (MKernel.processors[i].pmagic != 0xdeadbeef) {
-				MKernel.panic ("MProcessor::currentCPU() corrupt processor");
-			}
-			if (MKernel.processors[i].current_p == t) {
-				return i;
+		return currentCPU ((p == null) ? Thread.currentThread () : p);
+	}
+	//}}}
+	//{{{  public static int currentCPU (Thread t)
+	/**
+	 * returns the virtual CPU number a thread is running on.  Processes
+	 * remember which CPU they were dispatched to (set_process() keeps
+	 * MProcess.cpu up to date), so this is normally a single check.
+	 *
+	 * @param t thread to look for
+	 *
+	 * @return processor number
+	 */
+	public static int currentCPU (Thread t)
+	{
+		if (t instanceof MProcess) {
+			int cpu = ((MProcess)t).cpu;
+
+			if ((cpu >= 0) && (cpu < MKernel.processors.length)) {
+				MProcessor p = MKernel.processors[cpu];
+
+				if (p.pmagic != 0xdeadbeef) {
+					MKernel.panic ("MProcessor::currentCPU() corrupt processor");
+				}
+				if (p.current_p == t) {
+					return cpu;
+				}
 			}
 		}
-		MKernel.panic ("MProcessor::currentCPU() current thread not running on any processor");
-		return -1;
+		return find_cpu (t);
 	}
-	public static int currentCPU (Thread t)
+	//}}}
+	//{{{  public static int find_cpu (Thread t)
+	/**
+	 * returns the virtual CPU number a thread is running on, the slow way:
+	 * by checking every processor.
+	 *
+	 * @param t thread to look for
+	 *
+	 * @return processor number
+	 */
+	public static int find_cpu (Thread t)
 	{
 		for (int i=0; i<MKernel.processors.length; i++) {
 			if (MKernel.processors[i].pmagic != 0xdeadbeef) {
-				MKernel.panic ("MProcessor::currentCPU() corrupt processor");
+				MKernel.panic ("MProcessor::find_cpu() corrupt processor");
 			}
 			if (MKernel.processors[i].current_p == t) {
 				return i;
 			}
 		}
-		MKernel.panic ("MProcessor::currentCPU() current thread not running on any processor");
+		MKernel.panic ("MProcessor::find_cpu() current thread not running on any processor");
 		return -1;
 	}
 	//}}}
@@ -139,16 +176,75 @@ public class MProcessor
 	 */
 	public synchronized void set_process (MProcess current)
 	{
+		if (current != null) {
+			if ((current.cpu >= 0) && (current.cpu != cpu)) {
+				/* moving to a different processor */
+				boolean cross = (MKernel.processors[current.cpu].domain != domain);
+
+				current.nr_migrations++;
+				if (cross) {
+					current.nr_domain_migrations++;
+				}
+				MSchedStat.migrated (cpu, cross);
+			}
+			current.cpu = cpu;
+		}
 		current_p = current;
+		if (current == null) {
+			MKernel.idle_cpus.set (cpu);
+		} else {
+			MKernel.idle_cpus.clear (cpu);
+		}
+		/* fresh quantum */
+		slice = MKernel.quantum_ticks ();
+		need_resched = false;
+	}
+	//}}}
+	//{{{  public synchronized void tick (long ticks)
+	/**
+	 * called by the timer for every tick;  counts down the current process's
+	 * quantum and flags it for preemption when it runs out.
+	 *
+	 * @param ticks number of ticks since the last call (normally 1)
+	 */
+	public synchronized void tick (long ticks)
+	{
+		if ((current_p != null) && (slice > 0)) {
+			slice -= ticks;
+			if (slice <= 0) {
+				need_resched = true;
+			}
+		}
+	}
+	//}}}
+	//{{{  public boolean need_resched ()
+	/**
+	 * tests whether the current process's quantum has run out
+	 *
+	 * @return true if it should be preempted
+	 */
+	public boolean need_resched ()
+	{
+		return need_resched;
+	}
+	//}}}
+	//{{{  public synchronized void renew_slice ()
+	/**
+	 * gives the current process another quantum (when there was nothing to preempt it for)
+	 */
+	public synchronized void renew_slice ()
+	{
+		slice = MKernel.quantum_ticks ();
+		need_resched = false;
 	}
 	//}}}
-	//{{{  public synchronized boolean is_idle ()
+	//{{{  public boolean is_idle ()
 	/**
 	 * tests whether the processor is idle or not
 	 *
 	 * @return true if idle, false if active
 	 */
-	public synchronized boolean is_idle ()
+	public boolean is_idle ()
 	{
 		return (current_p == null);
 	}
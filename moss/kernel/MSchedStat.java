@@ -0,0 +1,276 @@
+/*
+ *	MSchedStat.java -- scheduler statistics
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.kernel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import moss.fs.*;
+
+/**
+ * this class keeps count of what the scheduler does, per virtual processor:
+ * context switches (split into voluntary ones, where the process went to
+ * sleep or exited, and involuntary ones, where it was still runnable),
+ * times the processor went idle, dispatches and how long processes waited
+ * in the run-queue, processes migrating in from other processors (and
+ * other CPU domains), and time spent waiting for MKernel.lock.  It also
+ * tracks the length of the run-queue over time.  Per-process counts are
+ * kept in MProcess.
+ *
+ * Counters are slots in one AtomicLongArray, with each CPU's slots on their
+ * own cache lines, so updating them never allocates or contends.  Results
+ * appear in /proc/schedstat.
+ */
+
+public class MSchedStat
+{
+	//{{{  counter slots (per CPU)
+	private static final int SWITCHES = 0;
+	private static final int VOLUNTARY = 1;
+	private static final int INVOLUNTARY = 2;
+	private static final int IDLE = 3;
+	private static final int DISPATCHES = 4;
+	private static final int DISPATCH_WAIT = 5;
+	private static final int LOCK_WAITS = 6;
+	private static final int LOCK_WAIT = 7;
+	private static final int MIGRATIONS = 8;
+	private static final int DOMAIN_MIGRATIONS = 9;
+	/** longs per CPU (two cache lines, so neighbours don't share) */
+	private static final int STRIDE = 16;
+	//}}}
+	//{{{  private data
+	/** counters, STRIDE per CPU, plus one set for threads that aren't on a CPU */
+	private static AtomicLongArray counts;
+	/** number of CPUs */
+	private static int ncpus;
+	/** when the statistics started (System.nanoTime()) */
+	private static long start_nanos;
+
+	/* run-queue length, guarded by MKernel.lock */
+	/** processes in the run-queue */
+	private static volatile int nr_queued;
+	/** longest the run-queue has been */
+	private static int max_queued;
+	/** integral of the run-queue length over time (processes * nano-seconds) */
+	private static long rq_area;
+	/** when nr_queued last changed */
+	private static long rq_stamp;
+	//}}}
+
+	//{{{  private static class PFS_schedstat implements MProcFSIf
+	/**
+	 * this class provides the "schedstat" file in the process file-system
+	 */
+	private static class PFS_schedstat implements MProcFSIf
+	{
+		/**
+		 * called to get the info
+		 *
+		 * @param inode inode for the proc-fs entry
+		 * @param name name of the entry
+		 *
+		 * @return string containing scheduler statistics
+		 */
+		public String readproc (MInode inode, String name)
+		{
+			String r;
+			long now = System.nanoTime ();
+			long area, elapsed;
+			int queued, maxq;
+
+			r = String.format ("%-6s %10s %10s %10s %8s %10s %10s %10s %12s %10s %10s\n", "cpu", "switches", "voluntary",
+					"involuntary", "idle", "dispatches", "wait(us)", "lock-waits", "lock-wait(us)", "migrations", "cross-dom");
+			for (int i=0; i<=ncpus; i++) {
+				int b = i * STRIDE;
+				long dispatches = counts.get (b + DISPATCHES);
+
+				r = r + String.format ("%-6s %10d %10d %10d %8d %10d %10.1f %10d %12.1f %10d %10d\n",
+						(i < ncpus) ? ("cpu" + i) : "other",
+						counts.get (b + SWITCHES), counts.get (b + VOLUNTARY), counts.get (b + INVOLUNTARY),
+						counts.get (b + IDLE), dispatches,
+						(dispatches == 0) ? 0.0 : (counts.get (b + DISPATCH_WAIT) / 1000.0 / dispatches),
+						counts.get (b + LOCK_WAITS), counts.get (b + LOCK_WAIT) / 1000.0,
+						counts.get (b + MIGRATIONS), counts.get (b + DOMAIN_MIGRATIONS));
+			}
+
+			MKernel.lock.claim_read ();
+			queued = nr_queued;
+			maxq = max_queued;
+			area = rq_area + (queued * (now - rq_stamp));
+			MKernel.lock.release_read ();
+
+			elapsed = now - start_nanos;
+			r = r + "run-queue: " + queued + " now, " + maxq + " max, " +
+				String.format ("%.2f", (elapsed > 0) ? ((double)area / elapsed) : 0.0) + " average over " +
+				String.format ("%.1f", elapsed / 1e9) + "s\n";
+
+			return r;
+		}
+	}
+	//}}}
+
+
+	//{{{  public static void init_schedstat (int n)
+	/**
+	 * sets up the statistics (called by MKernel.init_kernel)
+	 *
+	 * @param n number of processors
+	 */
+	public static void init_schedstat (int n)
+	{
+		ncpus = n;
+		counts = new AtomicLongArray ((n + 1) * STRIDE);
+		start_nanos = System.nanoTime ();
+		rq_stamp = start_nanos;
+		nr_queued = 0;
+		max_queued = 0;
+		rq_area = 0;
+	}
+	//}}}
+	//{{{  public static void finalinit ()
+	/**
+	 * called to do final initialisation (in the context of the init-task)
+	 */
+	public static void finalinit ()
+	{
+		MProcFS.register_procimpl ("schedstat", new PFS_schedstat ());
+	}
+	//}}}
+	//{{{  public static void enqueued ()
+	/**
+	 * records a process being added to the run-queue.  MKernel.lock must be held.
+	 */
+	public static void enqueued ()
+	{
+		rq_change (1);
+	}
+	//}}}
+	//{{{  public static void switched (int cpu, MProcess old_p, MProcess new_p)
+	/**
+	 * records a processor changing process (or going idle, if new_p is null).
+	 * MKernel.lock must be held.
+	 *
+	 * @param cpu processor
+	 * @param old_p process that was running
+	 * @param new_p process picked from the run-queue to run next, or null
+	 */
+	public static void switched (int cpu, MProcess old_p, MProcess new_p)
+	{
+		int b = cpu * STRIDE;
+
+		if (new_p != null) {
+			rq_change (-1);
+		} else {
+			counts.incrementAndGet (b + IDLE);
+		}
+		if (new_p == old_p) {
+			/* picked itself again, not a switch */
+			return;
+		}
+		counts.incrementAndGet (b + SWITCHES);
+		old_p.nr_switches++;
+		if (old_p.state == MProcess.TASK_RUNNABLE) {
+			counts.incrementAndGet (b + INVOLUNTARY);
+			old_p.nr_involuntary++;
+		} else {
+			counts.incrementAndGet (b + VOLUNTARY);
+		}
+	}
+	//}}}
+	//{{{  public static void dequeued ()
+	/**
+	 * records a process being taken off the run-queue other than to run
+	 * (see MKernel.pick_next()).  MKernel.lock must be held.
+	 */
+	public static void dequeued ()
+	{
+		rq_change (-1);
+	}
+	//}}}
+	//{{{  public static void migrated (int cpu, boolean cross_domain)
+	/**
+	 * records a process arriving on a processor from a different one
+	 *
+	 * @param cpu processor it is now on
+	 * @param cross_domain true if it came from another CPU domain
+	 */
+	public static void migrated (int cpu, boolean cross_domain)
+	{
+		int b = cpu * STRIDE;
+
+		counts.incrementAndGet (b + MIGRATIONS);
+		if (cross_domain) {
+			counts.incrementAndGet (b + DOMAIN_MIGRATIONS);
+		}
+	}
+	//}}}
+	//{{{  public static void dispatched (int cpu, long waited)
+	/**
+	 * records a process starting to run after waiting in the run-queue
+	 *
+	 * @param cpu processor it is running on
+	 * @param waited how long it was runnable for (nano-seconds)
+	 */
+	public static void dispatched (int cpu, long waited)
+	{
+		int b = cpu * STRIDE;
+
+		counts.incrementAndGet (b + DISPATCHES);
+		counts.addAndGet (b + DISPATCH_WAIT, waited);
+	}
+	//}}}
+	//{{{  public static void lock_wait (long nanos)
+	/**
+	 * records a wait for MKernel.lock, against the caller's processor
+	 *
+	 * @param nanos time spent waiting
+	 */
+	public static void lock_wait (long nanos)
+	{
+		MProcess p = MProcess.current_process ();
+		int cpu = (p == null) ? -1 : p.cpu;
+		int b;
+
+		if ((cpu < 0) || (cpu >= ncpus)) {
+			cpu = ncpus;
+		}
+		b = cpu * STRIDE;
+		counts.incrementAndGet (b + LOCK_WAITS);
+		counts.addAndGet (b + LOCK_WAIT, nanos);
+	}
+	//}}}
+	//{{{  private static void rq_change (int delta)
+	/**
+	 * changes the run-queue length, accumulating the time at the old length
+	 *
+	 * @param delta change in length
+	 */
+	private static void rq_change (int delta)
+	{
+		long now = System.nanoTime ();
+
+		rq_area += nr_queued * (now - rq_stamp);
+		rq_stamp = now;
+		nr_queued += delta;
+		if (nr_queued > max_queued) {
+			max_queued = nr_queued;
+		}
+	}
+	//}}}
+}
+
@@ -19,65 +19,146 @@
 
 package moss.kernel;
 
+import java.util.ArrayList;
+
 import moss.user.*;
 
 /**
  * this class is used to provide process timeouts in MOSS.
  *
- * The implementation is somewhat grim, but without a mechanism for absolute time
- * in milli-seconds, the one-thread implementation would suffer incremental-error problems
- * (Java's timeout is "more or less" ...)
+ * Timeouts live in a hierarchical timer wheel (as in Varghese and Lauck's
+ * paper, and the Linux kernel):  WHEEL_LEVELS wheels of WHEEL_SIZE slots,
+ * each level's slots spanning WHEEL_SIZE times as many ticks as the level
+ * below.  A timeout goes straight into the slot for its expiry tick, so
+ * adding and cancelling are constant time, and there is no limit on how many
+ * there are.  A single ticker thread advances the wheel;  when the level-0
+ * wheel wraps, the next slot of the level above is "cascaded" down.
+ *
+ * Ticks are counted from an absolute start time, so the ticker catching up
+ * after a late wake-up doesn't accumulate error.  The ticker also drives each
+ * processor's quantum (MProcessor.tick()) when the scheduler preempts;  if it
+ * doesn't, the ticker sleeps while no timeouts are pending.
  */
 
 public class MTimer
 {
+	//{{{  wheel geometry
+	private static final int WHEEL_BITS = 6;
+	private static final int WHEEL_SIZE = (1 << WHEEL_BITS);
+	private static final int WHEEL_MASK = (WHEEL_SIZE - 1);
+	private static final int WHEEL_LEVELS = 4;
+	/** furthest a timeout can be placed (in ticks);  longer ones are re-placed when they cascade */
+	private static final long WHEEL_SPAN = (1L << (WHEEL_BITS * WHEEL_LEVELS)) - 1;
+	//}}}
 	//{{{  private vars
-	/** threads must synchronized() on this before accessing the timer queue */
+	/** threads must synchronized() on this before accessing the timer wheel */
 	private static Object synclock;
 
-	/** thread handles */
-	private static TimerThread timers[];
-	/** process handles */
-	private static MProcess procs[];
+	/** slot lists, indexed [level][slot] */
+	private static TimerNode wheel[][];
+	/** ticks the wheel has been advanced to (everything due up to here has fired) */
+	private static long now_tick;
+	/** number of timeouts in the wheel */
+	private static int pending;
+	/** System.nanoTime() at tick 0 */
+	private static long base_nanos;
+	/** length of a tick in nano-seconds */
+	private static long tick_nanos;
+	/** ticks the processors have been told about */
+	private static long cpu_tick;
 	//}}}
 
-	//{{{  private static class TimerThread extends Thread
-	private static class TimerThread extends Thread
+	//{{{  static class TimerNode
+	/**
+	 * a timeout in the wheel.  Each process has (at most) one, kept in
+	 * MProcess.timer and reused for each sleep.
+	 */
+	static class TimerNode
 	{
-		private int tidx;
-		private long timeout;
+		/** process to wake up */
+		MProcess p;
+		/** tick at which it expires */
+		long expires;
+		/** slot-list links */
+		TimerNode prev, next;
+		/** slot list this is on (null if not in the wheel) */
+		TimerNode[] level;
+		int slot;
 
-		public TimerThread (int idx, long timeout)
+		TimerNode (MProcess p)
+		{
+			this.p = p;
+			level = null;
+		}
+	}
+	//}}}
+	//{{{  private static class TickerThread extends Thread
+	/**
+	 * the one thread that drives the wheel
+	 */
+	private static class TickerThread extends Thread
+	{
+		public TickerThread ()
 		{
-			tidx = idx;
-			this.timeout = timeout;
+			super ("MTimer");
+			setDaemon (true);
 		}
 
 		public void run ()
 		{
-			MProcess p;
+			ArrayList<MProcess> expired = new ArrayList<MProcess> ();
 
-			synchronized (this) {
-				try {
-					wait (timeout);
-				} catch (InterruptedException e) {}
-			}
-			/* timed out */
-			synchronized (synclock) {
-				p = procs[tidx];
-				/* free up slot */
-				procs[tidx] = null;
-				timers[tidx] = null;
-			}
-			if (p == null) {
-				/* this timer was cancelled */
-			} else {
-				/* maybe reschedule process */
-				synchronized (p) {
-					if (p.state == MProcess.TASK_SLEEPING) {
-						MKernel.add_to_run_queue (p);
+			while (true) {
+				long cpu_ticks;
+
+				synchronized (synclock) {
+					long target, wait_nanos;
+
+					while ((pending == 0) && (MKernel.quantum_ticks () == 0)) {
+						try {
+							synclock.wait ();
+						} catch (InterruptedException e) {}
+					}
+
+					/* run every tick that is due */
+					target = current_tick ();
+					while ((now_tick < target) && (pending > 0)) {
+						advance (expired);
+					}
+					if (pending == 0) {
+						now_tick = target;
+					}
+					cpu_ticks = target - cpu_tick;
+					cpu_tick = target;
+
+					/* sleep until the next tick is due */
+					wait_nanos = base_nanos + ((target + 1) * tick_nanos) - System.nanoTime ();
+					if ((wait_nanos > 0) && expired.isEmpty ()) {
+						try {
+							synclock.wait (wait_nanos / 1000000, (int)(wait_nanos % 1000000));
+						} catch (InterruptedException e) {}
+					}
+				}
+
+				/* count down quanta */
+				if (cpu_ticks > 0) {
+					for (int i=0; i<MKernel.processors.length; i++) {
+						MKernel.processors[i].tick (cpu_ticks);
 					}
 				}
+
+				/* wake up whatever expired (outside the timer lock) */
+				for (int i=0; i<expired.size (); i++) {
+					MProcess p = expired.get (i);
+
+					/* maybe reschedule process */
+					synchronized (p) {
+						if (p.state == MProcess.TASK_SLEEPING) {
+							MKernel.add_to_run_queue (p);
+						}
+					}
+				}
+				expired.clear ();
 			}
 		}
 	}
@@ -90,44 +171,49 @@ public class MTimer
 	public static void init_timer ()
 	{
 		synclock = new Object();
-		timers = new TimerThread[MConfig.max_timer_tasks];
-		procs = new MProcess[MConfig.max_timer_tasks];
+		wheel = new TimerNode[WHEEL_LEVELS][WHEEL_SIZE];
+		now_tick = 0;
+		pending = 0;
+		tick_nanos = MConfig.timer_tick * 1000000L;
+		base_nanos = System.nanoTime ();
+		cpu_tick = 0;
 
-		for (int i=0; i<MConfig.max_timer_tasks; i++) {
-			timers[i] = null;
-			procs[i] = null;
-		}
+		new TickerThread ().start ();
 		return;
 	}
 	//}}}
 	//{{{  public static void add_to_timer_queue (MProcess p, long millis)
 	/**
-	 * called to add a process to the timer queue
+	 * called to add a process to the timer queue.  The timeout is rounded up to
+	 * a whole number of ticks (MConfig.timer_tick).
 	 *
 	 * @param p process to add
 	 * @param millis timeout in milli-seconds
 	 */
 	public static void add_to_timer_queue (MProcess p, long millis)
 	{
-		int idx;
+		long ticks = (millis + MConfig.timer_tick - 1) / MConfig.timer_tick;
 
 		synchronized (synclock) {
-			/* already waiting ? */
-			for (idx=0; (idx<procs.length) && (procs[idx] != p); idx++);
-			if (idx < procs.length) {
+			TimerNode node = p.timer;
+
+			if (node == null) {
+				node = new TimerNode (p);
+				p.timer = node;
+			} else if (node.level != null) {
 				/* already waiting, so cancel the old one */
-				procs[idx] = null;
+				unlink (node);
+			}
+			if (pending == 0) {
+				/* wheel is empty, so it can jump straight to the present */
+				now_tick = current_tick ();
 			}
-			/* find a free slot */
-			for (idx=0; (idx<timers.length) && ((timers[idx] != null) || (procs[idx] != null)); idx++);
-			if (idx == procs.length) {
-				/* no free slots! */
-				MKernel.panic ("MTimer::add_to_timer_queue() no free timer slots");
+			node.expires = current_tick () + ((ticks < 1) ? 1 : ticks);
+			insert (node);
+			if (pending == 1) {
+				/* ticker may be waiting for work */
+				synclock.notify ();
 			}
-			/* stick in slot and start timer process */
-			procs[idx] = p;
-			timers[idx] = new TimerThread (idx, millis);
-			timers[idx].start ();
 		}
 	}
 	//}}}
@@ -137,25 +223,134 @@ public class MTimer
 	 *
 	 * @param p process to remove
 	 *
-	 * @return true if the timeout happened, false otherwise
+	 * @return true if the timeout was still pending (and is now cancelled), false if it had already happened
 	 */
 	public static boolean del_from_timer_queue (MProcess p)
 	{
-		int idx;
-		boolean removed = false;
-
 		synchronized (synclock) {
-			/* remove all instances */
-			for (idx=0; idx<procs.length; idx++) {
-				if (procs[idx] == p) {
-					procs[idx] = null;
-					removed = true;
-				}
+			TimerNode node = p.timer;
+
+			if ((node == null) || (node.level == null)) {
+				return false;
 			}
+			unlink (node);
 		}
-		return removed;
+		return true;
 	}
 	//}}}
-}
+	//{{{  private static long current_tick ()
+	/**
+	 * works out which tick it is now
+	 *
+	 * @return tick number
+	 */
+	private static long current_tick ()
+	{
+		return (System.nanoTime () - base_nanos) / tick_nanos;
+	}
+	//}}}
+	//{{{  private static void insert (TimerNode node)
+	/**
+	 * puts a timeout into the wheel.  synclock must be held.
+	 *
+	 * @param node timeout, with expires set
+	 */
+	private static void insert (TimerNode node)
+	{
+		long expires = node.expires;
+		long delta;
+		int lvl;
+
+		if (expires <= now_tick) {
+			expires = now_tick + 1;
+		} else if ((expires - now_tick) > WHEEL_SPAN) {
+			/* too far off:  park it in the furthest slot, it'll be re-placed when cascaded */
+			expires = now_tick + WHEEL_SPAN;
+		}
+		delta = expires - now_tick;
+		for (lvl = 0; (lvl < (WHEEL_LEVELS - 1)) && (delta >= (1L << (WHEEL_BITS * (lvl + 1)))); lvl++);
+
+		node.level = wheel[lvl];
+		node.slot = (int)((expires >> (WHEEL_BITS * lvl)) & WHEEL_MASK);
+		node.prev = null;
+		node.next = node.level[node.slot];
+		if (node.next != null) {
+			node.next.prev = node;
+		}
+		node.level[node.slot] = node;
+		pending++;
+	}
+	//}}}
+	//{{{  private static void unlink (TimerNode node)
+	/**
+	 * takes a timeout out of the wheel.  synclock must be held.
+	 *
+	 * @param node timeout (must be in the wheel)
+	 */
+	private static void unlink (TimerNode node)
+	{
+		if (node.prev == null) {
+			node.level[node.slot] = node.next;
+		} else {
+			node.prev.next = node.next;
+		}
+		if (node.next != null) {
+			node.next.prev = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+		node.level = null;
+		pending--;
+	}
+	//}}}
+	//{{{  private static void advance (ArrayList<MProcess> expired)
+	/**
+	 * advances the wheel by one tick.  synclock must be held.
+	 *
+	 * @param expired processes whose timeouts expire are added to this
+	 */
+	private static void advance (ArrayList<MProcess> expired)
+	{
+		TimerNode node;
+		int slot;
+
+		now_tick++;
 
+		/* each time a level wraps, pull the next slot of the level above down */
+		for (int lvl = 1; lvl < WHEEL_LEVELS; lvl++) {
+			if ((now_tick & ((1L << (WHEEL_BITS * lvl)) - 1)) != 0) {
+				break;		/* for() */
+			}
+			slot = (int)((now_tick >> (WHEEL_BITS * lvl)) & WHEEL_MASK);
+			node = wheel[lvl][slot];
+			while (node != null) {
+				TimerNode next = node.next;
 
+				unlink (node);
+				if (node.expires <= now_tick) {
+					/* due on this very tick, insert() would put it on the next */
+					expired.add (node.p);
+				} else {
+					insert (node);
+				}
+				node = next;
+			}
+		}
+
+		slot = (int)(now_tick & WHEEL_MASK);
+		node = wheel[0][slot];
+		while (node != null) {
+			TimerNode next = node.next;
+
+			unlink (node);
+			if (node.expires > now_tick) {
+				/* only a parked long timeout lands here early */
+				insert (node);
+			} else {
+				expired.add (node.p);
+			}
+			node = next;
+		}
+	}
+	//}}}
+}
@@ -25,16 +25,32 @@ package moss.kernel;
  * Wait-queues are used for process-context operations, such as keeping
  * track of blocked processes inside a device-driver.
  *
- * This class doesn't do any scheduling itself.
+ * The queue is linked through the processes themselves (MProcess.q_next,
+ * q_prev and q_wait), so adding, removing a particular process and
+ * checking for duplicates are all constant-time.  A process can only be
+ * on one wait-queue at a time.
  *
- * It doesn't do any locking itself, either.  Thus, lock outside if
- * necessary.
+ * Waiters are either non-exclusive (added with add_to_queue()), which are
+ * all woken by any wakeup, or exclusive (add_exclusive()), which are woken
+ * a given number at a time by wake_one() and wake_n(), in the order they
+ * arrived.  Non-exclusive waiters are kept ahead of exclusive ones, so a
+ * wakeup never has to look past the exclusive waiters it wakes.  Use
+ * exclusive waiters where one wakeup can only satisfy one process (a free
+ * semaphore unit, a message), so that waking doesn't cause a thundering herd.
+ *
+ * The wake methods move processes to the run-queue.  The queue doesn't do
+ * any locking itself;  lock outside if necessary.
  */
 
 public class MWaitQueue
 {
+	/** first and last processes in the queue */
 	private MProcess head;
 	private MProcess tail;
+	/** first exclusive waiter (all after it are exclusive too), or null */
+	private MProcess first_excl;
+	/** number of waiting processes */
+	private int count;
 
 
 	//{{{  public MWaitQueue ()
@@ -45,11 +61,14 @@ public class MWaitQueue
 	{
 		head = null;
 		tail = null;
+		first_excl = null;
+		count = 0;
 	}
 	//}}}
 	//{{{  public boolean add_to_queue (MProcess p)
 	/**
-	 * adds a process to the wait-queue
+	 * adds a non-exclusive waiter to the wait-queue (behind any other
+	 * non-exclusive waiters, in front of the exclusive ones)
 	 *
 	 * @param p process to add
 	 *
@@ -57,20 +76,45 @@ public class MWaitQueue
 	 */
 	public boolean add_to_queue (MProcess p)
 	{
-		if (head == null) {
-			/* empty queue */
-			head = p;
-			tail = p;
-			p.q_next = null;
+		if (!can_add (p)) {
+			return false;
+		}
+		p.q_exclusive = false;
+		if (first_excl == null) {
+			link_tail (p);
 		} else {
-			for (MProcess x = head; x != null; x = x.q_next) {
-				if (x == p) {
-					return false;		/* duplicate */
-				}
+			/* in front of the first exclusive waiter */
+			p.q_next = first_excl;
+			p.q_prev = first_excl.q_prev;
+			if (p.q_prev == null) {
+				head = p;
+			} else {
+				p.q_prev.q_next = p;
 			}
-			tail.q_next = p;
-			tail = p;
-			p.q_next = null;
+			first_excl.q_prev = p;
+			p.q_wait = this;
+			count++;
+		}
+		return true;
+	}
+	//}}}
+	//{{{  public boolean add_exclusive (MProcess p)
+	/**
+	 * adds an exclusive waiter to the end of the wait-queue
+	 *
+	 * @param p process to add
+	 *
+	 * @return true if the process was added, false if not (already there)
+	 */
+	public boolean add_exclusive (MProcess p)
+	{
+		if (!can_add (p)) {
+			return false;
+		}
+		p.q_exclusive = true;
+		link_tail (p);
+		if (first_excl == null) {
+			first_excl = p;
 		}
 		return true;
 	}
@@ -83,14 +127,11 @@ public class MWaitQueue
 	 */
 	public MProcess get_from_queue ()
 	{
-		MProcess p;
+		MProcess p = head;
 
-		if (head == null) {
-			return null;
+		if (p != null) {
+			unlink (p);
 		}
-		p = head;
-		head = p.q_next;
-		p.q_next = null;
 		return p;
 	}
 	//}}}
@@ -104,36 +145,11 @@ public class MWaitQueue
 	 */
 	public boolean del_from_queue (MProcess p)
 	{
-		MProcess prev = null;
-
-		if (head == null) {
+		if (p.q_wait != this) {
 			return false;
 		}
-		for (MProcess x = head; x != null; x = x.q_next) {
-			if (x == p) {
-				/* remove this one */
-				if (p == head) {
-					/* first/only in queue */
-					if (head == tail) {
-						head = null;
-						tail = null;
-					} else {
-						head = head.q_next;
-					}
-				} else if (p == tail) {
-					/* at end of queue */
-					tail = prev;
-					tail.q_next = null;
-				} else {
-					/* in the middle somewhere */
-					prev.q_next = p.q_next;
-				}
-				p.q_next = null;
-				return true;
-			}
-			prev = x;
-		}
-		return false;
+		unlink (p);
+		return true;
 	}
 	//}}}
 	//{{{  public boolean is_empty ()
@@ -147,6 +163,127 @@ public class MWaitQueue
 		return (head == null);
 	}
 	//}}}
-}
+	//{{{  public int length ()
+	/**
+	 * returns the number of waiting processes
+	 *
+	 * @return number of processes in the queue
+	 */
+	public int length ()
+	{
+		return count;
+	}
+	//}}}
+	//{{{  public int wake_one ()
+	/**
+	 * wakes all non-exclusive waiters and the first exclusive one
+	 *
+	 * @return number of processes woken
+	 */
+	public int wake_one ()
+	{
+		return wake_n (1);
+	}
+	//}}}
+	//{{{  public int wake_n (int n)
+	/**
+	 * wakes all non-exclusive waiters and the first n exclusive ones
+	 *
+	 * @param n number of exclusive waiters to wake
+	 *
+	 * @return number of processes woken
+	 */
+	public int wake_n (int n)
+	{
+		int woken = 0;
 
+		while ((head != null) && (!head.q_exclusive || (n > 0))) {
+			MProcess p = head;
 
+			if (p.q_exclusive) {
+				n--;
+			}
+			unlink (p);
+			MKernel.add_to_run_queue (p);
+			woken++;
+		}
+		return woken;
+	}
+	//}}}
+	//{{{  public int wake_all ()
+	/**
+	 * wakes every waiting process
+	 *
+	 * @return number of processes woken
+	 */
+	public int wake_all ()
+	{
+		return wake_n (count);
+	}
+	//}}}
+	//{{{  private boolean can_add (MProcess p)
+	/**
+	 * checks a process is free to go on this queue
+	 *
+	 * @param p process
+	 *
+	 * @return true if it can be added, false if already here
+	 */
+	private boolean can_add (MProcess p)
+	{
+		if (p.q_wait == this) {
+			return false;		/* duplicate */
+		} else if (p.q_wait != null) {
+			MKernel.panic ("MWaitQueue: process " + p.pid + " is already on another wait-queue");
+		}
+		return true;
+	}
+	//}}}
+	//{{{  private void link_tail (MProcess p)
+	/**
+	 * puts a process on the end of the queue
+	 *
+	 * @param p process
+	 */
+	private void link_tail (MProcess p)
+	{
+		p.q_next = null;
+		p.q_prev = tail;
+		if (tail == null) {
+			head = p;
+		} else {
+			tail.q_next = p;
+		}
+		tail = p;
+		p.q_wait = this;
+		count++;
+	}
+	//}}}
+	//{{{  private void unlink (MProcess p)
+	/**
+	 * takes a process (that is in this queue) out of it
+	 *
+	 * @param p process
+	 */
+	private void unlink (MProcess p)
+	{
+		if (p == first_excl) {
+			first_excl = p.q_next;
+		}
+		if (p.q_prev == null) {
+			head = p.q_next;
+		} else {
+			p.q_prev.q_next = p.q_next;
+		}
+		if (p.q_next == null) {
+			tail = p.q_prev;
+		} else {
+			p.q_next.q_prev = p.q_prev;
+		}
+		p.q_next = null;
+		p.q_prev = null;
+		p.q_wait = null;
+		count--;
+	}
+	//}}}
+}
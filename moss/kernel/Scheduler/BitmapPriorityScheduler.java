@@ -0,0 +1,165 @@
+package moss.kernel.Scheduler;
+
+import moss.kernel.MConfig;
+import moss.kernel.MProcess;
+import moss.kernel.SchedulerBase;
+
+/*
+ * Strict priority scheduler with constant-time operations.  There is one FIFO
+ * queue per priority level, plus a bitmap with a bit set for every level whose
+ * queue is non-empty, so the highest runnable level is found with a couple of
+ * leading-zero counts.  Queues are doubly linked through per-process nodes,
+ * and nodes are indexed by PID, so removing or reprioritising a process never
+ * has to search for it.
+ *
+ * A process's level is its priority value (higher runs first), clamped to
+ * 0..LEVELS-1.  Like the other schedulers this relies on MKernel.lock.
+ */
+public class BitmapPriorityScheduler extends SchedulerBase implements IPriorityScheduler {
+
+	//Constructor
+	public BitmapPriorityScheduler() {
+		this(MConfig.max_pids);
+	}
+
+	public BitmapPriorityScheduler(int maxPids) {
+		m_heads = new Node[LEVELS];
+		m_tails = new Node[LEVELS];
+		m_bitmap = new long[LEVELS / 64];
+		m_nodes = new Node[maxPids];
+	}
+
+	//Public Methods
+	@Override
+	public Boolean AddProcess(MProcess process) {
+		if (process == null || process.pid < 0 || process.pid >= m_nodes.length)
+			return false;
+		if (m_nodes[process.pid] != null)
+			return false;		//already queued
+
+		Node node = new Node(process);
+		m_nodes[process.pid] = node;
+		Enqueue(node, GetLevel(process.priority));
+		m_count++;
+		return true;
+	}
+
+	@Override
+	public Boolean RemoveProcess(MProcess process) {
+		if (process == null || process.pid < 0 || process.pid >= m_nodes.length)
+			return false;
+
+		Node node = m_nodes[process.pid];
+		if (node == null || node.process != process)
+			return false;
+
+		Unlink(node);
+		m_nodes[process.pid] = null;
+		m_count--;
+		return true;
+	}
+
+	@Override
+	public MProcess GetNextProcess() {
+		int level = HighestLevel();
+		if (level < 0)
+			return null;
+
+		Node node = m_heads[level];
+		Unlink(node);
+		m_nodes[node.process.pid] = null;
+		m_count--;
+		return node.process;
+	}
+
+	@Override
+	public Boolean IsProcessAvailable() {
+		return m_count > 0;
+	}
+
+	@Override
+	public Boolean setProcessPriority(int pid, ProcessPriorityEnum priority) {
+		if (pid < 0 || pid >= m_nodes.length)
+			return false;
+
+		Node node = m_nodes[pid];
+		if (node == null)
+			return false;
+
+		node.process.priority = priority;
+		Unlink(node);
+		Enqueue(node, GetLevel(priority));
+		return true;
+	}
+
+	//Private Methods
+	private static int GetLevel(ProcessPriorityEnum priority) {
+		if (priority == null)
+			return 0;
+
+		int value = priority.getPriorityValue();
+		if (value < 0)
+			return 0;
+		if (value >= LEVELS)
+			return LEVELS - 1;
+		return value;
+	}
+
+	private void Enqueue(Node node, int level) {
+		node.level = level;
+		node.next = null;
+		node.prev = m_tails[level];
+		if (m_tails[level] == null)
+			m_heads[level] = node;
+		else
+			m_tails[level].next = node;
+		m_tails[level] = node;
+		m_bitmap[level >> 6] |= 1L << (level & 63);
+	}
+
+	private void Unlink(Node node) {
+		int level = node.level;
+
+		if (node.prev == null)
+			m_heads[level] = node.next;
+		else
+			node.prev.next = node.next;
+		if (node.next == null)
+			m_tails[level] = node.prev;
+		else
+			node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+
+		if (m_heads[level] == null)
+			m_bitmap[level >> 6] &= ~(1L << (level & 63));
+	}
+
+	private int HighestLevel() {
+		for (int word = m_bitmap.length - 1; word >= 0; word--) {
+			if (m_bitmap[word] != 0)
+				return (word << 6) + 63 - Long.numberOfLeadingZeros(m_bitmap[word]);
+		}
+		return -1;
+	}
+
+	//Private Classes
+	private static class Node {
+		Node(MProcess process) {
+			this.process = process;
+		}
+
+		MProcess process;
+		int level;
+		Node prev;
+		Node next;
+	}
+
+	//Private Fields
+	private static final int LEVELS = 128;
+	private Node[] m_heads;
+	private Node[] m_tails;
+	private long[] m_bitmap;
+	private Node[] m_nodes;
+	private int m_count = 0;
+}
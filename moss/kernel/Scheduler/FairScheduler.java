@@ -0,0 +1,168 @@
+package moss.kernel.Scheduler;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import moss.kernel.MConfig;
+import moss.kernel.MProcess;
+import moss.kernel.SchedulerBase;
+
+/*
+ * Completely-fair scheduler, after Linux's CFS.  Every process has a virtual
+ * runtime: the CPU time it has actually used (measured by
+ * SchedulerBase.Schedule() between dispatch and deschedule), scaled down for
+ * higher priorities.  Runnable processes are kept in a balanced tree ordered
+ * by virtual runtime and the one that has had least runs next, so a process
+ * that keeps the CPU busy falls behind one that mostly sleeps.
+ *
+ * min_vruntime creeps forward with the smallest virtual runtime picked.
+ * New processes start there, and a process waking from a long sleep is placed
+ * at most SLEEPER_CREDIT behind it, so sleeping never banks unlimited credit.
+ * Processes that aren't IFairProcess (kernel processes) are treated as new
+ * every time they are queued.
+ *
+ * The scheduler preempts (see IPreemtiveScheduler) so that a process that
+ * does not give up the CPU still takes turns.
+ */
+public class FairScheduler extends SchedulerBase implements IPreemtiveScheduler, IPriorityScheduler {
+
+	//Constructor
+	public FairScheduler() {
+		this(MConfig.max_pids);
+	}
+
+	public FairScheduler(int maxPids) {
+		m_nodes = new Node[maxPids];
+		m_tree = new TreeSet<Node>(new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				if (a.vruntime != b.vruntime)
+					return (a.vruntime < b.vruntime) ? -1 : 1;
+				return (a.sequence < b.sequence) ? -1 : ((a.sequence == b.sequence) ? 0 : 1);
+			}
+		});
+	}
+
+	//Public Methods
+	@Override
+	public Boolean AddProcess(MProcess process) {
+		if (process == null || process.pid < 0 || process.pid >= m_nodes.length)
+			return false;
+		if (m_nodes[process.pid] != null)
+			return false;		//already queued
+
+		long vruntime = m_minVRuntime;
+		if (process instanceof IFairProcess) {
+			long own = ((IFairProcess)process).GetVRuntime();
+			if (own >= 0)
+				vruntime = Math.max(own, m_minVRuntime - SLEEPER_CREDIT);
+			((IFairProcess)process).SetVRuntime(vruntime);
+		}
+
+		Node node = new Node(process, vruntime, m_sequence++);
+		m_nodes[process.pid] = node;
+		m_tree.add(node);
+		return true;
+	}
+
+	@Override
+	public Boolean RemoveProcess(MProcess process) {
+		if (process == null || process.pid < 0 || process.pid >= m_nodes.length)
+			return false;
+
+		Node node = m_nodes[process.pid];
+		if (node == null || node.process != process)
+			return false;
+
+		m_tree.remove(node);
+		m_nodes[process.pid] = null;
+		return true;
+	}
+
+	@Override
+	public MProcess GetNextProcess() {
+		Node node = m_tree.pollFirst();
+		if (node == null)
+			return null;
+
+		m_nodes[node.process.pid] = null;
+		if (node.vruntime > m_minVRuntime)
+			m_minVRuntime = node.vruntime;
+		return node.process;
+	}
+
+	@Override
+	public Boolean IsProcessAvailable() {
+		return !m_tree.isEmpty();
+	}
+
+	@Override
+	public long getQuantum() {
+		return QUANTUM;
+	}
+
+	@Override
+	public Boolean setProcessPriority(int pid, ProcessPriorityEnum priority) {
+		if (pid < 0 || pid >= m_nodes.length || m_nodes[pid] == null)
+			return false;
+
+		//Only changes how fast its virtual runtime grows from now on.
+		m_nodes[pid].process.priority = priority;
+		return true;
+	}
+
+	public long GetMinVRuntime() {
+		return m_minVRuntime;
+	}
+
+	//Protected Methods
+	@Override
+	protected void UpdateRuntime(MProcess process, long ranNanos) {
+		if (!(process instanceof IFairProcess))
+			return;
+
+		IFairProcess fairProcess = (IFairProcess)process;
+		long vruntime = Math.max(fairProcess.GetVRuntime(), 0) + ranNanos * NICE_0_WEIGHT / GetWeight(process);
+
+		fairProcess.SetVRuntime(vruntime);
+
+		//Already queued again (a yield queues before it deschedules), so re-key it.
+		Node node = (process.pid >= 0 && process.pid < m_nodes.length) ? m_nodes[process.pid] : null;
+		if (node != null && node.process == process) {
+			m_tree.remove(node);
+			node.vruntime = vruntime;
+			m_tree.add(node);
+		}
+	}
+
+	//Private Methods
+	private static long GetWeight(MProcess process) {
+		if (process.priority == null)
+			return NICE_0_WEIGHT;
+		//Medium (50) is the nice-0 weight, High twice that, and so on.
+		long weight = process.priority.getPriorityValue() * NICE_0_WEIGHT / NICE_0_PRIORITY;
+		return (weight < 1) ? 1 : weight;
+	}
+
+	//Private Classes
+	private static class Node {
+		Node(MProcess process, long vruntime, long sequence) {
+			this.process = process;
+			this.vruntime = vruntime;
+			this.sequence = sequence;
+		}
+
+		MProcess process;
+		long vruntime;
+		long sequence;
+	}
+
+	//Private Fields
+	private static final long NICE_0_WEIGHT = 1024;
+	private static final long NICE_0_PRIORITY = 50;
+	private static final long SLEEPER_CREDIT = 10000000L;	//10ms
+	private static final long QUANTUM = 20;				//milli-seconds
+	private TreeSet<Node> m_tree;
+	private Node[] m_nodes;
+	private long m_minVRuntime = 0;
+	private long m_sequence = 0;
+}
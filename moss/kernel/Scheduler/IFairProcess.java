@@ -0,0 +1,12 @@
+package moss.kernel.Scheduler;
+
+public interface IFairProcess {
+	/*
+	 * Set the process's virtual runtime (nanoseconds of CPU time, scaled by weight)
+	 */
+	void SetVRuntime(long vruntime);
+	/*
+	 * Get the process's virtual runtime (-1 if it has never been queued)
+	 */
+	long GetVRuntime();
+}
@@ -1,5 +1,9 @@
 package moss.kernel.Scheduler;
 
 public interface IPreemtiveScheduler {
+	/*
+	 * Time slice (in milli-seconds) a process may run before it is preempted,
+	 * 0 for none.  Rounded up to whole timer ticks (MConfig.timer_tick).
+	 */
 	public long getQuantum();
 }
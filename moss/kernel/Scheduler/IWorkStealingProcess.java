@@ -0,0 +1,12 @@
+package moss.kernel.Scheduler;
+
+public interface IWorkStealingProcess {
+	/*
+	 * Set the CPU whose run queue this process returns to
+	 */
+	void SetHomeCPU(int cpu);
+	/*
+	 * Get the CPU whose run queue this process returns to (-1 if none yet)
+	 */
+	int GetHomeCPU();
+}
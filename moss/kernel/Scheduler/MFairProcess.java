@@ -0,0 +1,41 @@
+package moss.kernel.Scheduler;
+
+import moss.kernel.MProcess;
+
+public class MFairProcess extends MProcess implements IFairProcess, IPriorityProcess {
+	//Constructor
+	public MFairProcess()
+	{
+		super();
+		SetPriority(ProcessPriorityEnum.Medium);
+	}
+	public MFairProcess(MProcess parentProcess)
+	{
+		super(parentProcess);
+		SetPriority(ProcessPriorityEnum.Medium);
+	}
+
+	//Public Methods
+	@Override
+	public void SetVRuntime(long vruntime) {
+		m_vruntime = vruntime;
+	}
+
+	@Override
+	public long GetVRuntime() {
+		return m_vruntime;
+	}
+
+	@Override
+	public void SetPriority(ProcessPriorityEnum processPriority) {
+		priority = processPriority;
+	}
+
+	@Override
+	public ProcessPriorityEnum GetPriority() {
+		return priority;
+	}
+
+	//Private Fields
+	private volatile long m_vruntime = -1;
+}
@@ -0,0 +1,29 @@
+package moss.kernel.Scheduler;
+
+import moss.kernel.MProcess;
+
+public class MWorkStealingProcess extends MProcess implements IWorkStealingProcess {
+	//Constructor
+	public MWorkStealingProcess()
+	{
+		super();
+	}
+	public MWorkStealingProcess(MProcess parentProcess)
+	{
+		super(parentProcess);
+	}
+
+	//Public Methods
+	@Override
+	public void SetHomeCPU(int cpu) {
+		m_homeCPU = cpu;
+	}
+
+	@Override
+	public int GetHomeCPU() {
+		return m_homeCPU;
+	}
+
+	//Private Fields
+	private volatile int m_homeCPU = -1;
+}
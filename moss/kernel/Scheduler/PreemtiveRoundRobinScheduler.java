@@ -0,0 +1,30 @@
+package moss.kernel.Scheduler;
+
+import moss.kernel.FIFOScheduler;
+
+/*
+ * Round-robin: a single FIFO run queue, but a process that keeps the CPU
+ * past its quantum is sent to the back of the queue at its next system call
+ * (see MProcessor.tick() and MKernel.preempt_check()).
+ */
+public class PreemtiveRoundRobinScheduler extends FIFOScheduler implements IPreemtiveScheduler {
+
+	//Constructor
+	public PreemtiveRoundRobinScheduler() {
+		this(DEFAULT_QUANTUM);
+	}
+
+	public PreemtiveRoundRobinScheduler(long quantum) {
+		m_quantum = quantum;
+	}
+
+	//Public Methods
+	@Override
+	public long getQuantum() {
+		return m_quantum;
+	}
+
+	//Private Fields
+	private static final long DEFAULT_QUANTUM = 100;
+	private long m_quantum;
+}
@@ -0,0 +1,181 @@
+package moss.kernel.Scheduler;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import moss.kernel.MConfig;
+import moss.kernel.MProcess;
+import moss.kernel.SchedulerBase;
+
+/*
+ * Scheduler with one run queue per virtual CPU.  A process is queued on the
+ * CPU it last ran on (its "home" CPU), each CPU serves its own queue in FIFO
+ * order, and a CPU whose queue is empty steals half of the longest other queue
+ * (taking from the tail, so the victim keeps the processes it queued first).
+ * Each queue has its own lock, so CPUs only meet each other when stealing.
+ */
+public class WorkStealingScheduler extends SchedulerBase {
+	//Constructor
+	public WorkStealingScheduler() {
+		this(MConfig.ncpus);
+	}
+
+	public WorkStealingScheduler(int cpus) {
+		m_runQueues = new RunQueue[cpus];
+		for (int i=0; i<cpus; i++) {
+			m_runQueues[i] = new RunQueue();
+		}
+	}
+
+	//Public Methods
+	@Override
+	public Boolean AddProcess(MProcess process) {
+		if (process == null)
+			return false;
+
+		RunQueue runQueue = m_runQueues[GetQueueIndex(process)];
+		synchronized (runQueue) {
+			runQueue.queue.addLast(process);
+		}
+		m_queuedCount.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public Boolean RemoveProcess(MProcess process) {
+		if (process == null)
+			return false;
+
+		for (int i=0; i<m_runQueues.length; i++) {
+			RunQueue runQueue = m_runQueues[i];
+			synchronized (runQueue) {
+				if (runQueue.queue.remove(process)) {
+					m_queuedCount.decrementAndGet();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Without a CPU to serve, pick on behalf of CPU 0 (stealing if need be).
+	 */
+	@Override
+	public MProcess GetNextProcess() {
+		return GetNextProcess(0);
+	}
+
+	@Override
+	public MProcess GetNextProcess(int cpu) {
+		RunQueue local = m_runQueues[cpu];
+		MProcess retValue;
+
+		synchronized (local) {
+			retValue = local.queue.pollFirst();
+		}
+		if (retValue == null) {
+			retValue = Steal(cpu);
+		}
+		if (retValue != null) {
+			m_queuedCount.decrementAndGet();
+			if (retValue instanceof IWorkStealingProcess)
+				((IWorkStealingProcess)retValue).SetHomeCPU(cpu);
+		}
+		return retValue;
+	}
+
+	@Override
+	public Boolean IsProcessAvailable() {
+		return m_queuedCount.get() > 0;
+	}
+
+	/*
+	 * Number of processes waiting on a particular CPU's run queue.
+	 */
+	public int GetQueueLength(int cpu) {
+		RunQueue runQueue = m_runQueues[cpu];
+		synchronized (runQueue) {
+			return runQueue.queue.size();
+		}
+	}
+
+	/*
+	 * Number of successful steals so far.
+	 */
+	public long GetStealCount() {
+		return m_stealCount.get();
+	}
+
+	//Private Methods
+	private int GetQueueIndex(MProcess process) {
+		if (process instanceof IWorkStealingProcess) {
+			int homeCPU = ((IWorkStealingProcess)process).GetHomeCPU();
+			if (homeCPU >= 0 && homeCPU < m_runQueues.length)
+				return homeCPU;
+		}
+
+		//No home yet (new or kernel process), spread them round the CPUs.
+		return (m_nextPlacement.getAndIncrement() & Integer.MAX_VALUE) % m_runQueues.length;
+	}
+
+	/*
+	 * Takes half of the longest other run queue.  The first stolen process is
+	 * returned, the rest move on to the thief's queue (not counted twice).
+	 */
+	private MProcess Steal(int cpu) {
+		int victim = -1;
+		int victimLength = 0;
+
+		//Queue lengths are only a hint here, the victim is re-checked under its lock.
+		for (int i=1; i<m_runQueues.length; i++) {
+			int index = (cpu + i) % m_runQueues.length;
+			int length = m_runQueues[index].queue.size();
+			if (length > victimLength) {
+				victim = index;
+				victimLength = length;
+			}
+		}
+		if (victim < 0)
+			return null;
+
+		MProcess retValue;
+		ArrayDeque<MProcess> stolen = new ArrayDeque<MProcess>();
+		RunQueue victimQueue = m_runQueues[victim];
+
+		synchronized (victimQueue) {
+			int count = (victimQueue.queue.size() + 1) / 2;
+			for (int i=0; i<count; i++) {
+				stolen.addFirst(victimQueue.queue.pollLast());
+			}
+		}
+		retValue = stolen.pollFirst();
+		if (retValue == null)
+			return null;
+
+		if (!stolen.isEmpty()) {
+			RunQueue local = m_runQueues[cpu];
+			synchronized (local) {
+				local.queue.addAll(stolen);
+			}
+			for (MProcess process : stolen) {
+				if (process instanceof IWorkStealingProcess)
+					((IWorkStealingProcess)process).SetHomeCPU(cpu);
+			}
+		}
+		m_stealCount.incrementAndGet();
+		return retValue;
+	}
+
+	//Private Classes
+	private static class RunQueue {
+		final ArrayDeque<MProcess> queue = new ArrayDeque<MProcess>();
+	}
+
+	//Private Fields
+	private RunQueue[] m_runQueues;
+	private AtomicInteger m_queuedCount = new AtomicInteger();
+	private AtomicInteger m_nextPlacement = new AtomicInteger();
+	private AtomicLong m_stealCount = new AtomicLong();
+}
@@ -28,6 +28,15 @@ public abstract class SchedulerBase implements IScheduler {
 		return null;
 	}
 
+	/*
+	 * Picks the next process for a particular CPU.  Schedulers with a single
+	 * run queue don't care which CPU is asking.
+	 */
+	@Override
+	public MProcess GetNextProcess(int cpu) {
+		return GetNextProcess();
+	}
+
 	@Override
 	public Boolean IsProcessAvailable() {
 		// TODO Auto-generated method stub
@@ -45,6 +54,8 @@ public abstract class SchedulerBase implements IScheduler {
 		if (MKernel.current[cpu] == null) {
 			MKernel.panic ("MKernel::schedule().  current[cpu] is null!");
 		}	
+		/* charge the time it has been running, before picking what runs next */
+		ChargeRuntime(MKernel.current[cpu]);
 		if (!IsProcessAvailable()) {
 			/* nothing else to run, make processor idle */
 			old_p = MKernel.current[cpu];
@@ -53,36 +64,51 @@ public abstract class SchedulerBase implements IScheduler {
 		} else {
 			/* pick a process off the run-queue */
 			old_p = MKernel.current[cpu];
-			new_p = GetNextProcess();
+			new_p = MKernel.pick_next(cpu);
 			MKernel.processors[cpu].set_process (new_p);
 		}
-		MKernel.current[cpu] = null;
+		MSchedStat.switched (cpu, old_p, new_p);
+		MKernel.set_current (cpu, null);
+		MKernel.wake_idle ();
 
 		MKernel.lock.release_write ();
 
 		if (new_p != old_p) {
 			/* wake new (if not idling), sleep old */
-			synchronized (old_p) {
-				if (new_p != null) {
-					synchronized (new_p) {
-						new_p.notify ();
-					}
-				}
-				try {
-					old_p.wait ();
-				} catch (InterruptedException e) {
-					MKernel.panic ("MKernel::schedule().  interrupted: " + e.getMessage());
-				}
-			}
+			old_p.switch_to (new_p);
 		}
 
 		/* when a thread wakes up here, it is old_p */
+		old_p.exec_start = System.nanoTime ();
 		cpu = MProcessor.currentCPU ();
-		MKernel.lock.claim_write ();
-		MKernel.current[cpu] = old_p;
+		MKernel.set_current (cpu, old_p);
 		/* ensure it is properly detached from any queue */
 		old_p.state = MProcess.TASK_RUNNING;
-		MKernel.lock.release_write ();
 		return true;
 	}
+
+	/*
+	 * Adds the time since a process was last dispatched to its runtime.
+	 * Called with MKernel.lock held.
+	 */
+	public void ChargeRuntime(MProcess process) {
+		long now = System.nanoTime();
+		long ran = now - process.exec_start;
+
+		if (process.exec_start != 0 && ran > 0) {
+			process.sum_exec_runtime += ran;
+			UpdateRuntime(process, ran);
+		}
+		process.exec_start = now;
+	}
+
+	//Protected Methods
+
+	/*
+	 * Called (with MKernel.lock held) each time a process is charged for
+	 * running, for schedulers that care how much CPU processes use.  The
+	 * process may already be back in the run queue.
+	 */
+	protected void UpdateRuntime(MProcess process, long ranNanos) {
+	}
 }
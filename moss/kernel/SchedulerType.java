@@ -6,4 +6,7 @@ public enum SchedulerType {
 	PreemtiveScheduler,
 	PrioritizedLottery,
 	PrioritizedRoundRobbin,
+	WorkStealing,
+	BitmapPriority,
+	CompletelyFair,
 }
\ No newline at end of file
@@ -21,13 +21,15 @@ package moss.kernel;
 
 /**
  * This class provides a low-level semaphore.  Unlike MSemaphore(), this
- * will "hold up" a virtual-processor if it waits.
+ * will "hold up" a virtual-processor if it waits.  Waiting parks the Java
+ * thread rather than sitting in a monitor, so it doesn't tie up a carrier
+ * thread when processes run on virtual threads.
  */
 
 public class Semaphore
 {
 	//{{{  private data
-	private int v;
+	private java.util.concurrent.Semaphore s;
 	//}}}
 
 	//{{{  public Semaphore ()
@@ -47,38 +49,50 @@ public class Semaphore
 	 */
 	public Semaphore (int value)
 	{
-		v = value;
+		s = new java.util.concurrent.Semaphore (value);
 	}
 	//}}}
-	//{{{  public synchronized boolean sem_wait ()
+	//{{{  public boolean sem_wait ()
 	/**
 	 * wait on this semaphore
 	 *
 	 * @return true if the wait completed successfully, false if the (Java) thread was interrupted whilst waiting
 	 */
-	public synchronized boolean sem_wait ()
+	public boolean sem_wait ()
 	{
-		v--;
-		if (v < 0) {
-			try {
-				wait ();
-				return true;
-			} catch (InterruptedException e) {
-				return false;
-			}
+		try {
+			s.acquire ();
+			return true;
+		} catch (InterruptedException e) {
+			return false;
 		}
-		return true;
 	}
 	//}}}
-	//{{{  public synchronized void sem_signal ()
+	//{{{  public boolean sem_wait (int n)
+	/**
+	 * wait on this semaphore n times over (for n signals)
+	 *
+	 * @param n number of signals to wait for
+	 *
+	 * @return true if the wait completed successfully, false if the (Java) thread was interrupted whilst waiting
+	 */
+	public boolean sem_wait (int n)
+	{
+		try {
+			s.acquire (n);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+	//}}}
+	//{{{  public void sem_signal ()
 	/**
 	 * signal this semaphore
 	 */
-	public synchronized void sem_signal ()
+	public void sem_signal ()
 	{
-		v++;
-		notify ();
+		s.release ();
 	}
 	//}}}
 }
-
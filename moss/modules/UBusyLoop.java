@@ -66,15 +66,17 @@ public class UBusyLoop implements MUserProcess
 			}
 			MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + " (" + MPosixIf.getpid() + "): I'm done, exiting!\n");
 		} else {
-			/* start processes that will actually do stuff */
+			String argvs[][] = new String[4][];
+
+			/* start processes that will actually do stuff (all at once) */
 			for (i=0; i<4; i++) {
 				mypri = (i * 4) + 1;
-
-				x = MPosixIf.forkexecc (argv[0], new String[] {argv[0], "" + mypri});
-				if (x < 0) {
-					MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + " (" + MPosixIf.getpid() + "): failed to start instance of self: " + MStdLib.strerror (x) + "\n");
-					MPosixIf.exit (1);
-				}
+				argvs[i] = new String[] {argv[0], "" + mypri};
+			}
+			x = MPosixIf.forkexecn (argv[0], argvs, new int[4]);
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + " (" + MPosixIf.getpid() + "): failed to start instances of self: " + MStdLib.strerror (x) + "\n");
+				MPosixIf.exit (1);
 			}
 
 			/* now wait for them (this is nicer than just exiting
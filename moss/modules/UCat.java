@@ -58,6 +58,7 @@ public class UCat implements MUserProcess
 		{
 			int fd;
 			int buflen = 1024;
+			int splice_len = 65536;
 			byte buf[] = new byte[buflen];
 
 			for (; i < argv.length; i++) {
@@ -69,7 +70,19 @@ public class UCat implements MUserProcess
 				} else {
 					int count;
 
+					/* if standard output is a pipe, splice straight into it */
 					do {
+						count = MPosixIf.splice (fd, MPosixIf.STDOUT, splice_len);
+					} while (count > 0);
+					if (count == -MSystem.EINVAL) {
+						/* not a pipe, copy */
+						count = 1;
+					} else if (count < 0) {
+						MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to read from " + argv[i] + ": " + MStdLib.strerror (count) + "\n");
+						MPosixIf.exit (0);
+					}
+
+					while (count > 0) {
 						count = MPosixIf.read (fd, buf, buflen);
 						if (count < 0) {
 							MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to read from " + argv[i] + ": " + MStdLib.strerror (count) + "\n");
@@ -95,7 +108,7 @@ public class UCat implements MUserProcess
 								}
 							}
 						}
-					} while (count > 0);
+					}
 								
 					MPosixIf.close (fd);
 				}
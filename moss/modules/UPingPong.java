@@ -0,0 +1,138 @@
+/*
+ *	UPingPong.java -- context-switch benchmark, two processes and two pipes
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+
+
+/**
+ * this class starts a copy of itself and bounces a byte back and forth
+ * with it through a pair of pipes (default 20000 times).  Each round trip
+ * blocks each process once, so is two context switches (run it under
+ * "taskset 0" to keep both on one processor).  Reports round trips and
+ * switches per second.
+ *
+ * usage: pingpong [rounds]
+ */
+
+public class UPingPong implements MUserProcess
+{
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		int ping[] = new int[2];
+		int pong[] = new int[2];
+		byte buffer[] = new byte[1];
+		int rounds = 20000;
+		int i, x, pid;
+		long start, elapsed;
+
+		if ((argv.length == 5) && argv[1].equals ("-child")) {
+			/* child: read from one, write back on the other */
+			int rfd, wfd;
+
+			try {
+				rounds = Integer.parseInt (argv[2]);
+				rfd = Integer.parseInt (argv[3]);
+				wfd = Integer.parseInt (argv[4]);
+			} catch (NumberFormatException e) {
+				return 1;
+			}
+			for (i=0; i<rounds; i++) {
+				if ((MPosixIf.read (rfd, buffer, 1) != 1) || (MPosixIf.write (wfd, buffer, 1) != 1)) {
+					return 1;
+				}
+			}
+			return 0;
+		}
+
+		try {
+			if (argv.length > 1) {
+				rounds = Integer.parseInt (argv[1]);
+			}
+		} catch (NumberFormatException e) {
+			rounds = -1;
+		}
+		if (rounds < 1) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [rounds]\n");
+			return 1;
+		}
+
+		if (((x = MPosixIf.pipe (ping)) < 0) || ((x = MPosixIf.pipe (pong)) < 0)) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": pipe creation failed: " + MStdLib.strerror (x) + "\n");
+			return 1;
+		}
+		pid = MPosixIf.forkexec (argv[0], new String[] {argv[0], "-child", "" + rounds, "" + ping[0], "" + pong[1]});
+		if (pid < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to start partner: " + MStdLib.strerror (pid) + "\n");
+			return 1;
+		}
+		MPosixIf.close (ping[0]);
+		MPosixIf.close (pong[1]);
+
+		start = System.nanoTime ();
+		for (i=0; i<rounds; i++) {
+			buffer[0] = (byte)i;
+			x = MPosixIf.write (ping[1], buffer, 1);
+			if (x == 1) {
+				/* the partner's exit (SIGCHLD) can interrupt the last read */
+				while ((x = MPosixIf.read (pong[0], buffer, 1)) == -MSystem.EINTR);
+			}
+			if (x != 1) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": pipe error after " + i + " rounds: " + MStdLib.strerror (x) + "\n");
+				break;		/* for () */
+			}
+		}
+		elapsed = System.nanoTime () - start;
+
+		/* (no need to wait() for the partner, it is gone or going) */
+		MPosixIf.close (ping[1]);
+		MPosixIf.close (pong[0]);
+
+		if (elapsed <= 0) {
+			elapsed = 1;
+		}
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": " + i + " round trips in " + String.format ("%.1f", elapsed / 1e6) + "ms, " +
+				String.format ("%.0f", i * 1e9 / elapsed) + " round trips/s, " +
+				String.format ("%.0f", 2 * i * 1e9 / elapsed) + " switches/s (" +
+				String.format ("%.2f", elapsed / 1000.0 / (2 * Math.max (i, 1))) + "us each)\n");
+		return 0;
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		return;
+	}
+
+}
+
@@ -0,0 +1,224 @@
+/*
+ *	UPipeBench.java -- pipe throughput test
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+import moss.fs.MFileOps;
+
+
+/**
+ * this class pushes data down a pipeline and reports the throughput:  a
+ * source process writes it (default 16 MB) into the first pipe, a number
+ * of relay processes (default 2) each pass it on to the next pipe, like
+ * "cat" in the middle of a shell pipeline, and this process reads it from
+ * the last.  Relays copy with read() and write(), or with "-splice" move
+ * it with splice().  "-size" sets the capacity of each pipe.
+ *
+ * usage: pipebench [-splice] [-size bytes] [-stages n] [megabytes]
+ */
+
+public class UPipeBench implements MUserProcess
+{
+	/** read/write size */
+	private static final int CHUNK = 65536;
+
+
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		boolean splice = false;
+		int size = 0;
+		int stages = 2;
+		int mbytes = 16;
+		int pipes[][];
+		byte buffer[] = new byte[CHUNK];
+		long start, elapsed, total;
+		int i, x;
+
+		if ((argv.length == 5) && argv[1].equals ("-child")) {
+			return child (argv[2], argv[3], argv[4], buffer);
+		}
+
+		try {
+			for (i=1; i<argv.length; i++) {
+				if (argv[i].equals ("-splice")) {
+					splice = true;
+				} else if (argv[i].equals ("-size") && (i < (argv.length - 1))) {
+					size = Integer.parseInt (argv[++i]);
+				} else if (argv[i].equals ("-stages") && (i < (argv.length - 1))) {
+					stages = Integer.parseInt (argv[++i]);
+				} else {
+					mbytes = Integer.parseInt (argv[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			mbytes = -1;
+		}
+		if ((mbytes < 1) || (stages < 0)) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [-splice] [-size bytes] [-stages n] [megabytes]\n");
+			return 1;
+		}
+
+		pipes = new int[stages + 1][2];
+		for (i=0; i<=stages; i++) {
+			if ((x = MPosixIf.pipe (pipes[i])) < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": pipe creation failed: " + MStdLib.strerror (x) + "\n");
+				return 1;
+			}
+			if ((size > 0) && ((x = MPosixIf.fcntl (pipes[i][0], MFileOps.F_SETPIPE_SZ, size)) < 0)) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": cannot set pipe size " + size + ": " + MStdLib.strerror (x) + "\n");
+				return 1;
+			}
+		}
+		size = MPosixIf.fcntl (pipes[0][0], MFileOps.F_GETPIPE_SZ, 0);
+
+		start = System.nanoTime ();
+		x = MPosixIf.forkexec (argv[0], new String[] {argv[0], "-child", "source" + mbytes, "-1", "" + pipes[0][1]});
+		for (i=0; (x >= 0) && (i<stages); i++) {
+			x = MPosixIf.forkexec (argv[0], new String[] {argv[0], "-child", splice ? "splice" : "copy", "" + pipes[i][0], "" + pipes[i + 1][1]});
+		}
+		if (x < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to start pipeline: " + MStdLib.strerror (x) + "\n");
+			return 1;
+		}
+		for (i=0; i<=stages; i++) {
+			if (i < stages) {
+				MPosixIf.close (pipes[i][0]);
+			}
+			MPosixIf.close (pipes[i][1]);
+		}
+
+		/* sink */
+		total = 0;
+		while ((x = MPosixIf.read (pipes[stages][0], buffer, CHUNK)) != 0) {
+			if (x == -MSystem.EINTR) {
+				continue;		/* SIGCHLD */
+			} else if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": read failed: " + MStdLib.strerror (x) + "\n");
+				break;		/* while () */
+			}
+			total += x;
+		}
+		elapsed = System.nanoTime () - start;
+		MPosixIf.close (pipes[stages][0]);
+
+		if (elapsed <= 0) {
+			elapsed = 1;
+		}
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": " + total + " bytes through " + stages + (splice ? " splice" : " copy") +
+				" stages (pipe size " + size + ") in " + String.format ("%.1f", elapsed / 1e6) + "ms, " +
+				String.format ("%.1f", total * 1e3 / elapsed) + " MB/s\n");
+		return (total == ((long)mbytes << 20)) ? 0 : 1;
+	}
+
+
+	/**
+	 * runs a pipeline stage.  Closes everything it inherited except the
+	 * descriptors it uses, so that end-of-file gets through.
+	 *
+	 * @param what "sourceN" (write N megabytes), "copy" or "splice"
+	 * @param rfdstr descriptor to read from (if any)
+	 * @param wfdstr descriptor to write to
+	 * @param buffer buffer to use
+	 *
+	 * @return exit code
+	 */
+	private int child (String what, String rfdstr, String wfdstr, byte buffer[])
+	{
+		int rfd, wfd, fd, x;
+
+		try {
+			rfd = Integer.parseInt (rfdstr);
+			wfd = Integer.parseInt (wfdstr);
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+		for (fd = 3; fd < 1024; fd++) {
+			if ((fd != rfd) && (fd != wfd)) {
+				MPosixIf.close (fd);
+			}
+		}
+
+		if (what.startsWith ("source")) {
+			long left = (long)Integer.parseInt (what.substring (6)) << 20;
+
+			while (left > 0) {
+				x = MPosixIf.write (wfd, buffer, (int)Math.min (left, CHUNK));
+				if (x < 0) {
+					return 1;
+				}
+				left -= x;
+			}
+		} else if (what.equals ("splice")) {
+			while ((x = MPosixIf.splice (rfd, wfd, CHUNK)) != 0) {
+				if ((x < 0) && (x != -MSystem.EINTR)) {
+					return 1;
+				}
+			}
+		} else {
+			while ((x = MPosixIf.read (rfd, buffer, CHUNK)) != 0) {
+				int done = 0;
+
+				if (x == -MSystem.EINTR) {
+					continue;
+				} else if (x < 0) {
+					return 1;
+				}
+				while (done < x) {
+					byte left[] = buffer;
+					int v;
+
+					if (done > 0) {
+						left = new byte[x - done];
+						System.arraycopy (buffer, done, left, 0, x - done);
+					}
+					v = MPosixIf.write (wfd, left, x - done);
+					if (v < 0) {
+						return 1;
+					}
+					done += v;
+				}
+			}
+		}
+		MPosixIf.close (rfd);
+		MPosixIf.close (wfd);
+		return 0;
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		return;
+	}
+
+}
+
@@ -23,6 +23,20 @@ import moss.user.*;
 import moss.ipc.MSemaphore;
 
 
+/**
+ * semaphore test:  starts three /bin/semtest2 waiters (for 1, 2 and 3) and
+ * signals the semaphore six times.
+ *
+ * With "-bench", a contention benchmark instead:  a number of semtest2
+ * workers (default 8) each take and release a semaphore used as a mutex
+ * (default 2000 times), yielding the processor while they hold it.  With
+ * "-multi", each worker takes two semaphores together with semopv(), its
+ * own and its neighbour's (dining philosophers).  Reports the total time
+ * and the spread of the workers' finishing times.
+ *
+ * usage: semtest [key] | semtest -bench [workers [rounds]] [-multi]
+ */
+
 public class USemTest implements MUserProcess
 {
 	public int main (String argv[], MEnv envp)
@@ -30,6 +44,10 @@ public class USemTest implements MUserProcess
 		int x;
 		int semkey;
 		
+		if ((argv.length > 1) && argv[1].equals ("-bench")) {
+			return bench (argv);
+		}
+
 		/* say hello and create semaphore */
 		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + " -- semaphore test..\n");
 
@@ -76,6 +94,86 @@ public class USemTest implements MUserProcess
 		return 0;
 	}
 
+	private int bench (String argv[])
+	{
+		int workers = 8;
+		int rounds = 2000;
+		boolean multi = false;
+		int semkey = 100 + MPosixIf.getpid ();
+		int nsems, i, x, exited, failed;
+		long start, first, last;
+
+		try {
+			for (i=2, x=0; i<argv.length; i++) {
+				if (argv[i].equals ("-multi")) {
+					multi = true;
+				} else if (x++ == 0) {
+					workers = Integer.parseInt (argv[i]);
+				} else {
+					rounds = Integer.parseInt (argv[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			workers = 0;
+		}
+		if ((workers < (multi ? 2 : 1)) || (rounds < 1)) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " -bench [workers [rounds]] [-multi]\n");
+			return 1;
+		}
+
+		nsems = multi ? workers : 1;
+		for (i=0; i<nsems; i++) {
+			x = MPosixIf.semop (MSemaphore.SEMOP_CREATE, semkey + i, 1);
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": semaphore creation failed: " + MStdLib.strerror (x) + "\n");
+				return 1;
+			}
+		}
+
+		start = System.nanoTime ();
+		for (i=0; i<workers; i++) {
+			x = MPosixIf.forkexecc ("/bin/semtest2", new String[] {"/bin/semtest2", "" + semkey, "-bench", "" + rounds,
+					"" + i, "" + (multi ? workers : 0)});
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to execute /bin/semtest2: " + MStdLib.strerror (x) + "\n");
+				workers = i;
+				break;		/* for () */
+			}
+		}
+
+		/* wait for them, noting when the first and last finish */
+		first = 0;
+		last = 0;
+		failed = 0;
+		for (exited = 0; exited < workers; ) {
+			int ra[] = MPosixIf.wait (false);
+
+			if (ra == null) {
+				continue;		/* for () */
+			}
+			for (i=0; i<ra.length; i+=2) {
+				last = System.nanoTime ();
+				if (exited == 0) {
+					first = last;
+				}
+				if (ra[i+1] != 0) {
+					failed++;
+				}
+				exited++;
+			}
+		}
+
+		for (i=0; i<nsems; i++) {
+			MPosixIf.semop (MSemaphore.SEMOP_REMOVE, semkey + i, 0);
+		}
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": " + workers + " workers x " + rounds + (multi ? " semopv pairs" : " rounds") +
+				" in " + String.format ("%.1f", (last - start) / 1e6) + "ms, " +
+				String.format ("%.0f", (workers * (double)rounds) * 1e9 / Math.max (1, last - start)) + " acquires/s, " +
+				"first finished at " + String.format ("%.1f", (first - start) / 1e6) + "ms" +
+				((failed > 0) ? ", " + failed + " failed" : "") + "\n");
+		return (failed > 0) ? 1 : 0;
+	}
+
 	public void signal (int signo, Object sigdata)
 	{
 		MPosixIf.writestring (MPosixIf.STDOUT, "USemTest signalled with " + signo + "!\n");
@@ -33,6 +33,9 @@ public class USemTest2 implements MUserProcess
 		byte buffer[];
 		
 
+		if ((argv.length == 6) && argv[2].equals ("-bench")) {
+			return bench (argv);
+		}
 		if (argv.length < 3) {
 			MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": um, incorrect usage!\n");
 			MPosixIf.exit (1);
@@ -58,6 +61,52 @@ public class USemTest2 implements MUserProcess
 		return 0;
 	}
 
+	/**
+	 * benchmark worker for semtest:  takes and releases a semaphore (or, in
+	 * a ring of n, its own and the next with semopv) a number of times,
+	 * yielding the processor while holding it.
+	 *
+	 * args: key -bench rounds index n (n is 0 for a single semaphore)
+	 */
+	private int bench (String argv[])
+	{
+		int semkey, rounds, index, n;
+		int keys[], take[], give[];
+		int x;
+
+		try {
+			semkey = Integer.parseInt (argv[1]);
+			rounds = Integer.parseInt (argv[3]);
+			index = Integer.parseInt (argv[4]);
+			n = Integer.parseInt (argv[5]);
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+		if (n > 0) {
+			keys = new int[] {semkey + index, semkey + ((index + 1) % n)};
+			take = new int[] {-1, -1};
+			give = new int[] {1, 1};
+		} else {
+			keys = null;
+			take = null;
+			give = null;
+		}
+		for (int i=0; i<rounds; i++) {
+			x = (keys == null) ? MPosixIf.semop (MSemaphore.SEMOP_SET, semkey, -1) : MPosixIf.semopv (keys, take);
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": semop() returned: " + x + "\n");
+				return 1;
+			}
+			MPosixIf.reschedule ();
+			x = (keys == null) ? MPosixIf.semop (MSemaphore.SEMOP_SET, semkey, 1) : MPosixIf.semopv (keys, give);
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": semop() returned: " + x + "\n");
+				return 1;
+			}
+		}
+		return 0;
+	}
+
 	public void signal (int signo, Object sigdata)
 	{
 		MPosixIf.writestring (MPosixIf.STDOUT, "USemTest2 signalled with " + signo + "!\n");
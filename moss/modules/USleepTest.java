@@ -0,0 +1,119 @@
+/*
+ *	USleepTest.java -- lots of sleeping processes, to exercise MTimer
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+
+
+/**
+ * this class starts a number of instances of itself (default 500), each of
+ * which sleeps a few times before exiting, so that lots of timeouts are
+ * pending at once.  The parent reports how long it took for them all to finish.
+ *
+ * usage: sleeptest [processes [millis]]
+ */
+
+public class USleepTest implements MUserProcess
+{
+	/** number of sleeps each child does */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		int nprocs = 500;
+		int millis = 100;
+		int i, x;
+		long start;
+
+		if ((argv.length == 3) && argv[1].equals ("-child")) {
+			/* child: sleep a few times (staggered) and exit */
+			try {
+				millis = Integer.parseInt (argv[2]);
+			} catch (NumberFormatException e) {
+				MPosixIf.exit (1);
+			}
+			for (i=0; i<ROUNDS; i++) {
+				MPosixIf.sleep (millis + ((MPosixIf.getpid () * 7) % millis));
+			}
+			return 0;
+		}
+
+		try {
+			if (argv.length > 1) {
+				nprocs = Integer.parseInt (argv[1]);
+			}
+			if (argv.length > 2) {
+				millis = Integer.parseInt (argv[2]);
+			}
+		} catch (NumberFormatException e) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [processes [millis]]\n");
+			return 1;
+		}
+		if ((nprocs < 1) || (millis < 1)) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [processes [millis]]\n");
+			return 1;
+		}
+
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": starting " + nprocs + " sleepers (" + ROUNDS + " x ~" + millis + "ms each)\n");
+		start = System.currentTimeMillis ();
+		for (i=0; i<nprocs; i++) {
+			x = MPosixIf.forkexecc (argv[0], new String[] {argv[0], "-child", "" + millis});
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": failed to start sleeper " + i + ": " + MStdLib.strerror (x) + "\n");
+				break;		/* for() */
+			}
+		}
+		nprocs = i;
+
+		/* wait for them all */
+		for (x=0; x<nprocs; ) {
+			int ra[];
+
+			ra = MPosixIf.wait (false);
+			if (ra != null) {
+				x += (ra.length >> 1);
+			}
+		}
+
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": " + nprocs + " sleepers done in " + (System.currentTimeMillis () - start) + "ms\n");
+		return 0;
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		return;
+	}
+
+}
+
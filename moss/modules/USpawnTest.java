@@ -0,0 +1,173 @@
+/*
+ *	USpawnTest.java -- process creation benchmark
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+
+
+/**
+ * this class starts lots of copies of itself (default 10000) that exit
+ * straight away, first one at a time with forkexec(), then in batches
+ * (default 100) with forkexecn(), and reports how many were started per
+ * second each way.  Each round finishes once every copy has exited
+ * (they all hold the write end of a pipe, so the read end sees
+ * end-of-file).
+ *
+ * usage: spawntest [count [batch]]
+ */
+
+public class USpawnTest implements MUserProcess
+{
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		int count = 10000;
+		int batch = 100;
+		long single, batched;
+
+		if ((argv.length == 2) && argv[1].equals ("-child")) {
+			/* nothing to do */
+			return 0;
+		}
+
+		try {
+			if (argv.length > 1) {
+				count = Integer.parseInt (argv[1]);
+			}
+			if (argv.length > 2) {
+				batch = Integer.parseInt (argv[2]);
+			}
+		} catch (NumberFormatException e) {
+			count = -1;
+		}
+		if ((count < 1) || (batch < 1) || (argv.length > 3)) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [count [batch]]\n");
+			return 1;
+		}
+
+		single = spawn (argv[0], count, 1);
+		if (single < 0) {
+			return 1;
+		}
+		report (argv[0], "forkexec", count, single);
+
+		batched = spawn (argv[0], count, batch);
+		if (batched < 0) {
+			return 1;
+		}
+		report (argv[0], "forkexecn (batches of " + batch + ")", count, batched);
+
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": batched is " + String.format ("%.2f", (double)single / batched) + "x faster\n");
+		return 0;
+	}
+
+
+	/**
+	 * starts copies of this program and waits for them all to exit
+	 *
+	 * @param cmd this program
+	 * @param count number of copies
+	 * @param batch how many to start at a time (1 uses forkexec())
+	 *
+	 * @return time taken (nano-seconds), or -1 on error
+	 */
+	private long spawn (String cmd, int count, int batch)
+	{
+		int fds[] = new int[2];
+		byte buffer[] = new byte[1];
+		int pids[] = new int[batch];
+		String argvs[][];
+		long start, elapsed;
+		int x;
+
+		x = MPosixIf.pipe (fds);
+		if (x < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, cmd + ": pipe creation failed: " + MStdLib.strerror (x) + "\n");
+			return -1;
+		}
+
+		start = System.nanoTime ();
+		for (int done=0; done<count; done+=x) {
+			int n = Math.min (batch, count - done);
+
+			if (batch == 1) {
+				x = MPosixIf.forkexec (cmd, new String[] {cmd, "-child"});
+				if (x > 0) {
+					x = 1;
+				}
+			} else {
+				argvs = new String[n][];
+				for (int i=0; i<n; i++) {
+					argvs[i] = new String[] {cmd, "-child"};
+				}
+				x = MPosixIf.forkexecn (cmd, argvs, pids);
+			}
+			if (x < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, cmd + ": failed after " + done + " processes: " + MStdLib.strerror (x) + "\n");
+				MPosixIf.close (fds[1]);
+				MPosixIf.close (fds[0]);
+				return -1;
+			}
+		}
+
+		/* wait for the last one to go (SIGCHLDs can interrupt the read) */
+		MPosixIf.close (fds[1]);
+		while ((x = MPosixIf.read (fds[0], buffer, 1)) == -MSystem.EINTR);
+		elapsed = System.nanoTime () - start;
+		MPosixIf.close (fds[0]);
+
+		return (elapsed <= 0) ? 1 : elapsed;
+	}
+
+
+	/**
+	 * prints the results of one round
+	 *
+	 * @param cmd this program
+	 * @param how how the processes were started
+	 * @param count number started
+	 * @param elapsed time taken (nano-seconds)
+	 */
+	private void report (String cmd, String how, int count, long elapsed)
+	{
+		MPosixIf.writestring (MPosixIf.STDOUT, cmd + ": " + how + ": " + count + " processes in " +
+				String.format ("%.1f", elapsed / 1e6) + "ms, " + String.format ("%.0f", count * 1e9 / elapsed) + " processes/s\n");
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		return;
+	}
+
+}
+
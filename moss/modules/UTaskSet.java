@@ -0,0 +1,217 @@
+/*
+ *	UTaskSet.java -- show or set process CPU affinity
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+
+
+/**
+ * shows or changes which processors a process may run on, or runs a
+ * command restricted to some processors.  CPU lists are like "0,2-3",
+ * or "all".
+ *
+ * usage: taskset -p [cpu-list] pid
+ *        taskset cpu-list command [args...]
+ */
+
+public class UTaskSet implements MUserProcess
+{
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		int cpus[];
+		int pid, x;
+
+		if ((argv.length >= 3) && argv[1].equals ("-p")) {
+			/* query or set an existing process */
+			try {
+				pid = Integer.parseInt (argv[argv.length - 1]);
+			} catch (NumberFormatException e) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": bad PID [" + argv[argv.length - 1] + "]\n");
+				return 1;
+			}
+			if (argv.length == 4) {
+				if (!parse_cpus (argv[2])) {
+					MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": bad CPU list [" + argv[2] + "]\n");
+					return 1;
+				}
+				x = MPosixIf.sched_setaffinity (pid, parsed);
+				if (x < 0) {
+					MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to set affinity: " + MStdLib.strerror (x) + "\n");
+					return 1;
+				}
+			} else if (argv.length != 3) {
+				usage (argv[0]);
+				return 1;
+			}
+			cpus = MPosixIf.sched_getaffinity (pid);
+			if (cpus == null) {
+				MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": no such process " + pid + "\n");
+				return 1;
+			}
+			MPosixIf.writestring (MPosixIf.STDOUT, "pid " + pid + "'s affinity: " + format_cpus (cpus) + "\n");
+			return 0;
+		}
+
+		if ((argv.length < 3) || (argv[1].charAt (0) == '-')) {
+			usage (argv[0]);
+			return 1;
+		}
+
+		/* run a command:  restrict ourselves, the child inherits it */
+		if (!parse_cpus (argv[1])) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": bad CPU list [" + argv[1] + "]\n");
+			return 1;
+		}
+		x = MPosixIf.sched_setaffinity (0, parsed);
+		if (x < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to set affinity: " + MStdLib.strerror (x) + "\n");
+			return 1;
+		}
+
+		String args[] = new String[argv.length - 2];
+
+		for (int i=0; i<args.length; i++) {
+			args[i] = argv[i + 2];
+		}
+		pid = MPosixIf.forkexec (args[0], args);
+		if (pid < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, argv[0] + ": failed to run " + args[0] + ": " + MStdLib.strerror (pid) + "\n");
+			return 1;
+		}
+		/* wait for it */
+		while (true) {
+			int ra[] = MPosixIf.wait (false);
+
+			if (ra == null) {
+				continue;
+			}
+			for (int i=0; i<ra.length; i+=2) {
+				if (ra[i] == pid) {
+					return ra[i + 1];
+				}
+			}
+		}
+	}
+
+
+	/** result of the last parse_cpus(), null meaning all */
+	private int parsed[];
+
+	/**
+	 * parses a CPU list, like "0,2-3" or "all", into `parsed'
+	 *
+	 * @param str list to parse
+	 *
+	 * @return true on success, false if malformed
+	 */
+	private boolean parse_cpus (String str)
+	{
+		String bits[];
+		int tmp[] = new int[0];
+
+		if (str.equals ("all")) {
+			parsed = null;
+			return true;
+		}
+		bits = str.split (",");
+		for (int i=0; i<bits.length; i++) {
+			int lo, hi, dash = bits[i].indexOf ('-');
+
+			try {
+				if (dash < 0) {
+					lo = hi = Integer.parseInt (bits[i]);
+				} else {
+					lo = Integer.parseInt (bits[i].substring (0, dash));
+					hi = Integer.parseInt (bits[i].substring (dash + 1));
+				}
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			if ((lo < 0) || (hi < lo)) {
+				return false;
+			}
+
+			int grown[] = new int[tmp.length + (hi - lo + 1)];
+
+			System.arraycopy (tmp, 0, grown, 0, tmp.length);
+			for (int c=lo; c<=hi; c++) {
+				grown[tmp.length + (c - lo)] = c;
+			}
+			tmp = grown;
+		}
+		parsed = tmp;
+		return true;
+	}
+
+	/**
+	 * formats a list of CPUs, collapsing runs ("0-3,6")
+	 *
+	 * @param cpus processor numbers, in order
+	 *
+	 * @return printable list
+	 */
+	private String format_cpus (int cpus[])
+	{
+		String r = "";
+
+		for (int i=0; i<cpus.length; ) {
+			int j = i;
+
+			while (((j + 1) < cpus.length) && (cpus[j + 1] == (cpus[j] + 1))) {
+				j++;
+			}
+			r = r + ((r.length () > 0) ? "," : "") + cpus[i] + ((j > i) ? ("-" + cpus[j]) : "");
+			i = j + 1;
+		}
+		return r;
+	}
+
+	/**
+	 * prints a usage message
+	 *
+	 * @param name program name
+	 */
+	private void usage (String name)
+	{
+		MPosixIf.writestring (MPosixIf.STDERR, "usage: " + name + " -p [cpu-list] pid\n");
+		MPosixIf.writestring (MPosixIf.STDERR, "       " + name + " cpu-list command [args...]\n");
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		return;
+	}
+
+}
+
@@ -0,0 +1,307 @@
+/*
+ *	UWakeTest.java -- checks wakeups aren't lost to signals
+ *
+ *	This program is free software; you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *	the Free Software Foundation; either version 2 of the License, or
+ *	(at your option) any later version.
+ *
+ *	This program is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public License
+ *	along with this program; if not, write to the Free Software
+ *	Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package moss.modules;
+
+import moss.user.*;
+import moss.kernel.MConfig;
+
+
+/**
+ * this class checks that a process woken up to take something (one byte
+ * from a pipe, or room in a full mailbox), but signalled before it could,
+ * passes the wakeup on.  Each round starts two copies of itself that
+ * block, makes one thing available, then signals the first straight away.
+ * The other should then get it;  if neither does within a second, the
+ * wakeup was lost.
+ *
+ * usage: waketest [rounds]
+ */
+
+public class UWakeTest implements MUserProcess
+{
+	/** how long to wait for a blocked child to get going (milliseconds) */
+	private static final int SETTLE = 20;
+	/** how long a woken child has to finish (milliseconds) */
+	private static final int TIMEOUT = 1000;
+
+	/** exit codes for the children */
+	private static final int GOT_IT = 0;
+	private static final int INTERRUPTED = 2;
+	private static final int OTHER = 3;
+
+	/**
+	 * program entry-point.
+	 *
+	 * @param argv command-line arguments
+	 * @param envp process environment
+	 *
+	 * @return 0 on success, or non-zero on failure
+	 */
+	public int main (String argv[], MEnv envp)
+	{
+		int rounds = 20;
+		int lost, mlost;
+
+		if ((argv.length == 4) && argv[1].equals ("-read")) {
+			return child_read (Integer.parseInt (argv[2]), Integer.parseInt (argv[3]));
+		} else if ((argv.length == 3) && argv[1].equals ("-send")) {
+			return child_send (Integer.parseInt (argv[2]));
+		}
+
+		try {
+			if (argv.length > 1) {
+				rounds = Integer.parseInt (argv[1]);
+			}
+		} catch (NumberFormatException e) {
+			rounds = 0;
+		}
+		if (rounds < 1) {
+			MPosixIf.writestring (MPosixIf.STDERR, "usage: " + argv[0] + " [rounds]\n");
+			return 1;
+		}
+
+		/* children's exits are counted by the signal handler */
+		MPosixIf.signal (MSignal.SIGCHLD, MSignal.SIG_CATCH);
+
+		lost = 0;
+		for (int i=0; i<rounds; i++) {
+			int x = pipe_round (argv[0]);
+
+			if (x < 0) {
+				return 1;
+			}
+			lost += x;
+		}
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": pipe readers: " + lost + " of " + rounds + " wakeups lost\n");
+
+		mlost = 0;
+		for (int i=0; i<rounds; i++) {
+			int x = mailbox_round (argv[0]);
+
+			if (x < 0) {
+				return 1;
+			}
+			mlost += x;
+		}
+		MPosixIf.writestring (MPosixIf.STDOUT, argv[0] + ": mailbox senders: " + mlost + " of " + rounds + " wakeups lost\n");
+		lost += mlost;
+		return (lost > 0) ? 1 : 0;
+	}
+
+
+	/**
+	 * one round with two readers blocked on a pipe
+	 *
+	 * @param name program name (for messages)
+	 *
+	 * @return 1 if the wakeup was lost, 0 if not, or -1 on error
+	 */
+	private int pipe_round (String name)
+	{
+		int fds[] = new int[2];
+		int pids[] = new int[2];
+		int x, r;
+
+		x = MPosixIf.pipe (fds);
+		if (x < 0) {
+			MPosixIf.writestring (MPosixIf.STDERR, name + ": pipe creation failed: " + MStdLib.strerror (x) + "\n");
+			return -1;
+		}
+		for (int i=0; i<2; i++) {
+			pids[i] = MPosixIf.forkexec ("/bin/waketest", new String[] {"/bin/waketest", "-read", "" + fds[0], "" + fds[1]});
+			if (pids[i] < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, name + ": failed to execute /bin/waketest: " + MStdLib.strerror (pids[i]) + "\n");
+				return -1;
+			}
+			MPosixIf.sleep (SETTLE);
+		}
+
+		/* one byte, for the first reader, that is signalled before it gets it */
+		MPosixIf.write (fds[1], new byte[] {42}, 1);
+		MPosixIf.kill (pids[0], MSignal.SIGUSR1);
+		r = wait_for_one ();
+
+		/* the other sees end-of-file (or was interrupted already) */
+		MPosixIf.close (fds[1]);
+		MPosixIf.close (fds[0]);
+		reap (2);
+		return r;
+	}
+
+
+	/**
+	 * one round with two senders blocked on our (full) mailbox
+	 *
+	 * @param name program name (for messages)
+	 *
+	 * @return 1 if the wakeup was lost, 0 if not, or -1 on error
+	 */
+	private int mailbox_round (String name)
+	{
+		int mypid = MPosixIf.getpid ();
+		int pids[] = new int[2];
+		int limit = MConfig.mailbox_size;
+		int types[];
+		Object msgs[];
+		int x, r, left;
+
+		if (limit <= 0) {
+			/* no limit, senders never block */
+			return 0;
+		}
+		types = new int[limit];
+		msgs = new Object[limit];
+		for (int i=0; i<limit; i++) {
+			msgs[i] = name;
+		}
+		x = MPosixIf.sendmsgv (mypid, types, msgs);
+		if (x != limit) {
+			MPosixIf.writestring (MPosixIf.STDERR, name + ": failed to fill mailbox: " + x + "\n");
+			return -1;
+		}
+		/* one more would have to wait for ourselves */
+		x = MPosixIf.sendmsg (mypid, 0, name);
+		if (x != -MSystem.EAGAIN) {
+			MPosixIf.writestring (MPosixIf.STDERR, name + ": sending to own full mailbox gave " + x + ", not -EAGAIN\n");
+			return -1;
+		}
+		for (int i=0; i<2; i++) {
+			pids[i] = MPosixIf.forkexec ("/bin/waketest", new String[] {"/bin/waketest", "-send", "" + mypid});
+			if (pids[i] < 0) {
+				MPosixIf.writestring (MPosixIf.STDERR, name + ": failed to execute /bin/waketest: " + MStdLib.strerror (pids[i]) + "\n");
+				return -1;
+			}
+			MPosixIf.sleep (SETTLE);
+		}
+
+		/* room for one, for the first sender, that is signalled before it uses it */
+		MPosixIf.recvmsgv (-1, -1, new Object[1]);
+		MPosixIf.kill (pids[0], MSignal.SIGUSR1);
+		r = wait_for_one ();
+
+		/* empty the mailbox, so the other can finish too */
+		left = (limit - 1) - MPosixIf.recvmsgv (-1, -1, msgs);
+		left += reap (2);
+		if (left > 0) {
+			MPosixIf.recvmsgv (-1, -1, new Object[left]);
+		}
+
+		return r;
+	}
+
+
+	/** children that have exited this round, and how many of those got what they wanted (see signal()) */
+	private int exited, got;
+
+	/**
+	 * waits for a child to get what it was waiting for
+	 *
+	 * @return 0 if one did, 1 if none did in time
+	 */
+	private int wait_for_one ()
+	{
+		for (int t=0; t<TIMEOUT; t+=5) {
+			if (got > 0) {
+				return 0;
+			}
+			MPosixIf.sleep (5);
+		}
+		return 1;
+	}
+
+
+	/**
+	 * waits for the rest of the children to exit, ready for the next round
+	 *
+	 * @param n number of children in this round
+	 *
+	 * @return how many got what they wanted
+	 */
+	private int reap (int n)
+	{
+		int r;
+
+		while (exited < n) {
+			MPosixIf.sleep (5);
+		}
+		r = got;
+		exited = 0;
+		got = 0;
+		return r;
+	}
+
+
+	/**
+	 * child: reads one byte from a pipe
+	 *
+	 * @param rfd read end
+	 * @param wfd write end (closed, so end-of-file can happen)
+	 *
+	 * @return exit code
+	 */
+	private int child_read (int rfd, int wfd)
+	{
+		byte buf[] = new byte[1];
+		int x;
+
+		MPosixIf.signal (MSignal.SIGUSR1, MSignal.SIG_CATCH);
+		MPosixIf.close (wfd);
+		x = MPosixIf.read (rfd, buf, 1);
+		return (x == 1) ? GOT_IT : ((x == -MSystem.EINTR) ? INTERRUPTED : OTHER);
+	}
+
+
+	/**
+	 * child: sends one message
+	 *
+	 * @param pid where to
+	 *
+	 * @return exit code
+	 */
+	private int child_send (int pid)
+	{
+		int x;
+
+		MPosixIf.signal (MSignal.SIGUSR1, MSignal.SIG_CATCH);
+		x = MPosixIf.sendmsg (pid, 0, "waketest");
+		return (x == 0) ? GOT_IT : ((x == -MSystem.EINTR) ? INTERRUPTED : OTHER);
+	}
+
+
+	/**
+	 * signal handler
+	 *
+	 * @param signo signal number
+	 * @param sigdata signal specific data
+	 */
+	public void signal (int signo, Object sigdata)
+	{
+		if (signo == MSignal.SIGCHLD) {
+			int data[] = (int[])sigdata;
+
+			exited++;
+			if (data[1] == GOT_IT) {
+				got++;
+			}
+		}
+		return;
+	}
+
+}
+
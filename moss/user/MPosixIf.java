@@ -474,6 +474,8 @@ public class MPosixIf
 			code = fh.flags;
 			break;
 		case MFileOps.F_SETFL:		/* set file-descriptor flags */
+		case MFileOps.F_SETPIPE_SZ:	/* set/get pipe capacity */
+		case MFileOps.F_GETPIPE_SZ:
 			if (fh.fileif == null) {
 				code = -MSystem.EIO;
 			} else {
@@ -490,6 +492,64 @@ public class MPosixIf
 		return code;
 	}
 	//}}}
+	//{{{  public static int splice (int fd_in, int fd_out, int len)
+	/**
+	 * moves data between two file-descriptors, at least one of which must
+	 * be a pipe, without it passing through the caller.  Between pipes the
+	 * data is not copied at all.  Blocks until there is something to move.
+	 *
+	 * @param fd_in file-descriptor to move data from
+	 * @param fd_out file-descriptor to move data to
+	 * @param len maximum number of bytes to move
+	 *
+	 * @return number of bytes moved, 0 on end-of-file, or &lt; 0 indicating error
+	 */
+	public static int splice (int fd_in, int fd_out, int len)
+	{
+		return do_splice (fd_in, fd_out, len, false, "splice");
+	}
+	//}}}
+	//{{{  public static int tee (int fd_in, int fd_out, int len)
+	/**
+	 * copies data from one pipe to another without consuming it from the
+	 * first (or copying the data itself).  Blocks until there is something
+	 * in the input pipe.
+	 *
+	 * @param fd_in pipe to copy data from
+	 * @param fd_out pipe to copy data to
+	 * @param len maximum number of bytes to copy
+	 *
+	 * @return number of bytes copied, 0 on end-of-file, or &lt; 0 indicating error
+	 */
+	public static int tee (int fd_in, int fd_out, int len)
+	{
+		return do_splice (fd_in, fd_out, len, true, "tee");
+	}
+	//}}}
+	//{{{  private static int do_splice (int fd_in, int fd_out, int len, boolean tee, String name)
+	/**
+	 * does splice() and tee()
+	 */
+	private static int do_splice (int fd_in, int fd_out, int len, boolean tee, String name)
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		int code;
+
+		MProcess.sync_process_signals (current);
+		if ((fd_in < 0) || (fd_in >= current.files.length) || (current.files[fd_in] == null)) {
+			return -MSystem.EBADF;
+		} else if ((fd_out < 0) || (fd_out >= current.files.length) || (current.files[fd_out] == null)) {
+			return -MSystem.EBADF;
+		}
+		current.syscall = name;
+
+		code = MPipe.splice (current.files[fd_in], current.files[fd_out], len, tee);
+		MProcess.sync_process_signals (current);
+
+		current.syscall = null;
+		return code;
+	}
+	//}}}
 	//{{{  public static int unlink (String path)
 	/**
 	 * unlinks (removes) a file or directory
@@ -793,6 +853,44 @@ public class MPosixIf
 		return npid;
 	}
 	//}}}
+	//{{{  public static int forkexecn (String cmd, String argvs[][], int pids[])
+	/**
+	 * starts several copies of a program at once, like calling forkexec()
+	 * once for each set of arguments, but the program is only found and
+	 * loaded once and the new processes are queued to run together.
+	 * Either all are started, or none are.
+	 *
+	 * @param cmd program name to run
+	 * @param argvs arguments to pass to each started process (one set per process)
+	 * @param pids filled in with the process-IDs of the new processes
+	 *
+	 * @return number of processes started on success, or &lt; 0 indicating error
+	 */
+	public static int forkexecn (String cmd, String argvs[][], int pids[])
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		String copies[][];
+		int n;
+
+		if ((argvs == null) || (pids == null)) {
+			return -MSystem.EINVAL;
+		}
+		copies = new String[argvs.length][];
+		for (int i=0; i<argvs.length; i++) {
+			if (argvs[i] == null) {
+				return -MSystem.EINVAL;
+			}
+			copies[i] = argvs[i].clone();
+		}
+
+		MProcess.sync_process_signals (current);
+		/* attempt to start processes */
+		current.syscall = "forkexecn";
+		n = MProcess.create_user_processes (new String(cmd), current, copies, MProcess.INHERIT_OPEN_FILES, pids);
+		current.syscall = null;
+		return n;
+	}
+	//}}}
 	//{{{  public static int writeklog (String str)
 	/**
 	 * writes a string to the kernel log
@@ -844,13 +942,8 @@ public class MPosixIf
 		/* closes any open files, etc. */
 		current.terminate_process (exitcode);
 
-		/* in theory, we never get this far.. */
-		synchronized (current) {
-			/* deadlock is about the best we can do.. */
-			try {
-				current.wait ();
-			} catch (InterruptedException e) {}
-		}
+		/* in theory, we never get this far.. deadlock is about the best we can do.. */
+		current.halt ();
 	}
 	//}}}
 	//{{{  public static int pause ()
@@ -1136,13 +1229,14 @@ public class MPosixIf
 	//}}}
 	//{{{  public static int sendmsg (int pid, int type, Object message)
 	/**
-	 * this is used to send a message to another process
+	 * this is used to send a message to another process.  Blocks while the
+	 * receiver's mailbox is full, unless that is the caller's own.
 	 *
 	 * @param pid target process PID
 	 * @param type message type (application specific)
 	 * @param message object message (application specific)
 	 *
-	 * @return 0 on success, or &lt; 0 indicating error
+	 * @return 0 on success, or &lt; 0 indicating error (-EAGAIN if sending to a full mailbox of one's own)
 	 */
 	public static int sendmsg (int pid, int type, Object message)
 	{
@@ -1157,7 +1251,41 @@ public class MPosixIf
 			return -MSystem.ESRCH;
 		}
 		current.syscall = "sendmsg";
-		code = MMailBox.sendmsg (current.pid, pid, type, message);
+		code = MMailBox.sendmsgv (current.pid, pid, new int[] {type}, new Object[] {message}, true);
+		current.syscall = null;
+		return (code < 0) ? code : 0;
+	}
+	//}}}
+	//{{{  public static int sendmsgv (int pid, int types[], Object messages[])
+	/**
+	 * this is used to send many messages to another process in one go.  Blocks
+	 * while the receiver's mailbox is full, unless that is the caller's own.
+	 *
+	 * @param pid PID of the process to send to
+	 * @param types message types (application specific)
+	 * @param messages object messages (application specific), same length as types
+	 *
+	 * @return number of messages sent (fewer than given if interrupted by a signal, or if sending to a full mailbox of
+	 *	one's own), or &lt; 0 indicating error (-EAGAIN if none went)
+	 */
+	public static int sendmsgv (int pid, int types[], Object messages[])
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		int code;
+
+		if ((pid < 0) || (types == null) || (messages == null) || (types.length != messages.length)) {
+			return -MSystem.EINVAL;
+		}
+		for (int i = 0; i < types.length; i++) {
+			if ((types[i] < 0) || (messages[i] == null)) {
+				return -MSystem.EINVAL;
+			}
+		}
+		if (MKernel.find_process (pid) == null) {
+			return -MSystem.ESRCH;
+		}
+		current.syscall = "sendmsgv";
+		code = MMailBox.sendmsgv (current.pid, pid, types, messages, true);
 		current.syscall = null;
 		return code;
 	}
@@ -1185,6 +1313,31 @@ public class MPosixIf
 		return result;
 	}
 	//}}}
+	//{{{  public static int recvmsgv (int pid, int type, Object messages[])
+	/**
+	 * this is used to receive many messages in one go.  Blocks until there is
+	 * at least one, then takes as many as are there (up to the array size).
+	 *
+	 * @param pid specific PID to receive from (or -1 for any)
+	 * @param type specific message type to receive (application specific, or -1 for any)
+	 * @param messages where the messages are stored, oldest first
+	 *
+	 * @return number of messages received, or &lt; 0 indicating error
+	 */
+	public static int recvmsgv (int pid, int type, Object messages[])
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		int code;
+
+		if ((pid < -1) || (type < -1) || (messages == null) || (messages.length == 0)) {
+			return -MSystem.EINVAL;
+		}
+		current.syscall = "recvmsgv";
+		code = MMailBox.recvmsgv (pid, current.pid, type, messages);
+		current.syscall = null;
+		return code;
+	}
+	//}}}
 	//{{{  public static int semop (int op, int key, int value)
 	/**
 	 * this is used to perform a semaphore operation.
@@ -1223,6 +1376,37 @@ public class MPosixIf
 		return code;
 	}
 	//}}}
+	//{{{  public static int semopv (int keys[], int values[])
+	/**
+	 * this is used to change several semaphores together:  waits until all
+	 * the decrements can be done at once, then does all the changes (like a
+	 * System V semop() with an array).
+	 *
+	 * @param keys semaphore keys (identifiers)
+	 * @param values adjustment to each
+	 *
+	 * @return 0 on success, or &lt; 0 indicating error
+	 */
+	public static int semopv (int keys[], int values[])
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		int code;
+
+		if ((keys == null) || (values == null) || (keys.length == 0) || (keys.length != values.length)) {
+			return -MSystem.EINVAL;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] < 0) {
+				return -MSystem.EINVAL;
+			}
+		}
+		MProcess.sync_process_signals (current);
+		current.syscall = "semopv";
+		code = MSemaphore.semsetv (current, keys, values);
+		current.syscall = null;
+		return code;
+	}
+	//}}}
 	//{{{  public static int mount (String path, String fstype, String options[])
 	/**
 	 * this is used to mount a file-system.
@@ -1393,10 +1577,85 @@ public class MPosixIf
 		return -MSystem.ENOSYS;
 	}
 	//}}}
+	//{{{  public static int sched_setaffinity (int pid, int cpus[])
+	/**
+	 * sets the processors a process may run on.  Child processes inherit this.
+	 *
+	 * @param pid ID of process (0 for the caller)
+	 * @param cpus processor numbers allowed, or null for any
+	 *
+	 * @return 0 on success, or &lt; 0 indicating error
+	 */
+	public static int sched_setaffinity (int pid, int cpus[])
+	{
+		MProcess current = MKernel.current[MProcessor.currentCPU()];
+		MProcess other;
+		MCpuMask mask = null;
+		int code;
+
+		if (pid < 0) {
+			return -MSystem.EINVAL;
+		}
+		other = (pid == 0) ? current : MKernel.find_process (pid);
+		if (other == null) {
+			return -MSystem.ESRCH;
+		}
+		if (cpus != null) {
+			mask = new MCpuMask (MConfig.ncpus);
+			for (int i=0; i<cpus.length; i++) {
+				if ((cpus[i] < 0) || (cpus[i] >= MConfig.ncpus)) {
+					return -MSystem.EINVAL;
+				}
+				mask.set (cpus[i]);
+			}
+		}
+
+		current.syscall = "sched_setaffinity";
+		code = MKernel.set_affinity (other, mask);
+		current.syscall = null;
+		return code;
+	}
+	//}}}
+	//{{{  public static int[] sched_getaffinity (int pid)
+	/**
+	 * returns the processors a process may run on
+	 *
+	 * @param pid ID of process (0 for the caller)
+	 *
+	 * @return processor numbers, or null if there is no such process
+	 */
+	public static int[] sched_getaffinity (int pid)
+	{
+		MProcess other;
+		MCpuMask mask;
+		int r[];
+
+		if (pid < 0) {
+			return null;
+		}
+		other = (pid == 0) ? MKernel.current[MProcessor.currentCPU()] : MKernel.find_process (pid);
+		if (other == null) {
+			return null;
+		}
+		mask = other.affinity;
+		if (mask != null) {
+			return mask.to_array ();
+		}
+		r = new int[MConfig.ncpus];
+		for (int i=0; i<r.length; i++) {
+			r[i] = i;
+		}
+		return r;
+	}
+	//}}}
 	
 	public static Boolean setPriority(int pid, ProcessPriorityEnum priority) {
 		return MKernel.setProcessPriority(pid, priority);
 	}
+	
+	public static Boolean setTickets(int pid, int tickets) {
+		return MKernel.setProcessTickets(pid, tickets);
+	}
 }
 
 